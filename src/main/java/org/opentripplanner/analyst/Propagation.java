@@ -0,0 +1,56 @@
+package org.opentripplanner.analyst;
+
+/**
+ * Min-plus kernels propagating travel times over dense int arrays indexed by vertex index, from transit stops to
+ * street vertices and from street vertices to the samples of a PointSet.
+ *
+ * Unreached vertices hold UNREACHED rather than Integer.MAX_VALUE, so that a walking time can be added to any
+ * vertex time without overflow and the loops need no branch to skip them: any sum at or above UNREACHED is
+ * unreached. The loop bodies are kept to loads, adds and Math.min, which the JIT compiles to conditional moves and
+ * can unroll.
+ */
+public final class Propagation {
+
+    /** The time of an unreached vertex. Walking times added to it must be below UNREACHED too. */
+    public static final int UNREACHED = Integer.MAX_VALUE / 2;
+
+    private Propagation() { }
+
+    /**
+     * Propagate the arrival time at a transit stop to the street vertices of its tree, keeping the earliest time at
+     * each vertex: times[v] = min(times[v], stopTime + distance * secondsPerMeter).
+     *
+     * @param tree (vertex index, distance in meters) pairs, as in StopTreeCache
+     * @param secondsPerMeter the inverse of the walking speed
+     * @param maxWalkTime the longest walk in seconds; vertices farther away are left alone
+     * @param maxTime the latest time of interest; later times are not recorded
+     */
+    public static void propagateTree(int[] tree, int stopTime, float secondsPerMeter, int maxWalkTime, int maxTime,
+            int[] times) {
+        for (int i = 0; i < tree.length; i += 2) {
+            int v = tree[i];
+            int walkTime = (int) (tree[i + 1] * secondsPerMeter);
+            int t = stopTime + walkTime;
+            times[v] = Math.min(times[v], walkTime <= maxWalkTime && t <= maxTime ? t : UNREACHED);
+        }
+    }
+
+    /**
+     * Evaluate the travel time to each sample from the times at the vertices at both ends of its road:
+     * min(times[v0] + t0, times[v1] + t1).
+     *
+     * @param times the time at every vertex by vertex index, or UNREACHED
+     * @param v0s, v1s the vertex indexes at the two ends of the road of each sample
+     * @param t0s, t1s the walking times in seconds to those vertices, at most UNREACHED
+     * @param result receives the time to each sample, or Integer.MAX_VALUE if it is not reached
+     * @return result
+     */
+    public static int[] evalSamples(int[] times, int[] v0s, int[] t0s, int[] v1s, int[] t1s, int[] result) {
+        for (int i = 0; i < result.length; i++) {
+            int t = Math.min(times[v0s[i]] + t0s[i], times[v1s[i]] + t1s[i]);
+            result[i] = t < UNREACHED ? t : Integer.MAX_VALUE;
+        }
+        return result;
+    }
+
+}
@@ -2,64 +2,55 @@ package org.opentripplanner.analyst;
 
 import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.request.SampleFactory;
-import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.Arrays;
 
 /**
  * We never use samples in isolation, so let's store them as a column store.
+ * Vertices are stored by index, so samples are evaluated by {@link Propagation} over the dense vertex times of a
+ * TimeSurface.
  */
 public class SampleSet {
 
+    private static final float WALK_SPEED = 1.3f;
+
     public final PointSet pset;
 
-    /* Vertices at the two ends of a road, one per sample. */
-    Vertex[] v0s;
-    Vertex[] v1s;
+    /* Indexes of the vertices at the two ends of a road, one per sample. A sample without a vertex at one end has
+       the index 0 and the walking time Propagation.UNREACHED there, so that end is never reached. */
+    int[] v0s;
+    int[] v1s;
 
-    /* Distances to the vertices at the two ends of a road, one per sample. */
-    float[] d0s;
-    float[] d1s;
+    /* Walking times in seconds to the vertices at the two ends of a road, one per sample. */
+    int[] t0s;
+    int[] t1s;
 
     public SampleSet (PointSet pset, SampleFactory sfac) {
         this.pset = pset;
-        v0s = new Vertex[pset.capacity];
-        v1s = new Vertex[pset.capacity];
-        d0s = new float[pset.capacity];
-        d1s = new float[pset.capacity];
+        v0s = new int[pset.capacity];
+        v1s = new int[pset.capacity];
+        t0s = new int[pset.capacity];
+        t1s = new int[pset.capacity];
+        Arrays.fill(t0s, Propagation.UNREACHED);
+        Arrays.fill(t1s, Propagation.UNREACHED);
         for (int i = 0; i < pset.capacity; i++) {
             Sample sample = sfac.getSample(pset.lons[i], pset.lats[i]);
-            if (sample == null) {
-                d0s[i] = Float.NaN;
-                d1s[i] = Float.NaN;
-                continue;
+            if (sample == null) continue;
+            // TODO time not distance in samples
+            if (sample.v0 != null) {
+                v0s[i] = sample.v0.getIndex();
+                t0s[i] = (int) (sample.t0 / WALK_SPEED);
+            }
+            if (sample.v1 != null) {
+                v1s[i] = sample.v1.getIndex();
+                t1s[i] = (int) (sample.t1 / WALK_SPEED);
             }
-            v0s[i] = sample.v0;
-            v1s[i] = sample.v1;
-            d0s[i] = sample.t0; // TODO time not distance in samples
-            d1s[i] = sample.t1; // TODO time not distance in samples
         }
     }
 
+    /** @return the travel time to each sample, or Integer.MAX_VALUE for those not reached. */
     public int[] eval (TimeSurface surf) {
-        final float WALK_SPEED = 1.3f;
-        int[] ret = new int[pset.capacity];
-        for (int i = 0; i < pset.capacity; i++) {
-            int m0 = Integer.MAX_VALUE;
-            int m1 = Integer.MAX_VALUE;
-            if (v0s[i] != null) {
-                int s0 = surf.getTime(v0s[i]);
-                if (s0 != TimeSurface.UNREACHABLE) {
-                    m0 = (int) (s0 + d0s[i] / WALK_SPEED);
-                }
-            }
-            if (v1s[i] != null) {
-                int s1 = surf.getTime(v1s[i]);
-                if (s1 != TimeSurface.UNREACHABLE) {
-                    m1 = (int) (s1 + d1s[i] / WALK_SPEED);
-                }
-            }
-            ret[i] = (m0 < m1) ? m0 : m1;
-        }
-        return ret;
+        return Propagation.evalSamples(surf.getVertexTimes(), v0s, t0s, v1s, t1s, new int[pset.capacity]);
     }
 
 }
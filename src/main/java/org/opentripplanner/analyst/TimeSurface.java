@@ -1,9 +1,6 @@
 package org.opentripplanner.analyst;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import gnu.trove.iterator.TObjectIntIterator;
-import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
 import org.apache.commons.math3.util.FastMath;
 import org.opentripplanner.analyst.request.SampleGridRenderer;
 import org.opentripplanner.analyst.request.SampleGridRenderer.WTWD;
@@ -12,6 +9,7 @@ import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.profile.AnalystProfileRouterPrototype;
 import org.opentripplanner.profile.ProfileRequest;
 import org.opentripplanner.profile.ProfileRouter;
+import org.opentripplanner.profile.RaptorRouter;
 import org.opentripplanner.profile.TimeRange;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Vertex;
@@ -23,7 +21,11 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.font.NumericShaper;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static org.apache.commons.math3.util.FastMath.max;
 import static org.apache.commons.math3.util.FastMath.min;
@@ -33,6 +35,9 @@ import static org.apache.commons.math3.util.FastMath.toRadians;
  * A travel time surface. Timing information from the leaves of a ShortestPathTree.
  * In Portland, one timesurface takes roughly one MB of memory and is also about that size as JSON.
  * However it is proportionate to the graph size not the time cutoff.
+ *
+ * The times are kept in a dense array by vertex index, filled in when the surface is built, which the kernels in
+ * {@link Propagation} read directly; the vertices reached are listed apart for iterating over the surface.
  */
 public class TimeSurface implements Serializable {
 
@@ -42,7 +47,9 @@ public class TimeSurface implements Serializable {
 
     public final String routerId;
     public final int id;
-    public final TObjectIntMap<Vertex> times = new TObjectIntHashMap<Vertex>(500000, 0.5f, UNREACHABLE);
+    /* The time at every vertex by vertex index, or Propagation.UNREACHED, and the vertices with a time. */
+    private final int[] vertexTimes = makeUnreachedTimes();
+    private final List<Vertex> reachedVertices = new ArrayList<Vertex>();
     public final double lat, lon;
     public int cutoffMinutes;
     public long dateTime;
@@ -65,10 +72,9 @@ public class TimeSurface implements Serializable {
         for (State state : spt.getAllStates()) {
             Vertex vertex = state.getVertex();
             if (vertex instanceof StreetVertex || vertex instanceof TransitStop) {
-                int existing = times.get(vertex);
                 int t = (int) state.getActiveTime();
-                if (existing == UNREACHABLE || existing > t) {
-                    times.put(vertex, t);
+                if (t < getVertexTime(vertex)) {
+                    putTime(vertex, t);
                 }
             }
         }
@@ -83,6 +89,34 @@ public class TimeSurface implements Serializable {
         makeSampleGrid(spt);
     }
 
+    private static int[] makeUnreachedTimes() {
+        int[] times = new int[Vertex.getMaxIndex()];
+        Arrays.fill(times, Propagation.UNREACHED);
+        return times;
+    }
+
+    /** @return the time at the given vertex, or Propagation.UNREACHED. */
+    private int getVertexTime(Vertex v) {
+        int index = v.getIndex();
+        return index < vertexTimes.length ? vertexTimes[index] : Propagation.UNREACHED;
+    }
+
+    /** Set the time at a vertex, which must be a vertex of the graph the surface was made for. */
+    private void putTime(Vertex v, int t) {
+        int index = v.getIndex();
+        if (index >= vertexTimes.length) return; // created after the surface, so a temporary vertex
+        if (vertexTimes[index] == Propagation.UNREACHED) reachedVertices.add(v);
+        vertexTimes[index] = t;
+    }
+
+    /**
+     * @return the time at every vertex by vertex index, or Propagation.UNREACHED, for evaluating samples with the
+     *         dense kernels in {@link Propagation}. The array is the one held by the surface and must not be modified.
+     */
+    public int[] getVertexTimes() {
+        return vertexTimes;
+    }
+
     /** Make a max or min timesurface from propagated times in a ProfileRouter. */
     public TimeSurface (AnalystProfileRouterPrototype profileRouter) {
         ProfileRequest req = profileRouter.request;
@@ -101,9 +135,9 @@ public class TimeSurface implements Serializable {
         for (Map.Entry<Vertex, TimeRange> vtr : profileRouter.propagatedTimes.entrySet()) {
             Vertex v = vtr.getKey();
             TimeRange tr = vtr.getValue();
-            minSurface.times.put(v, tr.min);
-            avgSurface.times.put(v, tr.avg);
-            maxSurface.times.put(v, tr.max);
+            minSurface.putTime(v, tr.min);
+            avgSurface.putTime(v, tr.avg);
+            maxSurface.putTime(v, tr.max);
         }
         RangeSet result = new RangeSet();
         minSurface.description = "Travel times assuming best luck (never waiting for a transfer).";
@@ -115,15 +149,66 @@ public class TimeSurface implements Serializable {
         return result;
     }
 
-    /** Groups together three TimeSurfaces as a single response for profile-analyst. */
+    /** Make a max or min timesurface from propagated times in a RaptorRouter. */
+    public TimeSurface (RaptorRouter raptorRouter) {
+        ProfileRequest req = raptorRouter.request;
+        lon = req.from.lon;
+        lat = req.from.lat;
+        id = makeUniqueId();
+        dateTime = req.fromTime; // FIXME
+        routerId = raptorRouter.graph.routerId;
+        cutoffMinutes = RaptorRouter.MAX_DURATION / 60;
+    }
+
+    /**
+     * Make the best, average and worst case surfaces over the departure minutes searched by a RaptorRouter, and one
+     * surface for each of its travel time percentiles.
+     */
+    public static TimeSurface.RangeSet makeSurfaces (RaptorRouter raptorRouter) {
+        TimeSurface minSurface = new TimeSurface(raptorRouter);
+        TimeSurface avgSurface = new TimeSurface(raptorRouter);
+        TimeSurface maxSurface = new TimeSurface(raptorRouter);
+        TimeSurface[] percentileSurfaces = new TimeSurface[RaptorRouter.PERCENTILES.length];
+        for (int p = 0; p < percentileSurfaces.length; p++) {
+            percentileSurfaces[p] = new TimeSurface(raptorRouter);
+            percentileSurfaces[p].description = String.format(
+                    "Travel times not exceeded in %d%% of the departure minutes in the window.",
+                    RaptorRouter.PERCENTILES[p]);
+        }
+        for (int i = 0; i < raptorRouter.getReachedCount(); i++) {
+            Vertex v = raptorRouter.getReachedVertex(i);
+            minSurface.putTime(v, raptorRouter.getMinTime(i));
+            avgSurface.putTime(v, raptorRouter.getAvgTime(i));
+            maxSurface.putTime(v, raptorRouter.getMaxTime(i));
+            for (int p = 0; p < percentileSurfaces.length; p++) {
+                int t = raptorRouter.getPercentileTime(p, i);
+                if (t != UNREACHABLE) percentileSurfaces[p].putTime(v, t);
+            }
+        }
+        RangeSet result = new RangeSet();
+        minSurface.description = "Travel times for the best departure minute in the window.";
+        avgSurface.description = "Travel times averaged over the departure minutes in the window.";
+        maxSurface.description = "Travel times for the worst departure minute in the window.";
+        result.min = minSurface;
+        result.avg = avgSurface;
+        result.max = maxSurface;
+        for (int p = 0; p < percentileSurfaces.length; p++) {
+            result.percentiles.put(RaptorRouter.PERCENTILES[p], percentileSurfaces[p]);
+        }
+        return result;
+    }
+
+    /** Groups together three TimeSurfaces, and any percentile surfaces, as a single response for profile-analyst. */
     public static class RangeSet {
         public TimeSurface min;
         public TimeSurface avg;
         public TimeSurface max;
+        public final Map<Integer, TimeSurface> percentiles = new TreeMap<Integer, TimeSurface>();
     }
 
     public int getTime(Vertex v) {
-        return times.get(v);
+        int t = getVertexTime(v);
+        return t == Propagation.UNREACHED ? UNREACHABLE : t;
     }
 
     private synchronized int makeUniqueId() {
@@ -166,15 +251,13 @@ public class TimeSurface implements Serializable {
         final double cosLat = FastMath.cos(toRadians(coordinateOrigin.y));
         double dY = Math.toDegrees(gridSizeMeters / SphericalDistanceLibrary.RADIUS_OF_EARTH_IN_M);
         double dX = dY / cosLat;
-        sampleGrid = new SparseMatrixZSampleGrid<WTWD>(16, this.times.size(), dX, dY, coordinateOrigin);
+        sampleGrid = new SparseMatrixZSampleGrid<WTWD>(16, reachedVertices.size(), dX, dY, coordinateOrigin);
         AccumulativeGridSampler.AccumulativeMetric<WTWD> metric = new SampleGridRenderer.WTWDAccumulativeMetric(cosLat, D0, V0, gridSizeMeters);
         AccumulativeGridSampler<WTWD> sampler = new AccumulativeGridSampler<WTWD>(sampleGrid, metric);
         // Iterate over every vertex in this timesurface, adding it to the ZSampleGrid
         // TODO propagation along street geometries could happen at this stage, rather than when the SPT is still available.
-        for (TObjectIntIterator<Vertex> iter = times.iterator(); iter.hasNext(); ) {
-            iter.advance();
-            Vertex vertex = iter.key();
-            int time = iter.value();
+        for (Vertex vertex : reachedVertices) {
+            int time = vertexTimes[vertex.getIndex()];
             WTWD z = new WTWD();
             z.w = 1.0;
             z.d = 0.0;
@@ -28,6 +28,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.api.parameter.QualifiedModeSetSequence;
 import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchCancellation;
 import org.opentripplanner.routing.request.BannedStopSet;
 import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
@@ -329,6 +330,7 @@ public abstract class RoutingResource {
      */
     protected RoutingRequest buildRequest(int n) throws ParameterException {
         RoutingRequest request = otpServer.routingRequest.clone();
+        request.cancellation = new SearchCancellation(); // never share the template's flag between requests
         request.setFromString(get(fromPlace, n, request.getFromPlace().getRepresentation()));
         request.setToString(get(toPlace, n, request.getToPlace().getRepresentation()));
         request.routerId = routerId;
@@ -69,6 +69,7 @@ public class Planner extends RoutingResource {
         try {
             // fill in request from query parameters via shared superclass method
             request = super.buildRequest();
+            otpServer.activeSearches.register(request.cancellation);
             Router router = otpServer.getRouter(request.routerId);
             TripPlan plan = router.planGenerator.generate(request);
             response.setPlan(plan);
@@ -79,6 +80,7 @@ public class Planner extends RoutingResource {
             response.setError(error);
         } finally {
             if (request != null) {
+                otpServer.activeSearches.unregister(request.cancellation);
                 if (request.rctx != null) {
                     response.debugOutput = request.rctx.debugOutput;
                 }
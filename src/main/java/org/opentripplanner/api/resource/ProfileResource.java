@@ -52,6 +52,7 @@ public class ProfileResource {
             @QueryParam("from")  LatLon from,
             @QueryParam("to")    LatLon to,
             @QueryParam("analyst")      @DefaultValue("false") boolean analyst,
+            @QueryParam("raptor")       @DefaultValue("false") boolean raptor,
             @QueryParam("date")         @DefaultValue("today") YearMonthDay date,
             @QueryParam("startTime")    @DefaultValue("07:00") HourMinuteSecond fromTime,
             @QueryParam("endTime")      @DefaultValue("09:00") HourMinuteSecond toTime,
@@ -101,6 +102,7 @@ public class ProfileResource {
         req.directModes  = directModes;
         req.transitModes = transitModes;
         req.analyst      = analyst;
+        req.raptor       = raptor;
         req.streetTime   = streetTime;
         req.maxWalkTime  = maxWalkTime;
         req.maxBikeTime  = maxBikeTime;
@@ -111,12 +113,20 @@ public class ProfileResource {
 
         /* Use the new prototype faster profile-analyst. Really this should be constrained to freq-only cases. */
         if (req.analyst == true) {
-            AnalystProfileRouterPrototype router = new AnalystProfileRouterPrototype(graph, req);
-            TimeSurface.RangeSet result = router.route();
+            TimeSurface.RangeSet result;
+            if (req.raptor) {
+                // round-based range search over the scheduled trips, sweeping the departure minutes
+                result = new RaptorRouter(graph, req).route();
+            } else {
+                result = new AnalystProfileRouterPrototype(graph, req).route();
+            }
             Map<String, Integer> idForSurface = Maps.newHashMap();
             idForSurface.put("min", surfaceCache.add(result.min)); // requires analyst mode turned on
             idForSurface.put("avg", surfaceCache.add(result.avg));
             idForSurface.put("max", surfaceCache.add(result.max));
+            for (Map.Entry<Integer, TimeSurface> entry : result.percentiles.entrySet()) {
+                idForSurface.put("p" + entry.getKey(), surfaceCache.add(entry.getValue()));
+            }
             return Response.status(Status.OK).entity(idForSurface).build();
         } else {
             ProfileRouter router = new ProfileRouter(graph, req);
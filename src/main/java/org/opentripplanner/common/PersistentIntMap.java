@@ -0,0 +1,153 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable map from non-negative int keys to non-null values, stored as a 32-way trie over the
+ * bits of the key. Modifications return a new map that shares all but the path to the modified key
+ * with the original one, so keeping old versions around is cheap: a put or remove copies at most
+ * seven small arrays, whatever the size of the map. Intended for dense keys such as object indexes.
+ */
+public final class PersistentIntMap<V> {
+
+    private static final int BITS = 5;
+
+    private static final int WIDTH = 1 << BITS;
+
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<Object>(null, 0, 0);
+
+    /** The top level of the trie, or null if the map is empty. Leaves hold the values. */
+    private final Object[] root;
+
+    /** The number of key bits below the top level. */
+    private final int shift;
+
+    private final int size;
+
+    private PersistentIntMap(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the value for the given key, or null if there is none. */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (root == null || key < 0 || (key >>> shift) >= WIDTH)
+            return null;
+        Object[] node = root;
+        for (int s = shift; s > 0; s -= BITS) {
+            node = (Object[]) node[(key >>> s) & MASK];
+            if (node == null)
+                return null;
+        }
+        return (V) node[key & MASK];
+    }
+
+    /** @return a map in which the given key has the given value, and all other keys are unchanged. */
+    public PersistentIntMap<V> put(int key, V value) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative key " + key);
+        if (value == null)
+            return remove(key);
+        V old = get(key);
+        if (old == value)
+            return this;
+        Object[] newRoot = root;
+        int newShift = shift;
+        if (newRoot == null) {
+            newShift = 0;
+            while ((key >>> newShift) >= WIDTH)
+                newShift += BITS;
+        } else {
+            // grow the trie upward until its top level covers the key
+            while ((key >>> newShift) >= WIDTH) {
+                Object[] top = new Object[WIDTH];
+                top[0] = newRoot;
+                newRoot = top;
+                newShift += BITS;
+            }
+        }
+        return new PersistentIntMap<V>(assoc(newRoot, newShift, key, value), newShift,
+                old == null ? size + 1 : size);
+    }
+
+    /** @return a map without the given key, and all other keys unchanged. */
+    public PersistentIntMap<V> remove(int key) {
+        if (get(key) == null)
+            return this;
+        Object[] newRoot = dissoc(root, shift, key);
+        if (newRoot == null)
+            return empty();
+        return new PersistentIntMap<V>(newRoot, shift, size - 1);
+    }
+
+    /** @return the values of the map, in key order. */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> values = new ArrayList<V>(size);
+        if (root != null)
+            collect(root, shift, (List<Object>) values);
+        return values;
+    }
+
+    private static Object[] assoc(Object[] node, int shift, int key, Object value) {
+        Object[] copy = (node == null) ? new Object[WIDTH] : node.clone();
+        int i = (key >>> shift) & MASK;
+        copy[i] = (shift == 0) ? value : assoc((Object[]) copy[i], shift - BITS, key, value);
+        return copy;
+    }
+
+    /** @return a copy of the node without the key, or null if that leaves the node empty. */
+    private static Object[] dissoc(Object[] node, int shift, int key) {
+        int i = (key >>> shift) & MASK;
+        Object[] copy = node.clone();
+        copy[i] = (shift == 0) ? null : dissoc((Object[]) node[i], shift - BITS, key);
+        for (Object child : copy) {
+            if (child != null)
+                return copy;
+        }
+        return null;
+    }
+
+    private static void collect(Object[] node, int shift, List<Object> values) {
+        for (Object child : node) {
+            if (child == null)
+                continue;
+            if (shift == 0)
+                values.add(child);
+            else
+                collect((Object[]) child, shift - BITS, values);
+        }
+    }
+
+}
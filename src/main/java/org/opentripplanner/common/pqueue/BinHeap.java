@@ -23,6 +23,7 @@ public class BinHeap<T> {
     private T[] elem;
     private int size; 
     private int capacity;
+    private int maxSize; // highest slot used since the last clear, to null out references in O(used)
     
     public BinHeap() {
     	this(1000);
@@ -117,11 +118,28 @@ public class BinHeap<T> {
     	size=0;
     } 
 
+    /**
+     * Empties the queue and releases references to the elements it held, so that a pooled queue
+     * does not keep the elements of a previous use alive. Runs in time proportional to the number
+     * of slots used since the last clear, not to the capacity of the queue.
+     */
+    public void clear() {
+        Arrays.fill(elem, 1, maxSize + 1, null);
+        size = 0;
+        maxSize = 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
     public void insert(T e, double p) {
         int i;
         size += 1;
         if (size > capacity) 
         	resize((int) (capacity * GROW_FACTOR));
+        if (size > maxSize)
+            maxSize = size;
         for (i = size; prio[i/2] > p; i /= 2) {
             elem[i] = elem[i/2];
             prio[i] = prio[i/2];
@@ -0,0 +1,58 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTable;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link GraphBuilder} module that precomputes network distances between every vertex and a set
+ * of landmarks, stored in the graph as a {@link LandmarkTable} service. The table serves as a goal
+ * direction heuristic for street searches, and takes nLandmarks * 8 bytes per vertex.
+ *
+ * It should run after all edges have been added to the graph.
+ */
+public class LandmarkGraphBuilderImpl implements GraphBuilder {
+
+    private static Logger LOG = LoggerFactory.getLogger(LandmarkGraphBuilderImpl.class);
+
+    public int nLandmarks = 16;
+
+    public List<String> provides() {
+        return Arrays.asList("landmarks");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Computing distances to {} landmarks", nLandmarks);
+        graph.putService(LandmarkTable.class, LandmarkTable.build(graph, nLandmarks));
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+
+}
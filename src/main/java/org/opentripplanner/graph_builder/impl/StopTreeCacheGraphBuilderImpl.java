@@ -0,0 +1,64 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * {@link GraphBuilder} module that precomputes the walking distances from every transit stop to the street
+ * intersections near it, stored in the graph as a {@link StopTreeCache} service. Analyst requests use them to
+ * propagate travel times from transit stops to the streets, and would otherwise build them on first use.
+ *
+ * It should run after the stops have been linked to the street network.
+ */
+public class StopTreeCacheGraphBuilderImpl implements GraphBuilder {
+
+    private static Logger LOG = LoggerFactory.getLogger(StopTreeCacheGraphBuilderImpl.class);
+
+    public int timeCutoffMinutes = StopTreeCache.DEFAULT_CUTOFF_MINUTES;
+
+    public List<String> provides() {
+        return Arrays.asList("stop trees");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("street to transit");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        List<TransitStop> stops = Lists.newArrayList(Iterables.filter(graph.getVertices(), TransitStop.class));
+        LOG.info("Computing walking distances from {} transit stops to the streets within {} minutes",
+                stops.size(), timeCutoffMinutes);
+        graph.putService(StopTreeCache.class, new StopTreeCache(graph, stops, timeCutoffMinutes));
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+
+}
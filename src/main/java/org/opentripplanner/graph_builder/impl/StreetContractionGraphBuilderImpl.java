@@ -0,0 +1,69 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.contraction.ContractionHierarchyBuilder;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link GraphBuilder} module that preprocesses the street network into one contraction hierarchy
+ * per street mode, using the default routing request cost parameters for that mode. The
+ * hierarchies are stored in the graph as a {@link ContractionHierarchySet} service and are used for
+ * street-only requests with matching parameters.
+ *
+ * It should run after any module modifying street edges or their costs, such as elevation.
+ */
+public class StreetContractionGraphBuilderImpl implements GraphBuilder {
+
+    private static Logger LOG = LoggerFactory.getLogger(StreetContractionGraphBuilderImpl.class);
+
+    public List<TraverseMode> modes = Arrays.asList(TraverseMode.WALK, TraverseMode.BICYCLE,
+            TraverseMode.CAR);
+
+    public List<String> provides() {
+        return Arrays.asList("contraction");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        for (TraverseMode mode : modes) {
+            LOG.info("Building street contraction hierarchy for {}", mode);
+            RoutingRequest options = new RoutingRequest(new TraverseModeSet(mode));
+            hierarchies.add(new ContractionHierarchyBuilder(options).build(graph));
+        }
+        graph.putService(ContractionHierarchySet.class, hierarchies);
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+
+}
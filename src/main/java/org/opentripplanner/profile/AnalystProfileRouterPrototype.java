@@ -1,7 +1,6 @@
 package org.opentripplanner.profile;
 
 import com.google.common.collect.*;
-import gnu.trove.iterator.TObjectIntIterator;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.onebusaway.gtfs.model.Stop;
@@ -13,7 +12,6 @@ import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
-import org.opentripplanner.routing.edgetype.SimpleTransfer;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
@@ -47,12 +45,14 @@ public class AnalystProfileRouterPrototype {
 
     public final Graph graph;
     public final ProfileRequest request;
+    final TransitLayer layer; // the transit network with dense stop and pattern indexes
     public final Map<Vertex, TimeRange> propagatedTimes = Maps.newHashMap(); // the travel times propagated onto the street network
     // TODO propagate times from the origin point without transit.
 
     public AnalystProfileRouterPrototype(Graph graph, ProfileRequest request) {
         this.graph = graph;
         this.request = request;
+        this.layer = graph.index.getTransitLayer();
     }
 
     /* Search state */
@@ -66,8 +66,10 @@ public class AnalystProfileRouterPrototype {
     public Set<TripPattern> uniquePatternsVisiting(Set<Stop> stops) {
         Set<TripPattern> patterns = Sets.newHashSet();
         for (Stop stop : stops) {
-            for (TripPattern pattern : graph.index.patternsForStop.get(stop)) {
-                patterns.add(pattern);
+            int s = layer.indexForStop.get(stop);
+            if (s < 0) continue;
+            for (int i = layer.stopPatternStart[s]; i < layer.stopPatternStart[s + 1]; i++) {
+                patterns.add(layer.patterns[layer.stopPatterns[i]]);
             }
         }
         return patterns;
@@ -97,7 +99,7 @@ public class AnalystProfileRouterPrototype {
         // TimeWindow could constructed in the caller, which does have access to the graph index.
         this.window = new TimeWindow(request.fromTime, request.toTime, graph.index.servicesRunning(request.date));
 
-        fromStops = findClosestStops(TraverseMode.WALK);
+        fromStops = findClosestStops(graph, request, TraverseMode.WALK);
         LOG.info("From patterns/stops: {}", fromStops);
 
         /* Initialize time range tracker to begin the search. */
@@ -157,10 +159,11 @@ public class AnalystProfileRouterPrototype {
                 throw new RuntimeException("Requires the SimpleTransfers generated in long distance mode.");
             }
             for (Stop stop : Lists.newArrayList(stopsUpdated)) {
-                Collection<Edge> outgoingEdges = graph.index.stopVertexForStop.get(stop).getOutgoing();
-                for (SimpleTransfer transfer : Iterables.filter(outgoingEdges, SimpleTransfer.class)) {
-                    Stop targetStop = ((TransitStop) transfer.getToVertex()).getStop();
-                    double walkTime = transfer.getDistance() / request.walkSpeed;
+                int s = layer.indexForStop.get(stop);
+                if (s < 0) continue;
+                for (int i = layer.transferStart[s]; i < layer.transferStart[s + 1]; i++) {
+                    Stop targetStop = layer.stops[layer.transferStops[i]];
+                    double walkTime = layer.transferDistances[i] / request.walkSpeed;
                     TimeRange rangeAfterTransfer = times.get(stop).shift((int)walkTime);
                     if (times.add(targetStop, rangeAfterTransfer)) {
                         stopsUpdated.add(targetStop);
@@ -170,20 +173,20 @@ public class AnalystProfileRouterPrototype {
         }
         LOG.info("Done with transit.");
         LOG.info("Propagating from transit stops to the street network...");
-        // Grab a cached map of distances to street intersections from each transit stop
+        // Grab the cached distances to street intersections from each transit stop
         StopTreeCache stopTreeCache = graph.index.getStopTreeCache();
         // Iterate over all stops that were reached in the transit part of the search
         for (Stop stop : times) {
-            TransitStop tstop = graph.index.stopVertexForStop.get(stop);
+            TransitStop tstop = layer.getStopVertex(stop);
             // Iterate over street intersections in the vicinity of this particular transit stop.
             // Shift the time range at this transit stop, merging it into that for all reachable street intersections.
             TimeRange rangeAtTransitStop = times.get(stop);
-            TObjectIntMap<Vertex> distanceToVertex = stopTreeCache.getDistancesForStop(tstop);
-            for (TObjectIntIterator<Vertex> iter = distanceToVertex.iterator(); iter.hasNext(); ) {
-                iter.advance();
-                Vertex vertex = iter.key();
+            int[] tree = stopTreeCache.getTree(tstop);
+            if (tree == null) continue;
+            for (int i = 0; i < tree.length; i += 2) {
+                Vertex vertex = stopTreeCache.getVertex(tree[i]);
                 // distance in meters over walkspeed in meters per second --> seconds
-                int egressWalkTimeSeconds = (int) (iter.value() / request.walkSpeed);
+                int egressWalkTimeSeconds = (int) (tree[i + 1] / request.walkSpeed);
                 if (egressWalkTimeSeconds > request.maxWalkTime * 60) {
                     continue;
                 }
@@ -203,10 +206,10 @@ public class AnalystProfileRouterPrototype {
     }
 
     /**
-     * Perform an on-street search around a point with a specific mode to find nearby stops.
+     * Perform an on-street search around the origin of the request with a specific mode to find nearby stops.
      * TODO merge with NearbyStopFinder
      */
-    private TObjectIntMap<Stop> findClosestStops(final TraverseMode mode) {
+    static TObjectIntMap<Stop> findClosestStops(Graph graph, ProfileRequest request, final TraverseMode mode) {
         RoutingRequest rr = new RoutingRequest(mode);
         GenericLocation gl = new GenericLocation(request.from.lat, request.from.lon);
         rr.from = gl;
@@ -37,6 +37,7 @@ public class ProfileRequest implements Serializable {
     public int limit;
     public TraverseModeSet accessModes, egressModes, directModes, transitModes;
     public boolean analyst = false; // if true, propagate travel times out to street network
+    public boolean raptor = false; // if true (with analyst), use the RAPTOR router over scheduled trips
 
     /*
       This parameter compensates for the fact that GTFS does not contain information about schedule deviation (lateness).
@@ -76,6 +77,7 @@ public class ProfileRequest implements Serializable {
         ret.transitModes = transitModes != null ? transitModes.clone() : null;
         
         ret.analyst = analyst;
+        ret.raptor = raptor;
         ret.suboptimalMinutes = suboptimalMinutes;
         
         return ret;
@@ -52,10 +52,12 @@ public class ProfileRouter {
 
     public final Graph graph;
     public final ProfileRequest request;
+    final TransitLayer layer; // the transit network with dense stop and pattern indexes
 
     public ProfileRouter(Graph graph, ProfileRequest request) {
         this.graph = graph;
         this.request = request;
+        this.layer = graph.index.getTransitLayer();
     }
 
     /* Search state */
@@ -360,9 +362,10 @@ public class ProfileRouter {
         // Iterate over all StopAtDistance for all Stops. The fastest mode will win at each stop.
         for (StopAtDistance stopDist : stopClusters.values()) {
             for (Stop stop : stopDist.stop.children) {
-                for (TripPattern pattern : graph.index.patternsForStop.get(stop)) {
-                    closest.putMin(pattern, stopDist);
-                    //LOG.info("trip pattern {}", pattern);
+                int s = layer.indexForStop.get(stop);
+                if (s < 0) continue;
+                for (int i = layer.stopPatternStart[s]; i < layer.stopPatternStart[s + 1]; i++) {
+                    closest.putMin(layer.patterns[layer.stopPatterns[i]], stopDist);
                 }
             }
         }
@@ -526,7 +529,7 @@ public class ProfileRouter {
         rr.batch = (true);
         GenericAStar astar = new GenericAStar();
         rr.setNumItineraries(1);
-        for (TransitStop tstop : graph.index.stopVertexForStop.values()) {
+        for (TransitStop tstop : layer.stopVertices) {
             int index = tstop.getIndex();
             // Generate a tree outward from all stops that have been touched in the basic profile search
             if (mins[index] == TimeSurface.UNREACHABLE || maxs[index] == TimeSurface.UNREACHABLE) continue;
@@ -0,0 +1,79 @@
+package org.opentripplanner.profile;
+
+import java.util.BitSet;
+
+/**
+ * The scheduled trips of a {@link TransitLayer} running on one service day, for {@link RaptorSearch}. Stops and
+ * patterns keep their indexes in the layer, and the trip times are packed the same way, keeping only the trips whose
+ * service runs. A pattern with no trip running on the day has none here and is never boarded. It is immutable, and
+ * all the searches on the same day share one through GraphIndex.getRaptorData.
+ *
+ * RAPTOR boards the earliest trip that can be caught, by binary search on the departures at a stop, which assumes
+ * that the trips of a pattern do not overtake one another. The patterns where some running trips do are flagged in
+ * overtaking, and are scanned trip by trip instead.
+ */
+public class RaptorData {
+
+    public final TransitLayer layer;
+
+    /* The running trips of each pattern. Times are at [stopPosition * nTrips + trip]. */
+    final int[] nTrips;
+    final int[][] departures;
+    final int[][] arrivals;
+
+    /* The patterns whose running trips are not in the same order at every stop. */
+    final BitSet overtaking = new BitSet();
+
+    public RaptorData(TransitLayer layer, BitSet servicesRunning) {
+        this.layer = layer;
+        int nPatterns = layer.getPatternCount();
+        nTrips = new int[nPatterns];
+        departures = new int[nPatterns][];
+        arrivals = new int[nPatterns][];
+        for (int p = 0; p < nPatterns; p++) {
+            int[] serviceCodes = layer.serviceCodes[p];
+            int nAll = serviceCodes.length;
+            int n = 0;
+            for (int t = 0; t < nAll; t++) {
+                if (serviceCodes[t] >= 0 && servicesRunning.get(serviceCodes[t])) n++;
+            }
+            int nPatternStops = layer.patternStopStart[p + 1] - layer.patternStopStart[p];
+            int[] dep = new int[nPatternStops * n];
+            int[] arr = new int[nPatternStops * n];
+            int[] allDep = layer.departures[p];
+            int[] allArr = layer.arrivals[p];
+            // the running trips keep the order of the layer, sorted by departure at the first stop
+            for (int t = 0, trip = 0; t < nAll; t++) {
+                if (serviceCodes[t] < 0 || !servicesRunning.get(serviceCodes[t])) continue;
+                for (int pos = 0; pos < nPatternStops; pos++) {
+                    dep[pos * n + trip] = allDep[pos * nAll + t];
+                    arr[pos * n + trip] = allArr[pos * nAll + t];
+                }
+                trip++;
+            }
+            nTrips[p] = n;
+            departures[p] = dep;
+            arrivals[p] = arr;
+            overtaking.set(p, overtakes(dep, arr, nPatternStops, n));
+        }
+    }
+
+    /** @return whether some trip departs from or arrives at a stop before the trip preceding it does. */
+    private static boolean overtakes(int[] departures, int[] arrivals, int nPatternStops, int n) {
+        for (int pos = 0; pos < nPatternStops; pos++) {
+            for (int i = pos * n + 1; i < (pos + 1) * n; i++) {
+                if (departures[i] < departures[i - 1] || arrivals[i] < arrivals[i - 1]) return true;
+            }
+        }
+        return false;
+    }
+
+    public int getStopCount() {
+        return layer.getStopCount();
+    }
+
+    public int getPatternCount() {
+        return layer.getPatternCount();
+    }
+
+}
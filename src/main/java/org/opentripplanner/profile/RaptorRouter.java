@@ -0,0 +1,293 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.analyst.Propagation;
+import org.opentripplanner.analyst.TimeSurface;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A one-to-many profile router for scheduled transit networks. It sweeps the departure window of the request one
+ * minute at a time from the latest departure to the earliest with a range {@link RaptorSearch}, which reuses the
+ * labels of the later departure for the earlier one, and propagates the stop arrival times to the street network
+ * through the StopTreeCache, like AnalystProfileRouterPrototype does for frequency-based networks.
+ *
+ * Arrival times at street vertices are kept as clock times across minutes too: leaving earlier can only improve
+ * them, so only the stops improved by each search are propagated again. A vertex keeps the same arrival time over a
+ * run of departure minutes, in which its travel time grows by DEPARTURE_STEP each minute; each run is added to the
+ * travel time distribution of the vertex when a search improves its arrival, without going over the vertices whose
+ * arrival did not change. The distribution is kept as counts of minutes by travel time rounded down to the minute,
+ * so it takes the same space whatever the length of the window. The result has the exact best, average and worst
+ * travel time over the minutes in which a vertex is reached within MAX_DURATION, and the PERCENTILES of the travel
+ * time over all minutes of the window to the nearest minute, counting the minutes in which it is not reached as
+ * unreachable.
+ *
+ * This requires simpleTransfers to exist in the graph, so it needs to be built in longDistance mode.
+ */
+public class RaptorRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorRouter.class);
+
+    /* Search configuration constants */
+    public static final int MAX_DURATION = AnalystProfileRouterPrototype.MAX_DURATION;
+    public static final int MAX_RIDES = 4; // maximum number of boardings in a trip
+    public static final int[] PERCENTILES = {5, 50, 95}; // of the travel time distributions over the window
+    // in seconds, between successive searches in the window, and the width of the travel time bins
+    private static final int DEPARTURE_STEP = 60;
+    private static final int N_BINS = MAX_DURATION / DEPARTURE_STEP + 1;
+
+    public final Graph graph;
+    public final ProfileRequest request;
+
+    private StopTreeCache stopTreeCache;
+
+    /* Earliest clock arrival time at each vertex by vertex index for the departure minute being searched, or
+       Propagation.UNREACHED. */
+    private int[] vertexArrivals;
+
+    /* Position of each vertex in the reached list by vertex index, or -1 if it has not been reached. */
+    private int[] reachedPositions;
+
+    /* The indexes of the vertices reached. All the arrays below are by position in this list. */
+    private final TIntArrayList reached = new TIntArrayList();
+
+    /* The arrival time of each vertex reached and the latest departure minute since which it holds. The minutes of
+       this run are not counted yet. */
+    private int[] runArrivals, runStarts;
+
+    /* The number of minutes in which each vertex is reached within MAX_DURATION, and the sum of their travel
+       times. */
+    private int[] counts;
+    private long[] sums;
+
+    /* Differences between the minute counts of successive travel time bins, N_BINS by vertex. Each run of minutes
+       fills consecutive bins, so it only changes two differences. */
+    private short[] binDeltas;
+
+    /* Summaries of the travel time distributions. */
+    private int[] minTimes, avgTimes, maxTimes;
+    private int[][] percentileTimes;
+
+    public RaptorRouter(Graph graph, ProfileRequest request) {
+        this.graph = graph;
+        this.request = request;
+    }
+
+    public TimeSurface.RangeSet route() {
+        if ( ! graph.hasDirectTransfers) {
+            throw new RuntimeException("Requires the SimpleTransfers generated in long distance mode.");
+        }
+        long t0 = System.currentTimeMillis();
+        TransitLayer layer = graph.index.getTransitLayer();
+        RaptorData data = graph.index.getRaptorData(request.date);
+        long t1 = System.currentTimeMillis();
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        TObjectIntMap<Stop> closestStops =
+                AnalystProfileRouterPrototype.findClosestStops(graph, request, TraverseMode.WALK);
+        for (TObjectIntIterator<Stop> it = closestStops.iterator(); it.hasNext(); ) {
+            it.advance();
+            int s = layer.indexForStop.get(it.key());
+            if (s >= 0) accessTimes.put(s, it.value());
+        }
+        stopTreeCache = graph.index.getStopTreeCache();
+        long t2 = System.currentTimeMillis();
+
+        int nVertices = Vertex.getMaxIndex();
+        int nMinutes = Math.max(0, (request.toTime - request.fromTime + DEPARTURE_STEP - 1) / DEPARTURE_STEP);
+        if (nMinutes > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The departure window is too long.");
+        }
+        vertexArrivals = new int[nVertices];
+        reachedPositions = new int[nVertices];
+        Arrays.fill(vertexArrivals, Propagation.UNREACHED);
+        Arrays.fill(reachedPositions, -1);
+        int capacity = 1024;
+        runArrivals = new int[capacity];
+        runStarts = new int[capacity];
+        counts = new int[capacity];
+        sums = new long[capacity];
+        minTimes = new int[capacity];
+        maxTimes = new int[capacity];
+        binDeltas = new short[capacity * N_BINS];
+
+        RaptorSearch search = new RaptorSearch(data, MAX_RIDES, request.walkSpeed, AnalystProfileRouterPrototype.SLACK);
+        long searchTime = 0;
+        long propagationTime = 0;
+        for (int minute = nMinutes - 1; minute >= 0; minute--) {
+            int departureTime = request.fromTime + minute * DEPARTURE_STEP;
+            long s0 = System.currentTimeMillis();
+            int[] stopTimes = search.searchEarlier(departureTime, accessTimes, MAX_DURATION);
+            long s1 = System.currentTimeMillis();
+            propagate(data, stopTimes, search.getImprovedStops(), minute);
+            searchTime += s1 - s0;
+            propagationTime += System.currentTimeMillis() - s1;
+        }
+        long t3 = System.currentTimeMillis();
+        summarize(nMinutes);
+        long t4 = System.currentTimeMillis();
+        LOG.info("RAPTOR profile search: {} stops, {} patterns, fetched in {} msec; access in {} msec; " +
+                "{} searches in {} msec; propagation in {} msec; {} vertices summarized in {} msec.",
+                data.getStopCount(), data.getPatternCount(), t1 - t0, t2 - t1, nMinutes, searchTime,
+                propagationTime, reached.size(), t4 - t3);
+        return TimeSurface.makeSurfaces(this);
+    }
+
+    /** @return the number of vertices reached in at least one departure minute. */
+    public int getReachedCount() {
+        return reached.size();
+    }
+
+    /** @return the i-th vertex reached, for 0 <= i < getReachedCount(). */
+    public Vertex getReachedVertex(int i) {
+        return stopTreeCache.getVertex(reached.get(i));
+    }
+
+    public int getMinTime(int i) {
+        return minTimes[i];
+    }
+
+    /** @return the average travel time to the i-th vertex over the departure minutes in which it was reached. */
+    public int getAvgTime(int i) {
+        return avgTimes[i];
+    }
+
+    public int getMaxTime(int i) {
+        return maxTimes[i];
+    }
+
+    /**
+     * @param p the position of a percentile in PERCENTILES
+     * @return that percentile of the travel time to the i-th vertex over all departure minutes, or
+     *         TimeSurface.UNREACHABLE if the vertex is not reached in that many minutes.
+     */
+    public int getPercentileTime(int p, int i) {
+        return percentileTimes[p][i];
+    }
+
+    /**
+     * Push the stop arrival times improved by the search for one departure minute out to the street vertices, and
+     * count the minutes of the runs that end with an improved vertex arrival.
+     */
+    private void propagate(RaptorData data, int[] stopTimes, BitSet improvedStops, int minute) {
+        int maxWalkSeconds = request.maxWalkTime * 60;
+        int maxTime = request.fromTime + minute * DEPARTURE_STEP + MAX_DURATION;
+        float secondsPerMeter = (float) (1 / request.walkSpeed);
+        for (int s = improvedStops.nextSetBit(0); s >= 0; s = improvedStops.nextSetBit(s + 1)) {
+            if (stopTimes[s] > maxTime) continue;
+            int[] tree = stopTreeCache.getTree(data.layer.stopVertices[s]);
+            if (tree == null) continue;
+            Propagation.propagateTree(tree, stopTimes[s], secondsPerMeter, maxWalkSeconds, maxTime, vertexArrivals);
+            // the kernel has no branch for changed arrivals, so they are found in a second pass over the tree
+            for (int i = 0; i < tree.length; i += 2) {
+                int v = tree[i];
+                int arrival = vertexArrivals[v];
+                if (arrival >= Propagation.UNREACHED) continue;
+                int r = reachedPositions[v];
+                if (r < 0) {
+                    r = addReached(v);
+                } else if (arrival == runArrivals[r]) {
+                    continue;
+                } else {
+                    countRun(r, minute + 1);
+                }
+                runArrivals[r] = arrival;
+                runStarts[r] = minute;
+            }
+        }
+    }
+
+    /** @return the position of a vertex newly added to the reached list. */
+    private int addReached(int v) {
+        int r = reached.size();
+        if (r == runArrivals.length) {
+            int capacity = r * 2;
+            runArrivals = Arrays.copyOf(runArrivals, capacity);
+            runStarts = Arrays.copyOf(runStarts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            minTimes = Arrays.copyOf(minTimes, capacity);
+            maxTimes = Arrays.copyOf(maxTimes, capacity);
+            binDeltas = Arrays.copyOf(binDeltas, capacity * N_BINS);
+        }
+        reached.add(v);
+        reachedPositions[v] = r;
+        minTimes[r] = Integer.MAX_VALUE;
+        maxTimes[r] = 0;
+        return r;
+    }
+
+    /**
+     * Count the travel times of the current run of the r-th vertex reached, from its start back to the given
+     * departure minute, over the minutes in which they are within MAX_DURATION.
+     */
+    private void countRun(int r, int firstMinute) {
+        int lastMinute = runStarts[r];
+        int arrival = runArrivals[r];
+        // the earliest minute from which the vertex is reached within MAX_DURATION
+        int excess = arrival - MAX_DURATION - request.fromTime;
+        if (excess > 0) {
+            firstMinute = Math.max(firstMinute, (excess + DEPARTURE_STEP - 1) / DEPARTURE_STEP);
+        }
+        if (firstMinute > lastMinute) return;
+        int n = lastMinute - firstMinute + 1;
+        int minTime = arrival - (request.fromTime + lastMinute * DEPARTURE_STEP);
+        int maxTime = minTime + (n - 1) * DEPARTURE_STEP;
+        counts[r] += n;
+        sums[r] += (long) n * (minTime + maxTime) / 2;
+        minTimes[r] = Math.min(minTimes[r], minTime);
+        maxTimes[r] = Math.max(maxTimes[r], maxTime);
+        // the travel time grows by one bin per minute, so the run fills the bins from minTime's to maxTime's
+        binDeltas[r * N_BINS + minTime / DEPARTURE_STEP]++;
+        int end = maxTime / DEPARTURE_STEP + 1;
+        if (end < N_BINS) binDeltas[r * N_BINS + end]--;
+    }
+
+    /** Reduce the travel time counts of each vertex to their average and percentiles. */
+    private void summarize(int nMinutes) {
+        int n = reached.size();
+        avgTimes = new int[n];
+        percentileTimes = new int[PERCENTILES.length][n];
+        for (int r = 0; r < n; r++) {
+            countRun(r, 0);
+            avgTimes[r] = (int) (sums[r] / counts[r]);
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                // nearest rank: the smallest sample with at least the given fraction of samples at or below it
+                int rank = Math.max((PERCENTILES[p] * nMinutes + 99) / 100, 1);
+                percentileTimes[p][r] = rank > counts[r] ? TimeSurface.UNREACHABLE : percentile(r, rank);
+            }
+        }
+        runArrivals = runStarts = counts = null;
+        sums = null;
+        binDeltas = null;
+        reachedPositions = null;
+    }
+
+    /**
+     * @return the travel time of the given rank among those counted for the r-th vertex, at the middle of its bin
+     *         but within the extrema.
+     */
+    private int percentile(int r, int rank) {
+        int count = 0;
+        for (int b = 0; b < N_BINS; b++) {
+            count += binDeltas[r * N_BINS + b];
+            rank -= count;
+            if (rank <= 0) {
+                int t = b * DEPARTURE_STEP + DEPARTURE_STEP / 2;
+                return Math.max(minTimes[r], Math.min(maxTimes[r], t));
+            }
+        }
+        return maxTimes[r];
+    }
+
+}
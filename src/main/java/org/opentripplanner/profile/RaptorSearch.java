@@ -0,0 +1,254 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A one-to-many round-based public transit search (RAPTOR, Delling, Pajor and Werneck 2012) over a
+ * {@link RaptorData}. Round k finds the earliest arrival at every stop using at most k rides: it scans each
+ * pattern serving a stop improved in the previous round once, from the first stop to the last, boarding the
+ * earliest trip that can be caught, then follows the transfers out of the stops it improved.
+ *
+ * All search state is held in int arrays indexed by stop, allocated once and reused by successive searches.
+ * An instance is not thread safe.
+ *
+ * Searches for a range of departure times (rRAPTOR) run from the latest departure to the earliest through
+ * searchEarlier, which keeps the labels of the previous search: an arrival reachable with k rides when leaving later
+ * is also reachable with k rides when leaving earlier and waiting, so each search only has to explore what the
+ * earlier departure improves. Arrivals are pruned against the labels of their own round, never against arrivals
+ * with more rides, so the results are the same as those of independent searches.
+ */
+public class RaptorSearch {
+
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final RaptorData data;
+    private final TransitLayer layer;
+    private final int maxRides;
+    private final float walkSpeed;
+    private final int boardSlack;
+
+    /* The best arrival time at each stop over all rounds so far. */
+    private final int[] bestTimes;
+
+    /* Arrival times at each stop after each round, by round. Round 0 holds the access times. */
+    private final int[][] roundTimes;
+
+    /* The previous departure time searched since the last reset. */
+    private int lastDepartureTime;
+
+    /* Arrival times by transit in the current round, valid for the stops in transitImproved. */
+    private final int[] transitTimes;
+
+    private final BitSet markedStops;
+    private final BitSet transitImproved;
+    private final BitSet markedPatterns;
+
+    /* The trips that can be caught so far while scanning a pattern whose trips overtake one another. */
+    private final BitSet boardedTrips = new BitSet();
+
+    /* The stops whose best arrival time improved in the last search. */
+    private final BitSet improvedStops;
+
+    /**
+     * @param walkSpeed in meters per second, for transfers
+     * @param boardSlack the time in seconds needed at a stop before boarding a vehicle there
+     */
+    public RaptorSearch(RaptorData data, int maxRides, float walkSpeed, int boardSlack) {
+        this.data = data;
+        this.layer = data.layer;
+        this.maxRides = maxRides;
+        this.walkSpeed = walkSpeed;
+        this.boardSlack = boardSlack;
+        int nStops = data.getStopCount();
+        bestTimes = new int[nStops];
+        roundTimes = new int[maxRides + 1][nStops];
+        transitTimes = new int[nStops];
+        markedStops = new BitSet(nStops);
+        transitImproved = new BitSet(nStops);
+        markedPatterns = new BitSet(data.getPatternCount());
+        improvedStops = new BitSet(nStops);
+        reset();
+    }
+
+    /** Forget the labels of previous searches. */
+    public void reset() {
+        Arrays.fill(bestTimes, UNREACHED);
+        for (int[] times : roundTimes) {
+            Arrays.fill(times, UNREACHED);
+        }
+        lastDepartureTime = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Find the earliest arrival times at all stops, independently of any previous search.
+     *
+     * @param departureTime the time of departure from the origin, in seconds since midnight
+     * @param accessTimes the time needed to reach each stop from the origin, in seconds, by stop index
+     * @param maxDuration the longest trip of interest in seconds; later arrivals are not recorded
+     * @return the earliest arrival time at each stop by stop index, or UNREACHED. The array is reused by the next
+     *         search.
+     */
+    public int[] search(int departureTime, TIntIntMap accessTimes, int maxDuration) {
+        reset();
+        return searchEarlier(departureTime, accessTimes, maxDuration);
+    }
+
+    /**
+     * Find the earliest arrival times at all stops for a departure no later than that of the previous search since
+     * the last reset, reusing its labels. The arrival times returned may include some beyond the maximum duration
+     * of this search, found by the previous ones; callers should check durations against their own limit.
+     *
+     * @see #search(int, TIntIntMap, int)
+     */
+    public int[] searchEarlier(int departureTime, TIntIntMap accessTimes, int maxDuration) {
+        if (departureTime > lastDepartureTime) {
+            throw new IllegalArgumentException("Range searches must go backward in time.");
+        }
+        lastDepartureTime = departureTime;
+        int maxTime = departureTime + maxDuration;
+        markedStops.clear();
+        improvedStops.clear();
+        for (TIntIntIterator it = accessTimes.iterator(); it.hasNext(); ) {
+            it.advance();
+            int s = it.key();
+            int t = departureTime + it.value();
+            if (t <= maxTime && t < roundTimes[0][s]) {
+                roundTimes[0][s] = t;
+                if (t < bestTimes[s]) {
+                    bestTimes[s] = t;
+                    improvedStops.set(s);
+                }
+                markedStops.set(s);
+            }
+        }
+        for (int round = 1; round <= maxRides && !markedStops.isEmpty(); round++) {
+            int[] previousRound = roundTimes[round - 1];
+            int[] currentRound = roundTimes[round];
+            // what can be reached with fewer rides can be reached with this many
+            for (int s = 0; s < currentRound.length; s++) {
+                if (previousRound[s] < currentRound[s]) currentRound[s] = previousRound[s];
+            }
+            markedPatterns.clear();
+            for (int s = markedStops.nextSetBit(0); s >= 0; s = markedStops.nextSetBit(s + 1)) {
+                for (int i = layer.stopPatternStart[s]; i < layer.stopPatternStart[s + 1]; i++) {
+                    markedPatterns.set(layer.stopPatterns[i]);
+                }
+            }
+            markedStops.clear();
+            for (int p = markedPatterns.nextSetBit(0); p >= 0; p = markedPatterns.nextSetBit(p + 1)) {
+                scanPattern(p, maxTime, previousRound, currentRound);
+            }
+            transitImproved.clear();
+            transitImproved.or(markedStops);
+            for (int s = transitImproved.nextSetBit(0); s >= 0; s = transitImproved.nextSetBit(s + 1)) {
+                for (int i = layer.transferStart[s]; i < layer.transferStart[s + 1]; i++) {
+                    int target = layer.transferStops[i];
+                    int t = transitTimes[s] + (int) (layer.transferDistances[i] / walkSpeed);
+                    if (t <= maxTime && t < currentRound[target]) {
+                        currentRound[target] = t;
+                        markedStops.set(target);
+                        if (t < bestTimes[target]) {
+                            bestTimes[target] = t;
+                            improvedStops.set(target);
+                        }
+                    }
+                }
+            }
+        }
+        return bestTimes;
+    }
+
+    /** @return the stops whose earliest arrival time improved in the last search. Reused by the next search. */
+    public BitSet getImprovedStops() {
+        return improvedStops;
+    }
+
+    /** Ride one pattern from its first stop to its last, switching to earlier trips whenever one can be caught. */
+    private void scanPattern(int p, int maxTime, int[] previousRound, int[] currentRound) {
+        int[] departures = data.departures[p];
+        int[] arrivals = data.arrivals[p];
+        int n = data.nTrips[p];
+        if (n == 0) return; // no trip running on the day
+        if (data.overtaking.get(p)) {
+            scanOvertakingPattern(p, maxTime, previousRound, currentRound);
+            return;
+        }
+        int start = layer.patternStopStart[p];
+        int end = layer.patternStopStart[p + 1];
+        int trip = -1;
+        for (int i = start; i < end; i++) {
+            int offset = (i - start) * n;
+            int s = layer.patternStops[i];
+            if (trip >= 0 && layer.alightable.get(i)) {
+                alight(s, arrivals[offset + trip], maxTime, currentRound);
+            }
+            if (layer.boardable.get(i) && previousRound[s] != UNREACHED) {
+                int boardTime = previousRound[s] + boardSlack;
+                if (trip < 0 || boardTime <= departures[offset + trip]) {
+                    // look for an earlier trip among those before the current one
+                    int earliest = firstDeparture(departures, offset, trip < 0 ? n : trip, boardTime);
+                    if (earliest >= 0) trip = earliest;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ride a pattern whose trips overtake one another, where the first trip to depart is not always the first to
+     * arrive: keep all the trips that can be caught so far, and alight from the earliest of them at each stop.
+     */
+    private void scanOvertakingPattern(int p, int maxTime, int[] previousRound, int[] currentRound) {
+        int[] departures = data.departures[p];
+        int[] arrivals = data.arrivals[p];
+        int n = data.nTrips[p];
+        int start = layer.patternStopStart[p];
+        int end = layer.patternStopStart[p + 1];
+        boardedTrips.clear();
+        for (int i = start; i < end; i++) {
+            int offset = (i - start) * n;
+            int s = layer.patternStops[i];
+            if (!boardedTrips.isEmpty() && layer.alightable.get(i)) {
+                int t = UNREACHED;
+                for (int trip = boardedTrips.nextSetBit(0); trip >= 0; trip = boardedTrips.nextSetBit(trip + 1)) {
+                    t = Math.min(t, arrivals[offset + trip]);
+                }
+                alight(s, t, maxTime, currentRound);
+            }
+            if (layer.boardable.get(i) && previousRound[s] != UNREACHED) {
+                int boardTime = previousRound[s] + boardSlack;
+                for (int trip = 0; trip < n; trip++) {
+                    if (departures[offset + trip] >= boardTime) boardedTrips.set(trip);
+                }
+            }
+        }
+    }
+
+    /** Record an arrival at a stop by transit, if it improves on the arrivals with as many rides. */
+    private void alight(int s, int t, int maxTime, int[] currentRound) {
+        if (t <= maxTime && t < currentRound[s]) {
+            currentRound[s] = t;
+            transitTimes[s] = t;
+            markedStops.set(s);
+            if (t < bestTimes[s]) {
+                bestTimes[s] = t;
+                improvedStops.set(s);
+            }
+        }
+    }
+
+    /** @return the index of the first of the trips 0..limit-1 departing at or after time, or -1 if none does. */
+    private static int firstDeparture(int[] departures, int offset, int limit, int time) {
+        int lo = 0, hi = limit;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (departures[offset + mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < limit ? lo : -1;
+    }
+
+}
@@ -1,8 +1,8 @@
 package org.opentripplanner.profile;
 
-import com.beust.jcommander.internal.Maps;
-import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
+import com.google.common.collect.Lists;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
@@ -14,45 +14,208 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Keeps travel distances from all transit stops in a particular Graph to their nearby street nodes.
  * This allows us to propagate travel times out from transit to streets much faster in one-to-many analyst queries.
  * The StopTreeCache has a fixed distance cutoff, so will be unable to provide distance information for vertices beyond
  * that cutoff distance.
+ *
+ * The tree of each stop is a packed int array of (vertex index, distance in meters) pairs sorted by vertex index, so
+ * propagation can stream through it without any hash lookup. The walk searches are run in parallel. The cache is a
+ * graph service, so once built it is saved with the graph; vertex indexes are reassigned on load, so the trees are
+ * saved against a table of their vertices and re-indexed when read.
  */
-public class StopTreeCache {
+public class StopTreeCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final Logger LOG = LoggerFactory.getLogger(StopTreeCache.class);
+
+    public static final int DEFAULT_CUTOFF_MINUTES = 20;
+
+    /* The number of stops searched sequentially by one fork join task. */
+    private static final int STOPS_PER_TASK = 16;
+
     final int timeCutoffMinutes;
-    private final Map<TransitStop, TObjectIntMap<Vertex>> distancesForStop = Maps.newHashMap();
 
-    public StopTreeCache (Graph graph, int timeCutoffMinutes) {
+    /* The stops with a tree, and their trees as (vertex index, distance) pairs sorted by vertex index. */
+    private final TransitStop[] stops;
+    private transient int[][] trees;
+
+    /* Position of each stop in stops by vertex index, or -1, and the vertex of every index found in a tree. */
+    private transient int[] positionForStopIndex;
+    private transient Vertex[] vertexForIndex;
+
+    public StopTreeCache (Graph graph, Collection<TransitStop> transitStops, int timeCutoffMinutes) {
         this.timeCutoffMinutes = timeCutoffMinutes;
-        LOG.info("Caching distances to nearby street intersections from each transit stop...");
-        for (TransitStop tstop : graph.index.stopVertexForStop.values()) {
-            RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
-            rr.batch = (true);
-            rr.setRoutingContext(graph, tstop, tstop);
-            // RoutingReqeust dateTime defaults to currentTime.
-            // If elapsed time is not capped, searches are very slow.
-            rr.worstTime = (rr.dateTime + timeCutoffMinutes * 60);
-            GenericAStar astar = new GenericAStar();
-            rr.longDistance = true; // this will cause an earliest arrival tree to be used
-            rr.setNumItineraries(1);
-            ShortestPathTree spt = astar.getShortestPathTree(rr, 5); // timeout in seconds
-            TObjectIntMap<Vertex> distanceToVertex = new TObjectIntHashMap<>(1000, 0.5f, Integer.MAX_VALUE);
-            for (State state : spt.getAllStates()) {
-                distanceToVertex.put(state.getVertex(), (int)state.walkDistance);
+        this.stops = transitStops.toArray(new TransitStop[transitStops.size()]);
+        this.trees = new int[stops.length][];
+        this.vertexForIndex = new Vertex[Vertex.getMaxIndex()];
+        LOG.info("Caching distances to nearby street intersections from {} transit stops...", stops.length);
+        long startTime = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new StopTreeSearches(graph, 0, stops.length));
+        } finally {
+            pool.shutdown();
+        }
+        indexStops();
+        LOG.info("Done caching distances to nearby street intersections from each transit stop in {} msec.",
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return the tree of a stop as (vertex index, distance in meters) pairs sorted by vertex index, or null if the
+     *         stop has none. The array must not be modified.
+     */
+    public int[] getTree(TransitStop tstop) {
+        int index = tstop.getIndex();
+        if (index >= positionForStopIndex.length || positionForStopIndex[index] < 0) return null;
+        return trees[positionForStopIndex[index]];
+    }
+
+    /** @return the vertex with the given index, for an index found in a tree. */
+    public Vertex getVertex(int vertexIndex) {
+        return vertexForIndex[vertexIndex];
+    }
+
+    /** Run the walk search of one stop, and pack its tree. */
+    private int[] search(Graph graph, TransitStop tstop) {
+        RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
+        rr.batch = (true);
+        rr.setRoutingContext(graph, tstop, tstop);
+        // RoutingReqeust dateTime defaults to currentTime.
+        // If elapsed time is not capped, searches are very slow.
+        rr.worstTime = (rr.dateTime + timeCutoffMinutes * 60);
+        GenericAStar astar = new GenericAStar();
+        rr.longDistance = true; // this will cause an earliest arrival tree to be used
+        rr.setNumItineraries(1);
+        ShortestPathTree spt = astar.getShortestPathTree(rr, 5); // timeout in seconds
+        TIntIntMap distanceToVertex = new TIntIntHashMap(1000, 0.5f, -1, Integer.MAX_VALUE);
+        for (State state : spt.getAllStates()) {
+            int index = state.getVertex().getIndex();
+            vertexForIndex[index] = state.getVertex(); // tasks may store the same vertex, which is harmless
+            int distance = (int) state.walkDistance;
+            if (distance < distanceToVertex.get(index)) distanceToVertex.put(index, distance);
+        }
+        rr.cleanup();
+        int[] indexes = distanceToVertex.keys();
+        Arrays.sort(indexes);
+        int[] tree = new int[indexes.length * 2];
+        for (int i = 0; i < indexes.length; i++) {
+            tree[i * 2] = indexes[i];
+            tree[i * 2 + 1] = distanceToVertex.get(indexes[i]);
+        }
+        return tree;
+    }
+
+    /** Build the lookup table from stop vertex indexes to the positions of their trees. */
+    private void indexStops() {
+        int maxIndex = 0;
+        for (TransitStop tstop : stops) {
+            maxIndex = Math.max(maxIndex, tstop.getIndex() + 1);
+        }
+        positionForStopIndex = new int[maxIndex];
+        Arrays.fill(positionForStopIndex, -1);
+        for (int s = 0; s < stops.length; s++) {
+            positionForStopIndex[stops[s].getIndex()] = s;
+        }
+    }
+
+    /* SERIALIZATION METHODS */
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        // Vertex indexes are reassigned on load, so the trees are written against a table of their vertices.
+        TIntIntMap columnForIndex = new TIntIntHashMap(1000, 0.5f, -1, -1);
+        List<Vertex> vertices = Lists.newArrayList();
+        int[][] columnTrees = new int[trees.length][];
+        for (int s = 0; s < trees.length; s++) {
+            int[] tree = trees[s];
+            int[] columnTree = new int[tree.length];
+            for (int i = 0; i < tree.length; i += 2) {
+                int column = columnForIndex.get(tree[i]);
+                if (column < 0) {
+                    column = vertices.size();
+                    vertices.add(vertexForIndex[tree[i]]);
+                    columnForIndex.put(tree[i], column);
+                }
+                columnTree[i] = column;
+                columnTree[i + 1] = tree[i + 1];
+            }
+            columnTrees[s] = columnTree;
+        }
+        out.writeObject(vertices.toArray(new Vertex[vertices.size()]));
+        out.writeObject(columnTrees);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Vertex[] vertices = (Vertex[]) in.readObject();
+        int[][] columnTrees = (int[][]) in.readObject();
+        int maxIndex = 0;
+        for (Vertex v : vertices) {
+            maxIndex = Math.max(maxIndex, v.getIndex() + 1);
+        }
+        vertexForIndex = new Vertex[maxIndex];
+        for (Vertex v : vertices) {
+            vertexForIndex[v.getIndex()] = v;
+        }
+        trees = new int[columnTrees.length][];
+        for (int s = 0; s < columnTrees.length; s++) {
+            // sort the pairs by their new vertex index, packed in longs with the index in the high bits
+            int[] columnTree = columnTrees[s];
+            long[] pairs = new long[columnTree.length / 2];
+            for (int i = 0; i < pairs.length; i++) {
+                long index = vertices[columnTree[i * 2]].getIndex();
+                pairs[i] = (index << 32) | columnTree[i * 2 + 1];
             }
-            distancesForStop.put(tstop, distanceToVertex);
-            rr.cleanup();
+            Arrays.sort(pairs);
+            int[] tree = new int[columnTree.length];
+            for (int i = 0; i < pairs.length; i++) {
+                tree[i * 2] = (int) (pairs[i] >>> 32);
+                tree[i * 2 + 1] = (int) pairs[i];
+            }
+            trees[s] = tree;
         }
-        LOG.info("Done caching distances to nearby street intersections from each transit stop.");
+        indexStops();
     }
 
-    public TObjectIntMap<Vertex> getDistancesForStop(TransitStop tstop) {
-        return distancesForStop.get(tstop);
+    /** Splits the stops into ranges whose walk searches run in parallel. Each one writes its own trees. */
+    private class StopTreeSearches extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Graph graph;
+
+        private final int from, to;
+
+        StopTreeSearches(Graph graph, int from, int to) {
+            this.graph = graph;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= STOPS_PER_TASK) {
+                for (int s = from; s < to; s++) {
+                    trees[s] = search(graph, stops[s]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StopTreeSearches(graph, from, mid), new StopTreeSearches(graph, mid, to));
+            }
+        }
     }
+
 }
@@ -0,0 +1,175 @@
+package org.opentripplanner.profile;
+
+import com.google.common.collect.Lists;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The transit network of a graph flattened into int arrays for analytic routing. It is derived from the GraphIndex
+ * once the graph is indexed, and is immutable and shared by all profile and analyst searches.
+ *
+ * Stops and patterns get dense indexes. Variable-length lists (the stops of each pattern, the patterns serving
+ * each stop, the transfers out of each stop) are stored in compressed sparse row form: the entries for item i are at
+ * positions start[i] (inclusive) to start[i + 1] (exclusive) of a single flat array.
+ *
+ * The scheduled trips of each pattern are sorted by departure time at the first stop, and their times are stored
+ * stop-major, so the departures of all trips at one stop are contiguous and, unless some trips overtake others, can
+ * be binary searched. The schedules for one service day are extracted from them by {@link RaptorData}. Frequency-based trips are not included.
+ * Transfers are the SimpleTransfers built in long distance mode.
+ */
+public class TransitLayer {
+
+    public final Stop[] stops;
+    public final TransitStop[] stopVertices;
+    public final TObjectIntMap<Stop> indexForStop;
+    public final TripPattern[] patterns;
+    public final TObjectIntMap<TripPattern> indexForPattern;
+
+    /* The stops visited by each pattern, and whether one can board or alight at each of them. */
+    final int[] patternStopStart;
+    final int[] patternStops;
+    final BitSet boardable = new BitSet();
+    final BitSet alightable = new BitSet();
+
+    /* The patterns serving each stop. */
+    final int[] stopPatternStart;
+    final int[] stopPatterns;
+
+    /* The transfers out of each stop, with their length in meters. */
+    final int[] transferStart;
+    final int[] transferStops;
+    final int[] transferDistances;
+
+    /* The scheduled trips of each pattern and their service codes. Times are at [stopPosition * nTrips + trip]. */
+    final int[] nTrips;
+    final int[][] departures;
+    final int[][] arrivals;
+    final int[][] serviceCodes;
+
+    public TransitLayer(GraphIndex index) {
+        /* Number the stops. */
+        int nStops = index.stopVertexForStop.size();
+        stops = new Stop[nStops];
+        stopVertices = new TransitStop[nStops];
+        indexForStop = new TObjectIntHashMap<Stop>(nStops, 0.5f, -1);
+        for (TransitStop tstop : index.stopVertexForStop.values()) {
+            int s = indexForStop.size();
+            stops[s] = tstop.getStop();
+            stopVertices[s] = tstop;
+            indexForStop.put(tstop.getStop(), s);
+        }
+
+        /* Number the patterns and pack their scheduled trips. */
+        int nPatterns = index.patternForId.size();
+        patterns = new TripPattern[nPatterns];
+        indexForPattern = new TObjectIntHashMap<TripPattern>(nPatterns, 0.5f, -1);
+        nTrips = new int[nPatterns];
+        departures = new int[nPatterns][];
+        arrivals = new int[nPatterns][];
+        serviceCodes = new int[nPatterns][];
+        for (TripPattern pattern : index.patternForId.values()) {
+            int p = indexForPattern.size();
+            patterns[p] = pattern;
+            indexForPattern.put(pattern, p);
+            List<TripTimes> trips = Lists.newArrayList(pattern.scheduledTimetable.tripTimes);
+            Collections.sort(trips, new Comparator<TripTimes>() {
+                @Override
+                public int compare(TripTimes a, TripTimes b) {
+                    return Integer.compare(a.getDepartureTime(0), b.getDepartureTime(0));
+                }
+            });
+            int nPatternStops = pattern.getStops().size();
+            int n = trips.size();
+            nTrips[p] = n;
+            departures[p] = new int[nPatternStops * n];
+            arrivals[p] = new int[nPatternStops * n];
+            serviceCodes[p] = new int[n];
+            for (int t = 0; t < n; t++) {
+                TripTimes tt = trips.get(t);
+                serviceCodes[p][t] = tt.serviceCode;
+                for (int pos = 0; pos < nPatternStops; pos++) {
+                    departures[p][pos * n + t] = tt.getDepartureTime(pos);
+                    arrivals[p][pos * n + t] = tt.getArrivalTime(pos);
+                }
+            }
+        }
+
+        /* Pattern stop sequences, and the reverse mapping from stops to patterns. */
+        patternStopStart = new int[nPatterns + 1];
+        TIntArrayList patternStopList = new TIntArrayList();
+        int[] patternCount = new int[nStops];
+        for (int p = 0; p < nPatterns; p++) {
+            TripPattern pattern = patterns[p];
+            List<Stop> patternStopObjects = pattern.getStops();
+            for (int pos = 0; pos < patternStopObjects.size(); pos++) {
+                int s = indexForStop.get(patternStopObjects.get(pos));
+                int i = patternStopList.size();
+                patternStopList.add(s);
+                if (s >= 0) patternCount[s]++;
+                boardable.set(i, s >= 0 && pattern.canBoard(pos));
+                alightable.set(i, s >= 0 && pattern.canAlight(pos));
+            }
+            patternStopStart[p + 1] = patternStopList.size();
+        }
+        patternStops = patternStopList.toArray();
+        stopPatternStart = new int[nStops + 1];
+        for (int s = 0; s < nStops; s++) {
+            stopPatternStart[s + 1] = stopPatternStart[s] + patternCount[s];
+        }
+        stopPatterns = new int[stopPatternStart[nStops]];
+        int[] fill = new int[nStops];
+        for (int p = 0; p < nPatterns; p++) {
+            for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++) {
+                int s = patternStops[i];
+                if (s < 0) continue;
+                // a pattern visiting a stop twice is listed twice, which is harmless
+                stopPatterns[stopPatternStart[s] + fill[s]++] = p;
+            }
+        }
+
+        /* Transfers between stops. */
+        transferStart = new int[nStops + 1];
+        TIntArrayList targets = new TIntArrayList();
+        TIntArrayList distances = new TIntArrayList();
+        for (int s = 0; s < nStops; s++) {
+            for (Edge edge : stopVertices[s].getOutgoing()) {
+                if (!(edge instanceof SimpleTransfer)) continue;
+                int target = indexForStop.get(((TransitStop) edge.getToVertex()).getStop());
+                if (target < 0) continue;
+                targets.add(target);
+                distances.add((int) edge.getDistance());
+            }
+            transferStart[s + 1] = targets.size();
+        }
+        transferStops = targets.toArray();
+        transferDistances = distances.toArray();
+    }
+
+    public int getStopCount() {
+        return stops.length;
+    }
+
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /** @return the vertex of a stop, or null if it is not in this layer. */
+    public TransitStop getStopVertex(Stop stop) {
+        int s = indexForStop.get(stop);
+        return s < 0 ? null : stopVertices[s];
+    }
+
+}
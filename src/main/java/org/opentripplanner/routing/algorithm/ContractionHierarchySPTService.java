@@ -0,0 +1,195 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.MultiShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers street-only point to point requests with a contraction hierarchy when the graph has one
+ * matching the request, and delegates every other request to another SPTService.
+ *
+ * The origin and destination are linked to the hierarchy by small local searches, since they are
+ * usually temporary vertices. The path found in the hierarchy is then re-traversed with the actual
+ * request, so the returned tree holds regular states along a single path. Turn costs are applied
+ * during that traversal but were not considered when choosing the path; if a turn restriction or
+ * any other constraint rejects the path, the request is delegated instead.
+ */
+public class ContractionHierarchySPTService implements SPTService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchySPTService.class);
+
+    /** Maximum number of vertices settled when linking the origin or destination to the hierarchy. */
+    private static final int LINK_SETTLED_LIMIT = 200;
+
+    private final SPTService fallback;
+
+    public ContractionHierarchySPTService(SPTService fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+        return getShortestPathTree(req, -1, null); // negative timeout means no timeout
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeoutSeconds) {
+        return getShortestPathTree(req, timeoutSeconds, null);
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeoutSeconds,
+            SearchTerminationStrategy terminationStrategy) {
+        // a termination strategy means the caller wants to explore the graph, not a single path
+        if (terminationStrategy == null) {
+            ShortestPathTree spt = contractedSearch(req);
+            if (spt != null)
+                return spt;
+        }
+        return fallback.getShortestPathTree(req, timeoutSeconds, terminationStrategy);
+    }
+
+    /** @return a tree holding the path found in the hierarchy, or null if the hierarchy cannot be used. */
+    private ShortestPathTree contractedSearch(RoutingRequest req) {
+        RoutingContext rctx = req.rctx;
+        if (rctx == null || req.batch || req.oneToMany || req.modes.isTransit())
+            return null;
+        if (rctx.fromVertex == null || rctx.toVertex == null || rctx.fromVertex == rctx.toVertex)
+            return null;
+        ContractionHierarchySet hierarchies = rctx.graph.getService(ContractionHierarchySet.class);
+        if (hierarchies == null)
+            return null;
+        ContractionHierarchy hierarchy = hierarchies.getHierarchy(req);
+        if (hierarchy == null)
+            return null;
+
+        // Static weights are always those of the depart-after direction.
+        RoutingRequest forward = req.clone();
+        forward.setArriveBy(false);
+        Map<Vertex, Edge> fromLinks = new HashMap<Vertex, Edge>();
+        Map<Vertex, Edge> toLinks = new HashMap<Vertex, Edge>();
+        ContractionHierarchy.Path path;
+        forward.compileStreetCostModel();
+        try {
+            TIntDoubleMap sources = link(hierarchy, rctx.fromVertex, forward, false, fromLinks);
+            // short trips along a single street are left to the regular search
+            if (fromLinks.containsKey(rctx.toVertex))
+                return null;
+            TIntDoubleMap targets = link(hierarchy, rctx.toVertex, forward, true, toLinks);
+            path = hierarchy.findPath(sources, targets);
+        } finally {
+            forward.releaseStreetCostModel();
+        }
+        if (path == null)
+            return null;
+
+        List<Edge> edges = new ArrayList<Edge>();
+        for (Vertex v = path.from; v != rctx.fromVertex;) {
+            Edge e = fromLinks.get(v);
+            edges.add(e);
+            v = e.getFromVertex();
+        }
+        Collections.reverse(edges);
+        edges.addAll(path.edges);
+        for (Vertex v = path.to; v != rctx.toVertex;) {
+            Edge e = toLinks.get(v);
+            edges.add(e);
+            v = e.getToVertex();
+        }
+
+        ShortestPathTree spt = new MultiShortestPathTree(req);
+        State s = new State(req);
+        spt.add(s);
+        for (int i = 0; i < edges.size(); i++) {
+            Edge e = edges.get(req.arriveBy ? edges.size() - 1 - i : i);
+            s = e.traverse(s);
+            if (s == null) {
+                LOG.debug("Path found in contraction hierarchy rejected at {}", e);
+                return null;
+            }
+            spt.add(s);
+        }
+        if (s.getVertex() != rctx.target || !s.isFinal() || !s.allPathParsersAccept()
+                || s.getWeight() > req.maxWeight)
+            return null;
+        rctx.debugOutput.foundPath();
+        return spt;
+    }
+
+    /**
+     * Dijkstra search from a vertex to the nearest hierarchy vertices, using static weights. Backward
+     * searches follow incoming edges toward the vertex instead.
+     *
+     * @param links receives the edge by which each reached vertex was entered (or left, backward).
+     * @return the weight of reaching each hierarchy node from the vertex (or the vertex from it).
+     */
+    private TIntDoubleMap link(ContractionHierarchy hierarchy, Vertex start, RoutingRequest forward,
+            boolean backward, Map<Vertex, Edge> links) {
+        TIntDoubleMap nodes = new TIntDoubleHashMap();
+        Map<Vertex, Double> dist = new HashMap<Vertex, Double>();
+        BinHeap<Vertex> queue = new BinHeap<Vertex>();
+        dist.put(start, 0.0);
+        queue.insert(start, 0);
+        int settled = 0;
+        while (!queue.empty() && settled < LINK_SETTLED_LIMIT) {
+            double d = queue.peek_min_key();
+            Vertex v = queue.extract_min();
+            if (d > dist.get(v))
+                continue;
+            settled++;
+            int node = hierarchy.getNode(v);
+            if (node >= 0) {
+                // the hierarchy takes over from here
+                nodes.put(node, d);
+                continue;
+            }
+            for (Edge e : backward ? v.getIncoming() : v.getOutgoing()) {
+                double weight = ContractionHierarchy.staticWeight(e, forward);
+                if (Double.isInfinite(weight))
+                    continue;
+                Vertex next = backward ? e.getFromVertex() : e.getToVertex();
+                Double nextDist = dist.get(next);
+                if (nextDist == null || d + weight < nextDist) {
+                    dist.put(next, d + weight);
+                    links.put(next, e);
+                    queue.insert(next, d + weight);
+                }
+            }
+        }
+        return nodes;
+    }
+
+}
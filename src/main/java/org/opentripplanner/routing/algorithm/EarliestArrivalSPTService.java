@@ -65,6 +65,7 @@ public class EarliestArrivalSPTService implements SPTService {
         // impose search cutoff
         final long maxt = maxDuration + options.clampInitialWait;
         options.worstTime = options.dateTime + (options.arriveBy ? -maxt : maxt);
+        options.compileStreetCostModel();
             
         // SPT cache does not look at routing request in SPT to perform lookup, 
         // so it's OK to construct with the local cloned one
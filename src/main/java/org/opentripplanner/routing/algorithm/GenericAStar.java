@@ -13,7 +13,8 @@
 
 package org.opentripplanner.routing.algorithm;
 
-import java.util.Collection;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.List;
 
 import org.opentripplanner.common.pqueue.BinHeap;
@@ -22,8 +23,10 @@ import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrateg
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchCancellation;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.EdgeAdjacency;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.*;
@@ -33,8 +36,6 @@ import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.beust.jcommander.internal.Lists;
-
 /**
  * Find the shortest path between graph vertices using A*.
  */
@@ -45,6 +46,13 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     private static final MonitoringStore store = MonitoringStoreFactory.getStore();
     private static final double OVERSEARCH_MULTIPLIER = 4.0;
 
+    /**
+     * Timeouts and cancellation are checked once every (ABORT_CHECK_MASK + 1) iterations rather than
+     * on every iteration, keeping a clock read out of the inner loop. An iteration takes on the order
+     * of a microsecond, so this delays reacting to a timeout by about a millisecond at most.
+     */
+    public static final int ABORT_CHECK_MASK = 0x3FF;
+
     private boolean verbose = false;
 
     private TraverseVisitor traverseVisitor;
@@ -68,6 +76,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         private SearchTerminationStrategy terminationStrategy;
         public Vertex u_vertex;
         Double foundPathWeight = null;
+        SearchWorkspace workspace;
 
         public RunState(RoutingRequest options, SearchTerminationStrategy terminationStrategy) {
             this.options = options;
@@ -97,6 +106,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     public void startSearch(RoutingRequest options,
             SearchTerminationStrategy terminationStrategy, long abortTime) {
 
+        endSearch(); // release the workspace of any previous search run by this instance
+        options.compileStreetCostModel();
         runState = new RunState( options, terminationStrategy );
         runState.rctx = options.getRoutingContext();
         // TODO this is a hackish way of communicating which mode we are in (since search mode is currently server-wide)
@@ -110,20 +121,25 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
             LOG.warn("Timeout during initialization of goal direction heuristic.");
             options.rctx.debugOutput.timedOut = true;
+            options.releaseStreetCostModel();
             runState = null; // Search timed out
             return;
         }
         State initialState = new State(options);
         runState.spt.add(initialState);
 
-        // Priority Queue.
+        // Priority Queue, borrowed from this thread's search workspace.
         // NOTE(flamholz): the queue is self-resizing, so we initialize it to have 
         // size = O(sqrt(|V|)) << |V|. For reference, a random, undirected search
         // on a uniform 2d grid will examine roughly sqrt(|V|) vertices before
-        // reaching its target. 
-        int initialSize = runState.rctx.graph.getVertices().size();
+        // reaching its target. A reused queue keeps the capacity it grew to.
+        runState.workspace = SearchWorkspace.acquire();
+        runState.pq = runState.workspace.queue;
+        int initialSize = runState.rctx.graph.countVertices();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<State>(initialSize);
+        if (runState.pq.capacity() < initialSize) {
+            runState.pq.resize(initialSize);
+        }
         runState.pq.insert(initialState, 0);
 
 //        options = options.clone();
@@ -133,10 +149,29 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 //        options.setMaxWalkDistance(Math.max(options.getMaxWalkDistance(), rctx.getMinWalkDistance()));
 
         runState.nVisited = 0;
-        runState.targetAcceptedStates = Lists.newArrayList();
+        runState.targetAcceptedStates = runState.workspace.targetAcceptedStates;
 
     }
 
+    /**
+     * Return the scratch workspace of the current search to the pool and release the street cost
+     * model compiled for it. The search can no longer be
+     * resumed afterward, but its shortest path tree remains valid. This is called automatically by
+     * getShortestPathTree; callers driving startSearch/runSearch themselves should call it in a finally
+     * block when they are done with the search, so that a failed search does not keep the workspace.
+     */
+    public void endSearch() {
+        if (runState == null)
+            return;
+        if (runState.workspace != null) {
+            runState.workspace.release();
+            runState.workspace = null;
+            runState.pq = null;
+            runState.targetAcceptedStates = null;
+        }
+        runState.options.releaseStreetCostModel();
+    }
+
     boolean iterate(){
         // print debug info
         if (verbose) {
@@ -169,81 +204,108 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         runState.nVisited += 1;
         
-        Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
-        for (Edge edge : edges) {
+        final boolean incoming = runState.options.arriveBy;
+        EdgeAdjacency.Slot slot = runState.u_vertex.getAdjacencySlot();
+        if (slot != null) {
+            // permanent edges from the frozen adjacency, then the temporary ones of the vertex
+            Edge[] edges = slot.adjacency.getEdges(incoming);
+            int end = slot.getEnd(incoming);
+            for (int i = slot.getStart(incoming); i < end; i++) {
+                traverseEdge(edges[i]);
+            }
+            for (Edge edge : runState.u_vertex.getTemporaryEdges(incoming)) {
+                traverseEdge(edge);
+            }
+        } else {
+            for (Edge edge : incoming ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing()) {
+                traverseEdge(edge);
+            }
+        }
+        
+        return true;
+    }
 
-            // Iterate over traversal results. When an edge leads nowhere (as indicated by
-            // returning NULL), the iteration is over. TODO Use this to board multiple trips.
-            for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
-                // Could be: for (State v : traverseEdge...)
+    /** Traverse one edge out of the current state, and enqueue the hopeful results. */
+    private void traverseEdge(Edge edge) {
 
-                if (traverseVisitor != null) {
-                    traverseVisitor.visitEdge(edge, v);
-                }
-                // TEST: uncomment to verify that all optimisticTraverse functions are actually
-                // admissible
-                // State lbs = edge.optimisticTraverse(u);
-                // if ( ! (lbs.getWeight() <= v.getWeight())) {
-                // System.out.printf("inadmissible lower bound %f vs %f on edge %s\n",
-                // lbs.getWeightDelta(), v.getWeightDelta(), edge);
-                // }
-
-                double remaining_w = computeRemainingWeight(runState.heuristic, v, runState.rctx.target, runState.options);
-                if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
-                    continue;
-                }
-                double estimate = v.getWeight() + remaining_w * runState.options.heuristicWeight;
+        // Iterate over traversal results. When an edge leads nowhere (as indicated by
+        // returning NULL), the iteration is over. TODO Use this to board multiple trips.
+        for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
+            // Could be: for (State v : traverseEdge...)
 
-                if (verbose) {
-                    System.out.println("      edge " + edge);
-                    System.out.println("      " + runState.u.getWeight() + " -> " + v.getWeight()
-                            + "(w) + " + remaining_w + "(heur) = " + estimate + " vert = "
-                            + v.getVertex());
-                }
+            if (traverseVisitor != null) {
+                traverseVisitor.visitEdge(edge, v);
+            }
+            // TEST: uncomment to verify that all optimisticTraverse functions are actually
+            // admissible
+            // State lbs = edge.optimisticTraverse(u);
+            // if ( ! (lbs.getWeight() <= v.getWeight())) {
+            // System.out.printf("inadmissible lower bound %f vs %f on edge %s\n",
+            // lbs.getWeightDelta(), v.getWeightDelta(), edge);
+            // }
+
+            double remaining_w = computeRemainingWeight(runState.heuristic, v, runState.rctx.target, runState.options);
+            if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
+                continue;
+            }
+            double estimate = v.getWeight() + remaining_w * runState.options.heuristicWeight;
 
-                // avoid enqueuing useless branches 
-                if (estimate > runState.options.maxWeight) {
-                    // too expensive to get here
-                    if (verbose)
-                        System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
-                    continue;
-                }
-                if (isWorstTimeExceeded(v, runState.options)) {
-                    // too much time to get here
-                    if (verbose)
-                        System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
-                    continue;
-                }
-                
-                // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
-                if (runState.spt.add(v)) {
-                    // report to the visitor if there is one
-                    if (traverseVisitor != null)
-                        traverseVisitor.visitEnqueue(v);
-                    
-                    runState.pq.insert(v, estimate);
-                } 
+            if (verbose) {
+                System.out.println("      edge " + edge);
+                System.out.println("      " + runState.u.getWeight() + " -> " + v.getWeight()
+                        + "(w) + " + remaining_w + "(heur) = " + estimate + " vert = "
+                        + v.getVertex());
+            }
+
+            // avoid enqueuing useless branches 
+            if (estimate > runState.options.maxWeight) {
+                // too expensive to get here
+                if (verbose)
+                    System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
+                continue;
+            }
+            if (isWorstTimeExceeded(v, runState.options)) {
+                // too much time to get here
+                if (verbose)
+                    System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
+                continue;
             }
+            
+            // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
+            if (runState.spt.add(v)) {
+                // report to the visitor if there is one
+                if (traverseVisitor != null)
+                    traverseVisitor.visitEnqueue(v);
+                
+                runState.pq.insert(v, estimate);
+            } 
         }
-        
-        return true;
     }
     
     public void runSearch(long abortTime){
         /* the core of the A* algorithm */
+        SearchCancellation cancellation = runState.options.cancellation;
+        int nIterations = 0;
         while (!runState.pq.empty()) { // Until the priority queue is empty:
             /*
-             * Terminate based on timeout?
+             * Terminate based on cancellation or timeout? Only checked periodically.
              */
-            if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
-                LOG.warn("Search timeout. origin={} target={}", runState.rctx.origin, runState.rctx.target);
-                // Rather than returning null to indicate that the search was aborted/timed out,
-                // we instead set a flag in the routing context and return the SPT anyway. This
-                // allows returning a partial list results even when a timeout occurs.
-                runState.options.rctx.aborted = true; // signal search cancellation up to higher stack frames
-                runState.options.rctx.debugOutput.timedOut = true; // signal timeout in debug output object
+            if ((++nIterations & ABORT_CHECK_MASK) == 0) {
+                if (cancellation != null && cancellation.isCancelled()) {
+                    LOG.info("Search cancelled. origin={} target={}", runState.rctx.origin, runState.rctx.target);
+                    runState.options.rctx.aborted = true; // signal search cancellation up to higher stack frames
+                    break;
+                }
+                if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
+                    LOG.warn("Search timeout. origin={} target={}", runState.rctx.origin, runState.rctx.target);
+                    // Rather than returning null to indicate that the search was aborted/timed out,
+                    // we instead set a flag in the routing context and return the SPT anyway. This
+                    // allows returning a partial list results even when a timeout occurs.
+                    runState.options.rctx.aborted = true; // signal search cancellation up to higher stack frames
+                    runState.options.rctx.debugOutput.timedOut = true; // signal timeout in debug output object
 
-                break;
+                    break;
+                }
             }
             
             /*
@@ -296,18 +358,49 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             SearchTerminationStrategy terminationStrategy) {
         ShortestPathTree spt = null;
         long abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
+        long allocatedBefore = allocatedBytes();
 
-        startSearch (options, terminationStrategy, abortTime);
+        try {
+            startSearch (options, terminationStrategy, abortTime);
 
-        if (runState != null) {
-            runSearch(abortTime);
-            spt = runState.spt;
+            if (runState != null) {
+                runSearch(abortTime);
+                spt = runState.spt;
+            }
+        } finally {
+            // an exception thrown by an edge or heuristic must not leave the workspace lent out
+            endSearch();
         }
         
         storeMemory();
+        storeAllocation(allocatedBefore);
         return spt;
     }
 
+    /**
+     * @return the number of bytes allocated so far by the current thread when allocation is being
+     *         monitored and the JVM supports measuring it, otherwise -1.
+     */
+    private static long allocatedBytes() {
+        if (!store.isMonitoring("searchAllocatedBytes"))
+            return -1;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** Record the bytes allocated by one search, as a last value and a running maximum. */
+    private static void storeAllocation(long allocatedBefore) {
+        if (allocatedBefore < 0)
+            return;
+        long allocated = allocatedBytes() - allocatedBefore;
+        store.setLong("searchAllocatedBytes", allocated);
+        store.setLongMax("maxSearchAllocatedBytes", allocated);
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
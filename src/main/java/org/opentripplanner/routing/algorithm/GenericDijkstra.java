@@ -62,6 +62,19 @@ public class GenericDijkstra {
     }
 
     public ShortestPathTree getShortestPathTree(State initialState) {
+        // compile the street preferences unless this runs within a search that already did
+        boolean compile = !options.isStreetCostModelCompiled();
+        if (compile)
+            options.compileStreetCostModel();
+        try {
+            return search(initialState);
+        } finally {
+            if (compile)
+                options.releaseStreetCostModel();
+        }
+    }
+
+    private ShortestPathTree search(State initialState) {
         Vertex target = null;
         if (options.rctx != null) {
             target = initialState.getOptions().rctx.target;
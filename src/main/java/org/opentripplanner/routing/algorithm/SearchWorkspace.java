@@ -0,0 +1,86 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.List;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.State;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The scratch data structures used by one GenericAStar search that never escape the search itself.
+ * One workspace is kept per thread and lent to the searches running on that thread, so that at high
+ * request rates the priority queue arrays are allocated once and then reused rather than
+ * reallocated (and grown again) for every request.
+ *
+ * A search acquires the workspace when it starts and releases it when it ends. Releasing clears the
+ * workspace in time proportional to the number of queue slots used by that search. A search that
+ * starts while the thread's workspace is already lent out (e.g. a nested search run by a heuristic)
+ * just gets a fresh, unpooled workspace.
+ *
+ * The shortest path tree is not part of the workspace, because callers keep using it after the
+ * search returns, and it serves as the record of visited vertices (a state is settled when the tree
+ * still holds it), so there are no separate visited markers to reuse either. Each search allocates
+ * its own tree, which grows in pages as vertices are reached.
+ */
+public class SearchWorkspace {
+
+    /** Workspaces whose queue has grown beyond this many slots are not kept for reuse. */
+    private static final int MAX_POOLED_QUEUE_CAPACITY = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<SearchWorkspace> POOL = new ThreadLocal<SearchWorkspace>() {
+        @Override
+        protected SearchWorkspace initialValue() {
+            return new SearchWorkspace(true);
+        }
+    };
+
+    final BinHeap<State> queue = new BinHeap<State>();
+
+    final List<Object> targetAcceptedStates = Lists.newArrayList();
+
+    private final boolean pooled;
+
+    private boolean inUse = false;
+
+    private SearchWorkspace(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /** Lend out this thread's workspace, or a new one if it is already in use. */
+    static SearchWorkspace acquire() {
+        SearchWorkspace workspace = POOL.get();
+        if (workspace.inUse) {
+            workspace = new SearchWorkspace(false);
+        }
+        workspace.inUse = true;
+        return workspace;
+    }
+
+    /** Clear this workspace and make it available to the next search on the thread that owns it. */
+    void release() {
+        if (!inUse)
+            return;
+        queue.clear();
+        targetAcceptedStates.clear();
+        inUse = false;
+        if (pooled && queue.capacity() > MAX_POOLED_QUEUE_CAPACITY) {
+            // Do not pin the arrays of an exceptionally large search to this thread forever.
+            POOL.remove();
+        }
+    }
+
+}
@@ -20,6 +20,7 @@ import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
@@ -272,12 +273,19 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         Vertex initVertex = fromTarget ? rr.rctx.target : rr.rctx.origin;
         State initState = new State(initVertex, rr);
         pq.insert(initState, 0);
+        int nIterations = 0;
         while ( ! pq.empty()) {
             /**
-             * Terminate the search prematurely if we've hit our computation wall.
+             * Terminate the search prematurely if we've hit our computation wall or the request was
+             * cancelled. Checked periodically to keep the clock read out of the inner loop.
              */
-            if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
-                return null;
+            if ((++nIterations & GenericAStar.ABORT_CHECK_MASK) == 0) {
+                if (rr.cancellation != null && rr.cancellation.isCancelled()) {
+                    return null;
+                }
+                if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
+                    return null;
+                }
             }
 
             State s = pq.extract_min();
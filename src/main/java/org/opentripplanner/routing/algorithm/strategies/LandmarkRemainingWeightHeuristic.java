@@ -0,0 +1,237 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * An ALT remaining weight strategy for street searches. By the triangle inequality, the network
+ * distance from v to the target t is at least d(L, t) - d(L, v) and d(v, L) - d(t, L) for any
+ * landmark L. The best of these bounds over a few landmarks chosen for the search is scaled to a
+ * weight the same way {@link DefaultRemainingWeightHeuristic} scales Euclidean distance, and the
+ * Euclidean estimate is kept as a floor for vertices and landmarks where the table has no answer.
+ *
+ * Without a {@link LandmarkTable} in the graph this behaves exactly like the Euclidean heuristic.
+ * So does it for bicycle requests optimized for safety (SAFE, GREENWAYS, TRIANGLE): their weight per
+ * meter is scaled by bicycle safety factors, which can be well below 1, so a network distance scaled
+ * by the speed would overestimate the remaining weight. The same goes for walking and cycling on
+ * graphs with elevation, where downhill edges are weighted by slope-adjusted lengths shorter than
+ * their distance; driving ignores slopes and keeps using the table.
+ */
+public class LandmarkRemainingWeightHeuristic implements RemainingWeightHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of landmarks evaluated per state, picked for each search. */
+    private static final int ACTIVE_LANDMARKS = 4;
+
+    /** Maximum number of vertices settled when linking a target outside the table to it. */
+    private static final int LINK_SETTLED_LIMIT = 200;
+
+    private static final long UNKNOWN = -1;
+
+    private final DefaultRemainingWeightHeuristic euclidean = new DefaultRemainingWeightHeuristic();
+
+    private LandmarkTable table;
+
+    private boolean arriveBy;
+
+    /** Weight per table distance unit. */
+    private double weightPerUnit;
+
+    /** Distances from each landmark to the target and from the target to each landmark, or UNKNOWN. */
+    private long[] targetFrom;
+    private long[] targetTo;
+
+    private int[] activeLandmarks;
+
+    @Override
+    public void initialize(RoutingRequest options, Vertex origin, Vertex target, long abortTime) {
+        euclidean.initialize(options, origin, target, abortTime);
+        table = options.rctx == null ? null : options.rctx.graph.getService(LandmarkTable.class);
+        if (options.modes.getBicycle() && usesSafetyFactors(options.optimize))
+            table = null;
+        if (table != null && (options.modes.getWalk() || options.modes.getBicycle())
+                && table.hasSlopes())
+            table = null;
+        if (table == null || table.nLandmarks == 0)
+            return;
+        arriveBy = options.arriveBy;
+        weightPerUnit = options.walkReluctance * LandmarkTable.UNIT
+                / options.getStreetSpeedUpperBound();
+        targetFrom = new long[table.nLandmarks];
+        targetTo = new long[table.nLandmarks];
+        int column = table.getColumn(target);
+        for (int l = 0; l < table.nLandmarks; l++) {
+            targetFrom[l] = column < 0 ? UNKNOWN : known(table.getFromLandmark(column, l));
+            targetTo[l] = column < 0 ? UNKNOWN : known(table.getToLandmark(column, l));
+        }
+        if (column < 0) {
+            linkTarget(target, true);
+            linkTarget(target, false);
+        }
+        chooseActiveLandmarks(origin);
+    }
+
+    private static boolean usesSafetyFactors(OptimizeType optimize) {
+        return optimize == OptimizeType.SAFE || optimize == OptimizeType.GREENWAYS
+                || optimize == OptimizeType.TRIANGLE;
+    }
+
+    private static long known(int distance) {
+        return distance == LandmarkTable.UNREACHABLE ? UNKNOWN : distance;
+    }
+
+    /**
+     * Derive the landmark distances of a target that is not in the table (usually a temporary
+     * vertex) from those of the table vertices around it. The result is only kept when the local
+     * search runs out of vertices, since only then does it see every way into (or out of) the target.
+     *
+     * @param into true to follow edges into the target, giving the distances from the landmarks.
+     */
+    private void linkTarget(Vertex target, boolean into) {
+        long[] result = new long[table.nLandmarks];
+        Arrays.fill(result, Long.MAX_VALUE);
+        Map<Vertex, Double> dist = new HashMap<Vertex, Double>();
+        BinHeap<Vertex> queue = new BinHeap<Vertex>();
+        dist.put(target, 0.0);
+        queue.insert(target, 0);
+        int settled = 0;
+        while (!queue.empty()) {
+            if (settled++ >= LINK_SETTLED_LIMIT)
+                return;
+            double d = queue.peek_min_key();
+            Vertex v = queue.extract_min();
+            if (d > dist.get(v))
+                continue;
+            int column = table.getColumn(v);
+            if (column >= 0) {
+                for (int l = 0; l < table.nLandmarks; l++) {
+                    int tableDist = into ? table.getFromLandmark(column, l)
+                            : table.getToLandmark(column, l);
+                    if (tableDist != LandmarkTable.UNREACHABLE) {
+                        // round down, so this stays a lower bound
+                        long total = tableDist + (long) (d / LandmarkTable.UNIT);
+                        result[l] = Math.min(result[l], total);
+                    }
+                }
+                continue;
+            }
+            for (Edge e : into ? v.getIncoming() : v.getOutgoing()) {
+                Vertex next = into ? e.getFromVertex() : e.getToVertex();
+                double nd = d + Math.max(0, e.getDistance());
+                Double old = dist.get(next);
+                if (old == null || nd < old) {
+                    dist.put(next, nd);
+                    queue.insert(next, nd);
+                }
+            }
+        }
+        for (int l = 0; l < table.nLandmarks; l++) {
+            long value = result[l] == Long.MAX_VALUE ? UNKNOWN : result[l];
+            if (into)
+                targetFrom[l] = value;
+            else
+                targetTo[l] = value;
+        }
+    }
+
+    /** Keep the landmarks giving the best bounds at the origin of the search. */
+    private void chooseActiveLandmarks(Vertex origin) {
+        final int nLandmarks = table.nLandmarks;
+        int column = origin == null ? -1 : table.getColumn(origin);
+        if (column < 0 || nLandmarks <= ACTIVE_LANDMARKS) {
+            activeLandmarks = new int[nLandmarks];
+            for (int l = 0; l < nLandmarks; l++)
+                activeLandmarks[l] = l;
+            return;
+        }
+        final long[] bounds = new long[nLandmarks];
+        Integer[] order = new Integer[nLandmarks];
+        for (int l = 0; l < nLandmarks; l++) {
+            bounds[l] = bound(column, l);
+            order[l] = l;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(bounds[b], bounds[a]);
+            }
+        });
+        activeLandmarks = new int[ACTIVE_LANDMARKS];
+        for (int i = 0; i < ACTIVE_LANDMARKS; i++)
+            activeLandmarks[i] = order[i];
+    }
+
+    /**
+     * @return a lower bound in table units on the distance between the vertex of the given column
+     *         and the target, in the direction of the search, using a single landmark.
+     */
+    private long bound(int column, int l) {
+        long best = 0;
+        long vFrom = known(table.getFromLandmark(column, l));
+        long vTo = known(table.getToLandmark(column, l));
+        if (arriveBy) {
+            // remaining path runs from the target to v
+            if (vFrom != UNKNOWN && targetFrom[l] != UNKNOWN)
+                best = Math.max(best, vFrom - targetFrom[l]);
+            if (vTo != UNKNOWN && targetTo[l] != UNKNOWN)
+                best = Math.max(best, targetTo[l] - vTo);
+        } else {
+            if (vFrom != UNKNOWN && targetFrom[l] != UNKNOWN)
+                best = Math.max(best, targetFrom[l] - vFrom);
+            if (vTo != UNKNOWN && targetTo[l] != UNKNOWN)
+                best = Math.max(best, vTo - targetTo[l]);
+        }
+        // allow for the rounding of the stored distances and of the target's derived ones
+        return Math.max(0, best - 2);
+    }
+
+    @Override
+    public double computeForwardWeight(State s, Vertex target) {
+        double estimate = euclidean.computeForwardWeight(s, target);
+        if (table == null)
+            return estimate;
+        int column = table.getColumn(s.getVertex());
+        if (column < 0)
+            return estimate;
+        long best = 0;
+        for (int l : activeLandmarks) {
+            best = Math.max(best, bound(column, l));
+        }
+        return Math.max(estimate, best * weightPerUnit);
+    }
+
+    @Override
+    public double computeReverseWeight(State s, Vertex target) {
+        return computeForwardWeight(s, target);
+    }
+
+    @Override
+    public void reset() {}
+
+    @Override
+    public void doSomeWork() {}
+
+}
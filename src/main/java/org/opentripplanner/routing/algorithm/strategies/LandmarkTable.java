@@ -0,0 +1,224 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Network distances between every vertex of a graph and a small set of landmark vertices, in both
+ * directions, for the ALT (A*, landmarks and triangle inequality) lower bound used by
+ * {@link LandmarkRemainingWeightHeuristic}.
+ *
+ * Distances are the sums of Edge.getDistance() over all edges of the graph, rounded to decimeters
+ * and stored as ints, vertex-major so that all landmarks of a vertex are adjacent in memory. Since
+ * every edge of the graph takes part, they never exceed the distances within any subgraph a search
+ * is restricted to, which keeps the triangle inequality bounds valid for all street modes.
+ */
+public class LandmarkTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkTable.class);
+
+    /** Distance value for vertices that cannot reach or be reached from a landmark. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** Distances are stored in units of this many meters. */
+    public static final double UNIT = 0.1;
+
+    public final int nLandmarks;
+
+    /** The vertex of each table column. */
+    private final Vertex[] vertices;
+
+    /** Distance from landmark l to the vertex of column c, at c * nLandmarks + l. */
+    private final int[] fromLandmark;
+
+    /** Distance from the vertex of column c to landmark l, at c * nLandmarks + l. */
+    private final int[] toLandmark;
+
+    /** Column of each vertex, by vertex index. Vertex indexes are reassigned on load. */
+    private transient volatile int[] columnByVertexIndex;
+
+    /** Whether any edge of the table vertices has a slope, computed on first use. */
+    private transient volatile Boolean slopes;
+
+    private LandmarkTable(Vertex[] vertices, int nLandmarks) {
+        this.vertices = vertices;
+        this.nLandmarks = nLandmarks;
+        this.fromLandmark = new int[vertices.length * nLandmarks];
+        this.toLandmark = new int[vertices.length * nLandmarks];
+    }
+
+    /** @return the table column of the given vertex, or -1 if it is not in the table. */
+    public int getColumn(Vertex vertex) {
+        int[] columns = columnByVertexIndex;
+        if (columns == null) {
+            columns = indexColumns();
+        }
+        int index = vertex.getIndex();
+        return index < columns.length ? columns[index] : -1;
+    }
+
+    private synchronized int[] indexColumns() {
+        if (columnByVertexIndex == null) {
+            int maxIndex = 0;
+            for (Vertex v : vertices) {
+                maxIndex = Math.max(maxIndex, v.getIndex() + 1);
+            }
+            int[] columns = new int[maxIndex];
+            Arrays.fill(columns, -1);
+            for (int c = 0; c < vertices.length; c++) {
+                columns[vertices[c].getIndex()] = c;
+            }
+            columnByVertexIndex = columns;
+        }
+        return columnByVertexIndex;
+    }
+
+    /**
+     * @return true if some street edge of the table has a slope. Slopes can make the weight of an
+     *         edge smaller than its distance would suggest, for instance riding a bicycle downhill.
+     *         Elevation may be added to the graph after the table is built, so this is checked on
+     *         first use rather than when building the table.
+     */
+    public boolean hasSlopes() {
+        Boolean result = slopes;
+        if (result == null) {
+            result = false;
+            for (Vertex v : vertices) {
+                for (Edge e : v.getOutgoing()) {
+                    if (e instanceof StreetEdge && isSloped((StreetEdge) e)) {
+                        result = true;
+                        break;
+                    }
+                }
+                if (result)
+                    break;
+            }
+            slopes = result;
+        }
+        return result;
+    }
+
+    private static boolean isSloped(StreetEdge e) {
+        return e.getMaxSlope() != 0 || e.getSlopeSpeedEffectiveLength() < e.getDistance()
+                || e.getSlopeWorkCostEffectiveLength() < e.getDistance();
+    }
+
+    public int getFromLandmark(int column, int landmark) {
+        return fromLandmark[column * nLandmarks + landmark];
+    }
+
+    public int getToLandmark(int column, int landmark) {
+        return toLandmark[column * nLandmarks + landmark];
+    }
+
+    /**
+     * Build a table for the given graph. Landmarks are chosen greedily, each one being the vertex
+     * farthest from all those already chosen, which spreads them around the edges of the network
+     * where they give the tightest bounds.
+     */
+    public static LandmarkTable build(Graph graph, int nLandmarks) {
+        long startTime = System.currentTimeMillis();
+        Vertex[] vertices = graph.getVertices().toArray(new Vertex[0]);
+        LandmarkTable table = new LandmarkTable(vertices, nLandmarks);
+        int nVertices = vertices.length;
+        if (nVertices == 0)
+            return table;
+        int[] columnByVertexIndex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(columnByVertexIndex, -1);
+        for (int c = 0; c < nVertices; c++) {
+            columnByVertexIndex[vertices[c].getIndex()] = c;
+        }
+
+        // Distance from the nearest chosen landmark, for picking the next one.
+        double[] nearest = new double[nVertices];
+        double[] dist = distances(vertices, columnByVertexIndex,
+                new Random(nVertices).nextInt(nVertices), false);
+        for (int l = 0; l < nLandmarks; l++) {
+            int landmark = farthest(dist);
+            if (landmark < 0)
+                break; // fewer reachable vertices than landmarks
+            LOG.info("Landmark {}: {}", l, vertices[landmark]);
+            double[] from = distances(vertices, columnByVertexIndex, landmark, false);
+            double[] to = distances(vertices, columnByVertexIndex, landmark, true);
+            for (int c = 0; c < nVertices; c++) {
+                table.fromLandmark[c * nLandmarks + l] = quantize(from[c]);
+                table.toLandmark[c * nLandmarks + l] = quantize(to[c]);
+                nearest[c] = (l == 0) ? from[c] : Math.min(nearest[c], from[c]);
+            }
+            dist = nearest;
+        }
+        LOG.info("Landmark table for {} vertices built in {} seconds", nVertices,
+                (System.currentTimeMillis() - startTime) / 1000);
+        return table;
+    }
+
+    private static int quantize(double meters) {
+        if (Double.isInfinite(meters) || meters / UNIT >= UNREACHABLE)
+            return UNREACHABLE;
+        return (int) Math.round(meters / UNIT);
+    }
+
+    /** @return the column with the greatest finite positive distance, or -1 if there is none. */
+    private static int farthest(double[] dist) {
+        int best = -1;
+        for (int c = 0; c < dist.length; c++) {
+            if (!Double.isInfinite(dist[c]) && dist[c] > 0 && (best < 0 || dist[c] > dist[best]))
+                best = c;
+        }
+        return best;
+    }
+
+    /** Dijkstra search over edge distances, from a vertex or (reverse) toward it. */
+    private static double[] distances(Vertex[] vertices, int[] columnByVertexIndex, int source,
+            boolean reverse) {
+        double[] dist = new double[vertices.length];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        BinHeap<Integer> queue = new BinHeap<Integer>();
+        dist[source] = 0;
+        queue.insert(source, 0);
+        while (!queue.empty()) {
+            double d = queue.peek_min_key();
+            int c = queue.extract_min();
+            if (d > dist[c])
+                continue;
+            for (Edge e : reverse ? vertices[c].getIncoming() : vertices[c].getOutgoing()) {
+                Vertex next = reverse ? e.getFromVertex() : e.getToVertex();
+                int index = next.getIndex();
+                int n = index < columnByVertexIndex.length ? columnByVertexIndex[index] : -1;
+                if (n < 0)
+                    continue;
+                double nd = d + Math.max(0, e.getDistance());
+                if (nd < dist[n]) {
+                    dist[n] = nd;
+                    queue.insert(n, nd);
+                }
+            }
+        }
+        return dist;
+    }
+
+}
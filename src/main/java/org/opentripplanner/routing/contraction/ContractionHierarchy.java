@@ -0,0 +1,346 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.IntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A contraction hierarchy over the permanent street vertices of a graph, for a single traverse mode
+ * and a fixed set of cost parameters. Every arc is either an original street edge or a shortcut
+ * standing for two lower arcs through a contracted vertex. Arcs are stored in flat arrays, and the
+ * arcs usable by the upward searches of a query are grouped per vertex in compressed adjacency
+ * arrays.
+ *
+ * Static arc weights are computed by traversing each edge from a fresh state, so turn costs and turn
+ * restrictions are not part of the hierarchy. The hierarchy is therefore only used for requests in
+ * which turns add no weight. The same goes for the other costs that depend on the state an edge is
+ * entered in: switching between riding and walking a bike (a fresh state counts a switch on every
+ * bicycle edge), and car or bike parking and bike rental. Walk distance limits only apply to
+ * transit searches, which never use a hierarchy. Callers re-traverse the unpacked path with the real
+ * request, which applies turn restrictions and may reject the path, but cannot make a path found
+ * with different weights optimal, so requests with any of these costs are not compatible.
+ *
+ * Instances are immutable once built and can be queried concurrently.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final TraverseMode mode;
+
+    /* Cost parameters the static weights were computed with. */
+    private final OptimizeType optimize;
+    private final double walkSpeed;
+    private final double bikeSpeed;
+    private final double carSpeed;
+    private final double walkReluctance;
+    private final double stairsReluctance;
+    private final double triangleTimeFactor;
+    private final double triangleSlopeFactor;
+    private final double triangleSafetyFactor;
+
+    /** The vertex of each hierarchy node. */
+    final Vertex[] vertices;
+
+    final int[] arcFrom;
+    final int[] arcTo;
+    final double[] arcWeight;
+
+    /** The street edge an original arc stands for, or null for shortcuts. */
+    final Edge[] arcEdge;
+
+    /** The two arcs a shortcut stands for, at 2 * arc and 2 * arc + 1, or -1 for original arcs. */
+    final int[] arcChildren;
+
+    /** Arcs leaving each node toward a higher ranked node, in upFirst[node] until upFirst[node + 1]. */
+    final int[] upFirst;
+    final int[] upArcs;
+
+    /** Arcs entering each node from a higher ranked node, in downFirst[node] until downFirst[node + 1]. */
+    final int[] downFirst;
+    final int[] downArcs;
+
+    /** Hierarchy node of each vertex, by vertex index. Vertex indexes are reassigned on load. */
+    private transient volatile int[] nodeByVertexIndex;
+
+    ContractionHierarchy(RoutingRequest options, Vertex[] vertices, int[] arcFrom, int[] arcTo,
+            double[] arcWeight, Edge[] arcEdge, int[] arcChildren, int[] rank) {
+        this.mode = options.modes.getModes().get(0);
+        this.optimize = options.optimize;
+        this.walkSpeed = options.walkSpeed;
+        this.bikeSpeed = options.bikeSpeed;
+        this.carSpeed = options.carSpeed;
+        this.walkReluctance = options.walkReluctance;
+        this.stairsReluctance = options.stairsReluctance;
+        this.triangleTimeFactor = options.triangleTimeFactor;
+        this.triangleSlopeFactor = options.triangleSlopeFactor;
+        this.triangleSafetyFactor = options.triangleSafetyFactor;
+        this.vertices = vertices;
+        this.arcFrom = arcFrom;
+        this.arcTo = arcTo;
+        this.arcWeight = arcWeight;
+        this.arcEdge = arcEdge;
+        this.arcChildren = arcChildren;
+
+        int nNodes = vertices.length;
+        upFirst = new int[nNodes + 1];
+        downFirst = new int[nNodes + 1];
+        for (int a = 0; a < arcFrom.length; a++) {
+            if (rank[arcFrom[a]] < rank[arcTo[a]]) {
+                upFirst[arcFrom[a] + 1]++;
+            } else {
+                downFirst[arcTo[a] + 1]++;
+            }
+        }
+        for (int n = 0; n < nNodes; n++) {
+            upFirst[n + 1] += upFirst[n];
+            downFirst[n + 1] += downFirst[n];
+        }
+        upArcs = new int[upFirst[nNodes]];
+        downArcs = new int[downFirst[nNodes]];
+        int[] upFill = Arrays.copyOf(upFirst, nNodes);
+        int[] downFill = Arrays.copyOf(downFirst, nNodes);
+        for (int a = 0; a < arcFrom.length; a++) {
+            if (rank[arcFrom[a]] < rank[arcTo[a]]) {
+                upArcs[upFill[arcFrom[a]]++] = a;
+            } else {
+                downArcs[downFill[arcTo[a]]++] = a;
+            }
+        }
+    }
+
+    /**
+     * @return true if this hierarchy's weights are those a search for the given request would use:
+     *         the request uses this hierarchy's single street mode and the same cost parameters, and
+     *         neither its turns nor the state an edge is entered in add weight. Requests with several
+     *         modes, such as BICYCLE,WALK, never use a hierarchy.
+     */
+    public boolean isCompatible(RoutingRequest options) {
+        List<TraverseMode> modes = options.modes.getModes();
+        if (modes.size() != 1 || modes.get(0) != mode)
+            return false;
+        if (!hasNoTurnCosts(options))
+            return false;
+        if (mode == TraverseMode.BICYCLE
+                && (options.bikeSwitchTime != 0 || options.bikeSwitchCost != 0))
+            return false;
+        if (options.parkAndRide || options.kissAndRide || options.bikeParkAndRide
+                || options.allowBikeRental)
+            return false;
+        if (options.wheelchairAccessible || options.optimize != optimize)
+            return false;
+        if (optimize == OptimizeType.TRIANGLE && (options.triangleTimeFactor != triangleTimeFactor
+                || options.triangleSlopeFactor != triangleSlopeFactor
+                || options.triangleSafetyFactor != triangleSafetyFactor))
+            return false;
+        return options.walkSpeed == walkSpeed && options.bikeSpeed == bikeSpeed
+                && options.carSpeed == carSpeed && options.walkReluctance == walkReluctance
+                && options.stairsReluctance == stairsReluctance;
+    }
+
+    /**
+     * @return true if turns add no weight in searches with the given options, because turn costs
+     *         are either not weighted or zero everywhere.
+     */
+    private static boolean hasNoTurnCosts(RoutingRequest options) {
+        if (options.turnReluctance == 0)
+            return true;
+        IntersectionTraversalCostModel model = options.getIntersectionTraversalCostModel();
+        return model instanceof ConstantIntersectionTraversalCostModel
+                && ((ConstantIntersectionTraversalCostModel) model).getCost() == 0;
+    }
+
+    public int getNodeCount() {
+        return vertices.length;
+    }
+
+    public int getArcCount() {
+        return arcFrom.length;
+    }
+
+    public Vertex getVertex(int node) {
+        return vertices[node];
+    }
+
+    /** @return the hierarchy node of the given vertex, or -1 if the vertex is not in the hierarchy. */
+    public int getNode(Vertex vertex) {
+        int[] nodes = nodeByVertexIndex;
+        if (nodes == null) {
+            nodes = indexNodes();
+        }
+        int index = vertex.getIndex();
+        return index < nodes.length ? nodes[index] : -1;
+    }
+
+    private synchronized int[] indexNodes() {
+        if (nodeByVertexIndex == null) {
+            int maxIndex = 0;
+            for (Vertex v : vertices) {
+                maxIndex = Math.max(maxIndex, v.getIndex() + 1);
+            }
+            int[] nodes = new int[maxIndex];
+            Arrays.fill(nodes, -1);
+            for (int n = 0; n < vertices.length; n++) {
+                nodes[vertices[n].getIndex()] = n;
+            }
+            nodeByVertexIndex = nodes;
+        }
+        return nodeByVertexIndex;
+    }
+
+    /**
+     * The weight of traversing an edge from a fresh state at its from vertex, ignoring turn costs.
+     * Options must describe a depart-after search. Callers weighing many edges should compile the
+     * street cost model of the options first.
+     *
+     * @return the weight, or positive infinity if the edge cannot be traversed.
+     */
+    public static double staticWeight(Edge edge, RoutingRequest options) {
+        State s0 = new State(edge.getFromVertex(), options);
+        double weight = Double.POSITIVE_INFINITY;
+        for (State s1 = edge.traverse(s0); s1 != null; s1 = s1.getNextResult()) {
+            weight = Math.min(weight, s1.getWeight());
+        }
+        return weight;
+    }
+
+    /** A path found in the hierarchy, unpacked into street edges. */
+    public static class Path {
+        public Vertex from;
+        public Vertex to;
+        public double weight;
+        public List<Edge> edges = new ArrayList<Edge>();
+    }
+
+    /**
+     * Find the lightest path from any of the source nodes to any of the target nodes, with a
+     * bidirectional Dijkstra search where both directions only climb the hierarchy. The maps give the
+     * initial weight of each source node and the remaining weight from each target node.
+     *
+     * @return the path, or null if no target can be reached.
+     */
+    public Path findPath(TIntDoubleMap sources, TIntDoubleMap targets) {
+        TIntDoubleHashMap fwdDist = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntDoubleHashMap bwdDist = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntIntHashMap fwdParent = new TIntIntHashMap(64, 0.5f, -1, -1);
+        TIntIntHashMap bwdParent = new TIntIntHashMap(64, 0.5f, -1, -1);
+        BinHeap<Integer> fwdQueue = new BinHeap<Integer>();
+        BinHeap<Integer> bwdQueue = new BinHeap<Integer>();
+        for (TIntDoubleIterator it = sources.iterator(); it.hasNext();) {
+            it.advance();
+            fwdDist.put(it.key(), it.value());
+            fwdQueue.insert(it.key(), it.value());
+        }
+        for (TIntDoubleIterator it = targets.iterator(); it.hasNext();) {
+            it.advance();
+            bwdDist.put(it.key(), it.value());
+            bwdQueue.insert(it.key(), it.value());
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            double fwdMin = fwdQueue.empty() ? Double.POSITIVE_INFINITY : fwdQueue.peek_min_key();
+            double bwdMin = bwdQueue.empty() ? Double.POSITIVE_INFINITY : bwdQueue.peek_min_key();
+            // neither direction can improve on the best meeting point any more
+            if (Math.min(fwdMin, bwdMin) >= best)
+                break;
+            boolean forward = fwdMin <= bwdMin;
+            BinHeap<Integer> queue = forward ? fwdQueue : bwdQueue;
+            TIntDoubleHashMap dist = forward ? fwdDist : bwdDist;
+            TIntDoubleHashMap otherDist = forward ? bwdDist : fwdDist;
+            TIntIntHashMap parent = forward ? fwdParent : bwdParent;
+            double d = queue.peek_min_key();
+            int node = queue.extract_min();
+            if (d > dist.get(node))
+                continue; // stale queue entry
+            double total = d + otherDist.get(node);
+            if (total < best) {
+                best = total;
+                meet = node;
+            }
+            int[] first = forward ? upFirst : downFirst;
+            int[] arcs = forward ? upArcs : downArcs;
+            for (int i = first[node]; i < first[node + 1]; i++) {
+                int a = arcs[i];
+                int next = forward ? arcTo[a] : arcFrom[a];
+                double nd = d + arcWeight[a];
+                if (nd < dist.get(next)) {
+                    dist.put(next, nd);
+                    parent.put(next, a);
+                    queue.insert(next, nd);
+                }
+            }
+        }
+        if (meet < 0)
+            return null;
+
+        // Arcs from a source to the meeting node, then from the meeting node to a target.
+        TIntArrayList arcs = new TIntArrayList();
+        int node = meet;
+        for (int a = fwdParent.get(node); a >= 0; a = fwdParent.get(node)) {
+            arcs.add(a);
+            node = arcFrom[a];
+        }
+        Path path = new Path();
+        path.from = vertices[node];
+        arcs.reverse();
+        node = meet;
+        for (int a = bwdParent.get(node); a >= 0; a = bwdParent.get(node)) {
+            arcs.add(a);
+            node = arcTo[a];
+        }
+        path.to = vertices[node];
+        path.weight = best;
+        for (int i = 0; i < arcs.size(); i++) {
+            unpack(arcs.get(i), path.edges);
+        }
+        return path;
+    }
+
+    /** Append the street edges an arc stands for, in order. */
+    private void unpack(int arc, List<Edge> edges) {
+        TIntArrayList stack = new TIntArrayList();
+        stack.add(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.removeAt(stack.size() - 1);
+            if (arcEdge[a] != null) {
+                edges.add(arcEdge[a]);
+            } else {
+                stack.add(arcChildren[2 * a + 1]);
+                stack.add(arcChildren[2 * a]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,320 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a ContractionHierarchy over the street edges of a graph. Vertices are contracted one at a
+ * time in order of increasing priority (edge difference plus the number of already contracted
+ * neighbors, updated lazily). Contracting a vertex adds a shortcut between each pair of its
+ * remaining neighbors unless a bounded local "witness" search finds a path at least as light that
+ * avoids it.
+ */
+public class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    /**
+     * Maximum number of vertices settled by a witness search. A missed witness only adds a
+     * superfluous shortcut, so this trades hierarchy size for preprocessing time.
+     */
+    private static final int WITNESS_SETTLED_LIMIT = 500;
+
+    private final RoutingRequest options;
+
+    private int nNodes;
+
+    private Vertex[] vertices;
+
+    /* Arcs, original and shortcut, in growable arrays. */
+    private TIntArrayList arcFrom = new TIntArrayList();
+    private TIntArrayList arcTo = new TIntArrayList();
+    private TDoubleArrayList arcWeight = new TDoubleArrayList();
+    private List<Edge> arcEdge = new ArrayList<Edge>();
+    private TIntArrayList arcChildren = new TIntArrayList();
+
+    /* Arcs leaving and entering each node. May still contain arcs to contracted nodes. */
+    private TIntArrayList[] out;
+    private TIntArrayList[] in;
+
+    private boolean[] contracted;
+    private int[] contractedNeighbors;
+
+    /* Witness search scratch space, reset after each search. */
+    private double[] witnessDist;
+    private TIntArrayList witnessTouched = new TIntArrayList();
+    private BinHeap<Integer> witnessQueue = new BinHeap<Integer>();
+
+    /**
+     * @param options a depart-after request with a single street mode, whose cost parameters are
+     *        used for the static weights.
+     */
+    public ContractionHierarchyBuilder(RoutingRequest options) {
+        this.options = options;
+    }
+
+    public ContractionHierarchy build(Graph graph) {
+        long startTime = System.currentTimeMillis();
+        addNodes(graph);
+        options.compileStreetCostModel();
+        try {
+            addOriginalArcs();
+        } finally {
+            options.releaseStreetCostModel();
+        }
+        int nOriginal = arcFrom.size();
+        LOG.info("Contracting {} street vertices and {} arcs for {}", nNodes, nOriginal,
+                options.modes);
+
+        int[] rank = contract();
+
+        int nArcs = arcFrom.size();
+        LOG.info("Contraction hierarchy for {} built in {} seconds with {} shortcuts", options.modes,
+                (System.currentTimeMillis() - startTime) / 1000, nArcs - nOriginal);
+        ContractionHierarchy hierarchy = new ContractionHierarchy(options, vertices,
+                arcFrom.toArray(), arcTo.toArray(), arcWeight.toArray(),
+                arcEdge.toArray(new Edge[nArcs]), arcChildren.toArray(), rank);
+        // release the scratch structures
+        out = in = null;
+        witnessDist = null;
+        return hierarchy;
+    }
+
+    private void addNodes(Graph graph) {
+        List<Vertex> streetVertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex && !(v instanceof TemporaryVertex)) {
+                streetVertices.add(v);
+            }
+        }
+        nNodes = streetVertices.size();
+        vertices = streetVertices.toArray(new Vertex[nNodes]);
+        out = new TIntArrayList[nNodes];
+        in = new TIntArrayList[nNodes];
+        for (int n = 0; n < nNodes; n++) {
+            out[n] = new TIntArrayList(4);
+            in[n] = new TIntArrayList(4);
+        }
+        contracted = new boolean[nNodes];
+        contractedNeighbors = new int[nNodes];
+        witnessDist = new double[nNodes];
+        Arrays.fill(witnessDist, Double.POSITIVE_INFINITY);
+    }
+
+    /** Add one arc per pair of adjacent nodes, for the lightest street edge between them. */
+    private void addOriginalArcs() {
+        int[] nodeByVertexIndex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(nodeByVertexIndex, -1);
+        for (int n = 0; n < nNodes; n++) {
+            nodeByVertexIndex[vertices[n].getIndex()] = n;
+        }
+        TLongIntHashMap arcByNodePair = new TLongIntHashMap(nNodes * 3, 0.5f, -1, -1);
+        for (int u = 0; u < nNodes; u++) {
+            for (Edge e : vertices[u].getOutgoing()) {
+                if (!(e instanceof StreetEdge))
+                    continue;
+                int v = nodeByVertexIndex[e.getToVertex().getIndex()];
+                if (v < 0 || v == u)
+                    continue;
+                double weight = ContractionHierarchy.staticWeight(e, options);
+                if (Double.isInfinite(weight))
+                    continue;
+                long pair = ((long) u << 32) | v;
+                int existing = arcByNodePair.get(pair);
+                if (existing < 0) {
+                    arcByNodePair.put(pair, addArc(u, v, weight, e, -1, -1));
+                } else if (weight < arcWeight.get(existing)) {
+                    arcWeight.set(existing, weight);
+                    arcEdge.set(existing, e);
+                }
+            }
+        }
+    }
+
+    private int addArc(int from, int to, double weight, Edge edge, int child1, int child2) {
+        int a = arcFrom.size();
+        arcFrom.add(from);
+        arcTo.add(to);
+        arcWeight.add(weight);
+        arcEdge.add(edge);
+        arcChildren.add(child1);
+        arcChildren.add(child2);
+        out[from].add(a);
+        in[to].add(a);
+        return a;
+    }
+
+    /** Contract all nodes, returning the rank of each. */
+    private int[] contract() {
+        int[] rank = new int[nNodes];
+        BinHeap<Integer> queue = new BinHeap<Integer>(nNodes);
+        for (int n = 0; n < nNodes; n++) {
+            queue.insert(n, priority(n));
+        }
+        int nextRank = 0;
+        while (!queue.empty()) {
+            int node = queue.extract_min();
+            // lazy update: priorities of other nodes may be stale, recompute this one before using it
+            double priority = priority(node);
+            if (!queue.empty() && priority > queue.peek_min_key()) {
+                queue.insert(node, priority);
+                continue;
+            }
+            contractNode(node, false);
+            contracted[node] = true;
+            rank[node] = nextRank++;
+            for (int i = 0; i < out[node].size(); i++) {
+                contractedNeighbors[arcTo.get(out[node].get(i))]++;
+            }
+            for (int i = 0; i < in[node].size(); i++) {
+                contractedNeighbors[arcFrom.get(in[node].get(i))]++;
+            }
+            if (nextRank % 100000 == 0) {
+                LOG.info("Contracted {} / {} vertices, {} arcs", nextRank, nNodes, arcFrom.size());
+            }
+        }
+        return rank;
+    }
+
+    private double priority(int node) {
+        int degree = 0;
+        for (int i = 0; i < out[node].size(); i++) {
+            if (!contracted[arcTo.get(out[node].get(i))])
+                degree++;
+        }
+        for (int i = 0; i < in[node].size(); i++) {
+            if (!contracted[arcFrom.get(in[node].get(i))])
+                degree++;
+        }
+        return contractNode(node, true) - degree + contractedNeighbors[node];
+    }
+
+    /**
+     * Add the shortcuts needed to remove a node from the remaining graph.
+     *
+     * @param simulate only count the shortcuts without adding them.
+     * @return the number of shortcuts.
+     */
+    private int contractNode(int node, boolean simulate) {
+        TIntArrayList nodeIn = in[node];
+        TIntArrayList nodeOut = out[node];
+        double maxOutWeight = 0;
+        for (int j = 0; j < nodeOut.size(); j++) {
+            int outArc = nodeOut.get(j);
+            if (!contracted[arcTo.get(outArc)])
+                maxOutWeight = Math.max(maxOutWeight, arcWeight.get(outArc));
+        }
+        int shortcuts = 0;
+        for (int i = 0; i < nodeIn.size(); i++) {
+            int inArc = nodeIn.get(i);
+            int from = arcFrom.get(inArc);
+            if (contracted[from] || !isLightestArc(inArc, nodeIn))
+                continue;
+            double inWeight = arcWeight.get(inArc);
+            witnessSearch(from, node, inWeight + maxOutWeight);
+            for (int j = 0; j < nodeOut.size(); j++) {
+                int outArc = nodeOut.get(j);
+                int to = arcTo.get(outArc);
+                if (contracted[to] || to == from || !isLightestArc(outArc, nodeOut))
+                    continue;
+                double weight = inWeight + arcWeight.get(outArc);
+                if (witnessDist[to] <= weight)
+                    continue;
+                shortcuts++;
+                if (!simulate) {
+                    addArc(from, to, weight, null, inArc, outArc);
+                }
+            }
+            resetWitnessSearch();
+        }
+        return shortcuts;
+    }
+
+    /** @return false if another arc in the list joins the same two nodes with a lower weight. */
+    private boolean isLightestArc(int arc, TIntArrayList arcs) {
+        int from = arcFrom.get(arc);
+        int to = arcTo.get(arc);
+        double weight = arcWeight.get(arc);
+        for (int i = 0; i < arcs.size(); i++) {
+            int other = arcs.get(i);
+            if (other != arc && arcFrom.get(other) == from && arcTo.get(other) == to) {
+                double otherWeight = arcWeight.get(other);
+                if (otherWeight < weight || (otherWeight == weight && other < arc))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dijkstra search from a node over the remaining graph, avoiding the node being contracted and
+     * stopping beyond the given weight or after settling a bounded number of nodes.
+     */
+    private void witnessSearch(int source, int avoid, double maxWeight) {
+        witnessDist[source] = 0;
+        witnessTouched.add(source);
+        witnessQueue.insert(source, 0);
+        int settled = 0;
+        while (!witnessQueue.empty() && settled < WITNESS_SETTLED_LIMIT) {
+            double d = witnessQueue.peek_min_key();
+            if (d > maxWeight)
+                break;
+            int u = witnessQueue.extract_min();
+            if (d > witnessDist[u])
+                continue;
+            settled++;
+            TIntArrayList uOut = out[u];
+            for (int i = 0; i < uOut.size(); i++) {
+                int a = uOut.get(i);
+                int v = arcTo.get(a);
+                if (v == avoid || contracted[v])
+                    continue;
+                double nd = d + arcWeight.get(a);
+                if (nd < witnessDist[v]) {
+                    if (Double.isInfinite(witnessDist[v]))
+                        witnessTouched.add(v);
+                    witnessDist[v] = nd;
+                    witnessQueue.insert(v, nd);
+                }
+            }
+        }
+    }
+
+    private void resetWitnessSearch() {
+        for (int i = 0; i < witnessTouched.size(); i++) {
+            witnessDist[witnessTouched.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        witnessTouched.resetQuick();
+        witnessQueue.reset();
+    }
+
+}
@@ -0,0 +1,49 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+/**
+ * The contraction hierarchies built for a graph, one per traverse mode and set of cost parameters.
+ * Registered as a graph service and saved along with the graph.
+ */
+public class ContractionHierarchySet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<ContractionHierarchy> hierarchies = new ArrayList<ContractionHierarchy>();
+
+    public void add(ContractionHierarchy hierarchy) {
+        hierarchies.add(hierarchy);
+    }
+
+    public List<ContractionHierarchy> getHierarchies() {
+        return hierarchies;
+    }
+
+    /** @return a hierarchy usable for the given request, or null if there is none. */
+    public ContractionHierarchy getHierarchy(RoutingRequest options) {
+        for (ContractionHierarchy hierarchy : hierarchies) {
+            if (hierarchy.isCompatible(options))
+                return hierarchy;
+        }
+        return null;
+    }
+
+}
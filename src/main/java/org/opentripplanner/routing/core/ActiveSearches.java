@@ -0,0 +1,74 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The cancellation flags of the routing requests a server is currently working on, used to shed
+ * load: when more than a given number of requests are running at once, the oldest ones are
+ * cancelled. A cancelled search stops within a few hundred iterations and returns what it has found
+ * so far, so the oldest client gets a partial answer early instead of every client getting a late
+ * answer.
+ *
+ * A request registers its flag when it starts searching and must unregister it when it is done,
+ * typically in a finally block.
+ */
+public class ActiveSearches {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ActiveSearches.class);
+
+    private final int maxActive;
+
+    /** Running requests, oldest first. */
+    private final Deque<SearchCancellation> active = new ArrayDeque<SearchCancellation>();
+
+    /** @param maxActive the number of requests allowed to run at once, or zero for no limit. */
+    public ActiveSearches(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    /** Record that the request using this flag is running, cancelling the oldest ones if needed. */
+    public synchronized void register(SearchCancellation cancellation) {
+        if (maxActive > 0) {
+            while (active.size() >= maxActive) {
+                LOG.warn("{} routing requests running, cancelling the oldest one.", active.size() + 1);
+                active.pollFirst().cancel();
+            }
+        }
+        active.addLast(cancellation);
+    }
+
+    /** Record that the request using this flag is done. */
+    public synchronized void unregister(SearchCancellation cancellation) {
+        active.remove(cancellation);
+    }
+
+    /** Cancel all running requests, for example when the server is shutting down. */
+    public synchronized void cancelAll() {
+        for (SearchCancellation cancellation : active) {
+            cancellation.cancel();
+        }
+        active.clear();
+    }
+
+    public synchronized int size() {
+        return active.size();
+    }
+
+}
@@ -38,6 +38,10 @@ public class ConstantIntersectionTraversalCostModel extends AbstractIntersection
         this(0.0);
     }
     
+    public double getCost() {
+        return cost;
+    }
+
     @Override
     public double computeTraversalCost(IntersectionVertex v, StreetEdge from, StreetEdge to, TraverseMode mode,
             RoutingRequest options, float fromSpeed, float toSpeed) {
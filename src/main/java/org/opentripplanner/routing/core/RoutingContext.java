@@ -45,6 +45,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -104,6 +105,9 @@ public class RoutingContext implements Cloneable {
      */
     public ArrayList<ServiceDay> serviceDays;
 
+    /** The service codes running on any of the serviceDays, to rule out whole patterns at once. */
+    public BitSet servicesRunning;
+
     /**
      * The search will be aborted if it is still running after this time (in milliseconds since the epoch). A negative or zero value implies no limit.
      * This provides an absolute timeout, whereas the maxComputationTime is relative to the beginning of an individual search. While the two might
@@ -216,8 +220,12 @@ public class RoutingContext implements Cloneable {
 
             if (timetableSnapshotSource == null) {
                 timetableSnapshot = null;
+            } else if (routingRequest.timetableSnapshot != null) {
+                // a previous search for the same request pinned a snapshot, keep using it
+                timetableSnapshot = routingRequest.timetableSnapshot;
             } else {
                 timetableSnapshot = timetableSnapshotSource.getTimetableSnapshot();
+                routingRequest.timetableSnapshot = timetableSnapshot;
             }
         }
         calendarService = graph.getCalendarService();
@@ -337,6 +345,7 @@ public class RoutingContext implements Cloneable {
 
         final ServiceDate serviceDate = new ServiceDate(c);
         this.serviceDays = new ArrayList<ServiceDay>(3);
+        this.servicesRunning = new BitSet();
         if (calendarService == null && graph.getCalendarService() != null
                 && (opt.modes == null || opt.modes.contains(TraverseMode.TRANSIT))) {
             LOG.warn("RoutingContext has no CalendarService. Transit will never be boarded.");
@@ -350,6 +359,14 @@ public class RoutingContext implements Cloneable {
             addIfNotExists(this.serviceDays, new ServiceDay(graph, serviceDate.next(),
                     calendarService, agency));
         }
+        for (ServiceDay sd : serviceDays) {
+            servicesRunning.or(sd.serviceIdsRunning);
+        }
+    }
+
+    /** Do any of the services for this set of service codes run on any of the serviceDays? */
+    public boolean anyServiceRunning(BitSet serviceCodes) {
+        return servicesRunning.intersects(serviceCodes);
     }
 
     private static <T> void addIfNotExists(ArrayList<T> list, T item) {
@@ -33,6 +33,7 @@ import org.opentripplanner.api.parameter.QualifiedModeSetSequence;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.NamedPlace;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -375,6 +376,19 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public RoutingContext rctx;
 
+    /**
+     * The realtime snapshot taken by the first routing context of this request. The routing
+     * contexts of later sub-searches (clones, legs between intermediate places) reuse it, so the
+     * whole request sees a single consistent set of timetables. Released on cleanup.
+     */
+    public transient TimetableResolver timetableSnapshot;
+
+    /**
+     * The street preferences of this request as of the start of the search, see compileStreetCostModel.
+     * Clones made during the search share it, as they are part of the same search.
+     */
+    private transient StreetCostModel streetCostModel;
+
     /** A transit stop that this trip must start from */
     public AgencyAndId startingTransitStopId;
     
@@ -400,6 +414,13 @@ public class RoutingRequest implements Cloneable, Serializable {
     public boolean parkAndRide  = false;
     public boolean kissAndRide  = false;
 
+    /**
+     * Allows stopping all the searches for this request from another thread. It is shared by all
+     * clones of this request, so it must be replaced with a fresh instance when a request is used as
+     * a template for several independent requests. Null means the search can only time out.
+     */
+    public SearchCancellation cancellation = null;
+
     /* Whether we are in "long-distance mode". This is currently a server-wide setting, but it could be made per-request. */
     public boolean longDistance = false;
 
@@ -995,6 +1016,7 @@ public class RoutingRequest implements Cloneable, Serializable {
             rctx.destroy();
             LOG.debug("routing context destroyed");
         }
+        timetableSnapshot = null;
     }
 
     /**
@@ -1017,6 +1039,38 @@ public class RoutingRequest implements Cloneable, Serializable {
         throw new IllegalArgumentException("getSpeed(): Invalid mode " + mode);
     }
 
+    /**
+     * Freeze the street preferences of this request (and of its bike walking options) for a search.
+     * Fields changed afterwards are not seen by street edges until this is called again.
+     */
+    public void compileStreetCostModel() {
+        streetCostModel = new StreetCostModel(this);
+        if (bikeWalkingOptions != null && bikeWalkingOptions != this)
+            bikeWalkingOptions.streetCostModel = new StreetCostModel(bikeWalkingOptions);
+    }
+
+    /** @return true if a search has compiled the street preferences of this request and not released them. */
+    public boolean isStreetCostModelCompiled() {
+        return streetCostModel != null;
+    }
+
+    /** Drop the model compiled for a search, so that later traversals see the current fields. */
+    public void releaseStreetCostModel() {
+        streetCostModel = null;
+        if (bikeWalkingOptions != null)
+            bikeWalkingOptions.streetCostModel = null;
+    }
+
+    /**
+     * @return the street preferences compiled for the current search, or a model of the current
+     *         field values when no search has compiled one. The latter is built on every call, so
+     *         searches should compile the model before traversing edges.
+     */
+    public StreetCostModel getStreetCostModel() {
+        StreetCostModel model = streetCostModel;
+        return model != null ? model : new StreetCostModel(this);
+    }
+
     /** @return The highest speed for all possible road-modes. */
     public double getStreetSpeedUpperBound() {
         // Assume carSpeed > bikeSpeed > walkSpeed
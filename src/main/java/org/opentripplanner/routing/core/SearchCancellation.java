@@ -0,0 +1,38 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+/**
+ * A flag allowing any thread to ask the searches for one routing request to stop, for example
+ * because the client that made the request has gone away or the server is shedding load.
+ *
+ * One instance is shared by all the searches performed for a request: RoutingRequest.clone() is
+ * shallow, so every sub-search (retries with banned trips, reversed optimization searches...) sees
+ * the same flag. Searches poll the flag cooperatively, every few hundred iterations, and stop as
+ * they do on a timeout, returning whatever they have found so far.
+ */
+public class SearchCancellation {
+
+    private volatile boolean cancelled = false;
+
+    /** Ask all searches sharing this flag to stop as soon as possible. Safe to call from any thread. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+}
@@ -113,15 +113,14 @@ public class State implements Cloneable {
         // this should be harmless since reversed clones are only used when routing has finished
         this.stateData.opt = options;
         this.stateData.startTime = timeSeconds;
-        this.stateData.usingRentedBike = false;
         /* If the itinerary is to begin with a car that is left for transit, the initial state of arriveBy searches is
            with the car already "parked" and in WALK mode. Otherwise, we are in CAR mode and "unparked". */
         if (options.parkAndRide || options.kissAndRide) {
             this.stateData.carParked = options.arriveBy;
-            this.stateData.nonTransitMode = this.stateData.carParked ? TraverseMode.WALK : TraverseMode.CAR;
+            this.stateData.nonTransitMode = options.arriveBy ? TraverseMode.WALK : TraverseMode.CAR;
         } else if (options.bikeParkAndRide) {
             this.stateData.bikeParked = options.arriveBy;
-            this.stateData.nonTransitMode = this.stateData.bikeParked ? TraverseMode.WALK
+            this.stateData.nonTransitMode = options.arriveBy ? TraverseMode.WALK
                     : TraverseMode.BICYCLE;
         }
         this.walkDistance = 0;
@@ -131,7 +130,6 @@ public class State implements Cloneable {
             this.pathParserStates = new int[options.rctx.pathParsers.length];
             Arrays.fill(this.pathParserStates, AutomatonState.START);
         }
-        stateData.routeSequence = new AgencyAndId[0];
     }
 
     /**
@@ -145,6 +143,35 @@ public class State implements Cloneable {
         return new StateEditor(this, e);
     }
 
+    /**
+     * Make the state resulting from the traversal of a street edge without going through a
+     * StateEditor, for the common case where only the time, weight, walk distance and back mode
+     * change. This state must be at the start of the edge in the direction of the search, and
+     * the caller is responsible for the checks a StateEditor would make: time moving in the
+     * direction of the search, and weight and walk distance not decreasing.
+     * 
+     * @return the new state, or null if a path parser rejects it
+     */
+    public State makeStreetChild(Edge edge, TraverseMode backMode, boolean backWalkingBike,
+            long timeInMillis, double weight, double walkDistance) {
+        boolean arriveBy = stateData.opt.arriveBy;
+        State child = clone();
+        child.backState = this;
+        child.backEdge = edge;
+        child.next = null;
+        child.vertex = arriveBy ? edge.getFromVertex() : edge.getToVertex();
+        if (backMode != stateData.backMode
+                || backWalkingBike != stateData.backWalkingBike) {
+            child.stateData = stateData.clone();
+            child.stateData.backMode = backMode;
+            child.stateData.backWalkingBike = backWalkingBike;
+        }
+        child.time = timeInMillis;
+        child.weight = weight;
+        child.walkDistance = walkDistance;
+        return StateEditor.parsePathOf(child) ? child : null;
+    }
+
     protected State clone() {
         State ret;
         try {
@@ -167,10 +194,7 @@ public class State implements Cloneable {
      * @return - The extension value for the given key, or null if not present
      */
     public Object getExtension(Object key) {
-        if (stateData.extensions == null) {
-            return null;
-        }
-        return stateData.extensions.get(key);
+        return stateData.getExtension(key);
     }
 
     public String toString() {
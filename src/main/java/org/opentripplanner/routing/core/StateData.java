@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.core;
 
-import java.util.HashMap;
 import java.util.Set;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -26,9 +25,16 @@ import org.opentripplanner.routing.trippattern.TripTimes;
  * StateData contains the components of search state that are unlikely to be changed as often as
  * time or weight. This avoids frequent duplication, which should have a positive impact on both
  * time and space use during searches.
+ *
+ * A StateData is shared by all the states reached without changing it, and is copied by the
+ * StateEditor before the first change. The rarely used extensions are an immutable list, so that
+ * copies share them instead of cloning a map.
  */
 public class StateData implements Cloneable {
 
+    /** The route sequence of states that have not boarded any vehicle yet. */
+    static final AgencyAndId[] EMPTY_ROUTE_SEQUENCE = new AgencyAndId[0];
+
     // the time at which the search started
     protected long startTime;
 
@@ -54,14 +60,15 @@ public class StateData implements Cloneable {
     protected boolean carParked;
 
     protected boolean bikeParked;
-    
+
     protected Stop previousStop;
 
     protected long lastAlightedTime;
 
-    protected AgencyAndId[] routeSequence;
+    protected AgencyAndId[] routeSequence = EMPTY_ROUTE_SEQUENCE;
 
-    protected HashMap<Object, Object> extensions;
+    /** The most recently set extension, linked to those set before it. Null if there are none. */
+    protected Extension extensions;
 
     protected RoutingRequest opt;
 
@@ -108,6 +115,39 @@ public class StateData implements Cloneable {
             nonTransitMode = null;
     }
 
+    /** @return the value of the extension with the given key, or null if it is not set. */
+    Object getExtension(Object key) {
+        for (Extension e = extensions; e != null; e = e.next) {
+            if (e.key.equals(key))
+                return e.value;
+        }
+        return null;
+    }
+
+    /**
+     * Set an extension by adding it in front of the existing ones, which may be shared with other
+     * StateData and are left untouched.
+     */
+    void setExtension(Object key, Object value) {
+        extensions = new Extension(key, value, extensions);
+    }
+
+    /** An immutable extension value, shadowing any older value with the same key. */
+    static final class Extension {
+
+        final Object key;
+
+        final Object value;
+
+        final Extension next;
+
+        Extension(Object key, Object value, Extension next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
     protected StateData clone() {
         try {
             return (StateData) super.clone();
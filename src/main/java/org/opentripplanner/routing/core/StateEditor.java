@@ -14,7 +14,6 @@
 package org.opentripplanner.routing.core;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Set;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -43,8 +42,6 @@ public class StateEditor {
 
     protected State child;
 
-    private boolean extensionsModified = false;
-
     private boolean spawned = false;
 
     private boolean defectiveTraversal = false;
@@ -163,23 +160,12 @@ public class StateEditor {
     /* PUBLIC METHODS TO MODIFY A STATE BEFORE IT IS USED */
 
     /**
-     * Put a new value into the State extensions map. This will always clone the extensions map
-     * before it is modified the first time, making sure that other references to the map in earlier
-     * States are unaffected.
+     * Put a new value into the State extensions. The extensions are immutable, so other references
+     * to them in earlier States are unaffected.
      */
-    @SuppressWarnings("unchecked")
     public void setExtension(Object key, Object value) {
         cloneStateDataAsNeeded();
-        if (!extensionsModified) {
-            HashMap<Object, Object> newExtensions;
-            if (child.stateData.extensions == null)
-                newExtensions = new HashMap<Object, Object>(4);
-            else
-                newExtensions = (HashMap<Object, Object>) child.stateData.extensions.clone();
-            child.stateData.extensions = newExtensions;
-            extensionsModified = true;
-        }
-        child.stateData.extensions.put(key, value);
+        child.stateData.setExtension(key, value);
     }
 
     /**
@@ -248,22 +234,36 @@ public class StateEditor {
     public void incrementNumBoardings() {
         cloneStateDataAsNeeded();
         child.stateData.numBoardings++;
-        setEverBoarded(true);
+        child.stateData.everBoarded = true;
     }
 
     /* Basic Setters */
 
+    /*
+     * Setters leave the StateData alone when the value does not change, so states that do not
+     * change it keep sharing it with their parent.
+     */
+
     public void setTripTimes(TripTimes tripTimes) {
+        if (tripTimes == child.stateData.tripTimes)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.tripTimes = tripTimes;
     }
 
     public void setTripId(AgencyAndId tripId) {
+        if (tripId == child.stateData.tripId)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.tripId = tripId;
     }
 
     public void setPreviousTrip(Trip previousTrip) {
+        if (previousTrip == child.stateData.previousTrip)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.previousTrip = previousTrip;
     }
@@ -343,6 +343,9 @@ public class StateEditor {
     }
 
     public void setEverBoarded(boolean everBoarded) {
+        if (child.stateData.everBoarded)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.everBoarded = true;
     }
@@ -383,6 +386,9 @@ public class StateEditor {
     }
 
     public void setPreviousStop(Stop previousStop) {
+        if (previousStop == child.stateData.previousStop)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.previousStop = previousStop;
     }
@@ -417,9 +423,9 @@ public class StateEditor {
         child.stateData.previousStop = state.stateData.previousStop;
         child.stateData.zone = state.stateData.zone;
         child.stateData.extensions = state.stateData.extensions;
-        child.stateData.usingRentedBike = state.stateData.usingRentedBike;
-        child.stateData.carParked = state.stateData.carParked;
-        child.stateData.bikeParked = state.stateData.bikeParked;
+        child.stateData.usingRentedBike = state.isBikeRenting();
+        child.stateData.carParked = state.isCarParked();
+        child.stateData.bikeParked = state.isBikeParked();
     }
 
     /* PUBLIC GETTER METHODS */
@@ -499,6 +505,11 @@ public class StateEditor {
 
     /** return true if all PathParsers advanced to a state other than REJECT */
     public boolean parsePath(State state) {
+        return parsePathOf(state);
+    }
+
+    /** @see #parsePath(State) */
+    static boolean parsePathOf(State state) {
         if (state.stateData.opt.rctx == null)
             return true; // a lot of tests don't set a routing context
         PathParser[] parsers = state.stateData.opt.rctx.pathParsers;
@@ -534,6 +545,9 @@ public class StateEditor {
     }
 
     public void setLastPattern(TripPattern pattern) {
+        if (pattern == child.stateData.lastPattern)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.lastPattern = pattern;
     }
@@ -543,6 +557,9 @@ public class StateEditor {
     }
 
     public void setServiceDay(ServiceDay day) {
+        if (day == child.stateData.serviceDay)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.serviceDay = day;
     }
@@ -0,0 +1,99 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+/**
+ * The street traversal preferences of a {@link RoutingRequest}, copied into final fields when a
+ * search starts. Street edges read these on every traversal; keeping them in a small immutable
+ * object puts them on a couple of cache lines instead of spread over the request, and lets the
+ * constants derived from them be computed once per search rather than once per edge.
+ *
+ * A model only reflects the request as it was when compiled, see
+ * {@link RoutingRequest#compileStreetCostModel()}.
+ */
+public final class StreetCostModel {
+
+    /** The speed in m/s (4.8 km/h) the walk costs for slopes are computed for. */
+    private static final double ELEVATION_UTILS_SPEED = 4.0 / 3.0;
+
+    public final double walkSpeed;
+
+    public final double bikeSpeed;
+
+    public final double carSpeed;
+
+    public final double walkReluctance;
+
+    public final double stairsReluctance;
+
+    public final double turnReluctance;
+
+    public final boolean wheelchairAccessible;
+
+    public final double maxSlope;
+
+    public final boolean walkingBike;
+
+    public final OptimizeType optimize;
+
+    public final double triangleTimeFactor;
+
+    public final double triangleSlopeFactor;
+
+    public final double triangleSafetyFactor;
+
+    public final int bikeSwitchTime;
+
+    public final int bikeSwitchCost;
+
+    /** Converts the slope walk costs of an edge into seconds at the requested walk speed. */
+    public final double walkCostFactor;
+
+    public StreetCostModel(RoutingRequest options) {
+        walkSpeed = options.walkSpeed;
+        bikeSpeed = options.bikeSpeed;
+        carSpeed = options.carSpeed;
+        walkReluctance = options.walkReluctance;
+        stairsReluctance = options.stairsReluctance;
+        turnReluctance = options.turnReluctance;
+        wheelchairAccessible = options.wheelchairAccessible;
+        maxSlope = options.maxSlope;
+        walkingBike = options.walkingBike;
+        optimize = options.optimize;
+        triangleTimeFactor = options.triangleTimeFactor;
+        triangleSlopeFactor = options.triangleSlopeFactor;
+        triangleSafetyFactor = options.triangleSafetyFactor;
+        bikeSwitchTime = options.bikeSwitchTime;
+        bikeSwitchCost = options.bikeSwitchCost;
+        walkCostFactor = ELEVATION_UTILS_SPEED / walkSpeed;
+    }
+
+    /** @return The road speed for a specific traverse mode, as {@link RoutingRequest#getSpeed}. */
+    public double getSpeed(TraverseMode mode) {
+        switch (mode) {
+        case WALK:
+            return walkSpeed;
+        case BICYCLE:
+            return bikeSpeed;
+        case CAR:
+            return carSpeed;
+        case CUSTOM_MOTOR_VEHICLE:
+            return carSpeed;
+        default:
+            break;
+        }
+        throw new IllegalArgumentException("getSpeed(): Invalid mode " + mode);
+    }
+
+}
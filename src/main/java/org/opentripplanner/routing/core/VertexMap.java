@@ -1,7 +1,7 @@
 /* This program is free software: you can redistribute it and/or
  modify it under the terms of the GNU Lesser General Public License
  as published by the Free Software Foundation, either version 3 of
- the License, or (props, at your option) any later version.
+ the License, or (at your option) any later version.
 
  This program is distributed in the hope that it will be useful,
  but WITHOUT ANY WARRANTY; without even the implied warranty of
@@ -13,33 +13,122 @@
 
 package org.opentripplanner.routing.core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.opentripplanner.routing.graph.Vertex;
 
+/**
+ * A map from vertices to values backed by arrays indexed on Vertex.getIndex(). Lookups are a
+ * bounds check and two array loads, with no hashing and no per-entry allocation.
+ * 
+ * The index space is cut into pages of PAGE_SIZE vertices, and a page is only allocated when one
+ * of its vertices is first given a value. A search that touches a few thousand vertices of a large
+ * graph therefore allocates a few pages plus a directory of one reference per page, rather than an
+ * array the size of the graph. Temporary vertices created after the map keep getting higher
+ * indexes, so the directory grows as needed.
+ * 
+ * The indexes of all vertices that have been given a value are recorded, so iterating over the
+ * values and clearing the map cost time proportional to the number of vertices touched rather
+ * than to the size of the graph. This allows reusing one map across many searches.
+ * 
+ * Null values are not supported: setting a null value is equivalent to never having set one.
+ */
 @SuppressWarnings("unchecked")
 public class VertexMap<T> {
-	
-	private T[] map;
-	
-	public VertexMap(int initialCapacity) {
-		map = (T[]) new Object[initialCapacity];
-	}
-
-	public VertexMap() {
-		this(Vertex.getMaxIndex());
-	}
-	
-	public void set(Vertex v, T elem) {
-		int index = v.getIndex();
-		while (index > map.length)
-			map = Arrays.copyOf(map, (int) (map.length * 1.5));
-		// T old = map[v.index];
-		map[v.getIndex()] = elem;
-	}
-	          
-	public T get(Vertex v) {
-		return map[v.getIndex()];
-	}
-	
+
+    private static final int PAGE_BITS = 10;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /** Pages of values by index >>> PAGE_BITS, null until one of their vertices is set. */
+    private Object[][] pages;
+
+    /** Indexes of the vertices that have been given a value, in the order they were first set. */
+    private int[] touched;
+
+    private int nTouched = 0;
+
+    /**
+     * @param maxIndex the expected highest vertex index, which only sizes the page directory;
+     *            pages are allocated as vertices are set.
+     */
+    public VertexMap(int maxIndex) {
+        pages = new Object[(Math.max(maxIndex, 1) + PAGE_MASK) >>> PAGE_BITS][];
+        touched = new int[MIN_CAPACITY];
+    }
+
+    public VertexMap() {
+        this(Vertex.getMaxIndex());
+    }
+
+    public void set(Vertex v, T elem) {
+        int index = v.getIndex();
+        int p = index >>> PAGE_BITS;
+        if (p >= pages.length) {
+            if (elem == null)
+                return;
+            // Make room for temporary vertices created since this map was sized.
+            pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+        }
+        Object[] page = pages[p];
+        if (page == null) {
+            if (elem == null)
+                return;
+            page = pages[p] = new Object[PAGE_SIZE];
+        }
+        int i = index & PAGE_MASK;
+        if (page[i] == null) {
+            if (elem == null)
+                return;
+            if (nTouched == touched.length)
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            touched[nTouched++] = index;
+        }
+        page[i] = elem;
+    }
+
+    public T get(Vertex v) {
+        int index = v.getIndex();
+        int p = index >>> PAGE_BITS;
+        if (p >= pages.length)
+            return null;
+        Object[] page = pages[p];
+        return page == null ? null : (T) page[index & PAGE_MASK];
+    }
+
+    /** @return the number of vertices that have ever been given a value since the last clear. */
+    public int size() {
+        return nTouched;
+    }
+
+    /** @return a new list of all non-null values in this map. */
+    public List<T> values() {
+        List<T> values = new ArrayList<T>(nTouched);
+        for (int i = 0; i < nTouched; i++) {
+            int index = touched[i];
+            Object value = pages[index >>> PAGE_BITS][index & PAGE_MASK];
+            if (value != null)
+                values.add((T) value);
+        }
+        return values;
+    }
+
+    /**
+     * Remove all values, in time proportional to the number of vertices touched. Allocated pages
+     * are kept for reuse.
+     */
+    public void clear() {
+        for (int i = 0; i < nTouched; i++) {
+            int index = touched[i];
+            pages[index >>> PAGE_BITS][index & PAGE_MASK] = null;
+        }
+        nTouched = 0;
+    }
+
 }
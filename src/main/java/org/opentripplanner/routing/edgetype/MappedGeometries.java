@@ -0,0 +1,79 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.opentripplanner.util.MappedFileInputStream;
+
+/**
+ * The geometry table of a street edge table, left in a read-only mapping of the graph file instead of being read onto
+ * the heap. Geometries are the bulk of the street section, and few of them are ever needed by a router (only to
+ * draw itineraries), so each one is copied out of the mapping when it is asked for. The pages of the mapping are
+ * shared with the OS page cache and with any other router mapping the same file.
+ *
+ * The table is laid out as written by {@link StreetEdge#writeColumns}: each geometry is its length followed by its
+ * ints, big-endian.
+ */
+final class MappedGeometries {
+
+    private final ByteBuffer buffer;
+
+    /** Offset in the buffer of each geometry. */
+    private final int[] offsets;
+
+    private MappedGeometries(ByteBuffer buffer, int[] offsets) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Map the table of n geometries, of the given size in bytes, starting at the current position of the file, and
+     * skip over it in the input.
+     * @param in the input the table is read from, which must not buffer the file
+     */
+    static MappedGeometries map(DataInput in, MappedFileInputStream file, int n, int size)
+            throws IOException {
+        ByteBuffer buffer = file.map(file.position(), size);
+        int[] offsets = new int[n];
+        int offset = 0;
+        for (int g = 0; g < n; g++) {
+            offsets[g] = offset;
+            offset += 4 + 4 * buffer.getInt(offset);
+        }
+        if (offset != size || in.skipBytes(size) != size) {
+            throw new IOException("Truncated or corrupt geometry table in graph file.");
+        }
+        return new MappedGeometries(buffer, offsets);
+    }
+
+    /** @return the number of geometries in the table. */
+    int size() {
+        return offsets.length;
+    }
+
+    /** @return a copy of the geometry in the given position of the table. */
+    int[] get(int position) {
+        // absolute reads leave the buffer position alone, so the buffer can be shared between threads
+        int offset = offsets[position];
+        int[] geometry = new int[buffer.getInt(offset)];
+        for (int i = 0; i < geometry.length; i++) {
+            geometry[i] = buffer.getInt(offset + 4 + 4 * i);
+        }
+        return geometry;
+    }
+
+}
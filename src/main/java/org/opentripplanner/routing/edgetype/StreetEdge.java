@@ -13,12 +13,17 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.TurnRestrictionType;
@@ -29,6 +34,7 @@ import org.opentripplanner.routing.alertpatch.TranslatedString;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.StreetCostModel;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Edge;
@@ -37,6 +43,7 @@ import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.util.BitSetUtils;
+import org.opentripplanner.util.MappedFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,6 +77,9 @@ public class StreetEdge extends Edge implements Cloneable {
     // TODO(flamholz): do something smarter with the car speed here.
     public static final float DEFAULT_CAR_SPEED = 11.2f;
 
+    /* Whether plain traversals skip the StateEditor, see doTraverse. Only turned off by tests comparing both paths. */
+    static boolean fastTraversal = true;
+
     /** If you have more than 8 flags, increase flags to short or int */
     private static final int BACK_FLAG_INDEX = 0;
     private static final int ROUNDABOUT_FLAG_INDEX = 1;
@@ -97,6 +107,12 @@ public class StreetEdge extends Edge implements Cloneable {
     protected float bicycleSafetyFactor;
 
     private int[] compactGeometry;
+
+    /* For edges read from a mapped graph file, the table their geometry stays in until it is needed, see
+       readColumns. compactGeometry is null for them. */
+    private transient MappedGeometries mappedGeometries;
+
+    private transient int mappedGeometryPosition;
     
     private String name;
 
@@ -119,6 +135,11 @@ public class StreetEdge extends Edge implements Cloneable {
     /** The angle at the start of the edge geometry. Internal representation like that of inAngle. */
     private byte outAngle;
 
+    /** For edges read from the street section of a graph file, whose fields are then read in by readColumns. */
+    StreetEdge(StreetVertex v1, StreetVertex v2) {
+        super(v1, v2);
+    }
+
     public StreetEdge(StreetVertex v1, StreetVertex v2, LineString geometry,
                       String name, double length,
                       StreetTraversalPermission permission, boolean back) {
@@ -176,12 +197,12 @@ public class StreetEdge extends Edge implements Cloneable {
         return getPermission().allows(modes);
     }
     
-    private boolean canTraverse(RoutingRequest options, TraverseMode mode) {
-        if (options.wheelchairAccessible) {
+    private boolean canTraverse(StreetCostModel costModel, TraverseMode mode) {
+        if (costModel.wheelchairAccessible) {
             if (!isWheelchairAccessible()) {
                 return false;
             }
-            if (getMaxSlope() > options.maxSlope) {
+            if (getMaxSlope() > costModel.maxSlope) {
                 return false;
             }
         }
@@ -209,43 +230,43 @@ public class StreetEdge extends Edge implements Cloneable {
     public State traverse(State s0) {
         final RoutingRequest options = s0.getOptions();
         final TraverseMode currMode = s0.getNonTransitMode();
-        StateEditor editor = doTraverse(s0, options, s0.getNonTransitMode());
-        State state = (editor == null) ? null : editor.makeState();
+        State state = doTraverse(s0, options, currMode, null);
         /* Kiss and ride support. Mode transitions occur without the explicit loop edges used in park-and-ride. */
         if (options.kissAndRide) {
             if (options.arriveBy) {
                 // Branch search to "unparked" CAR mode ASAP after transit has been used.
                 // Final WALK check prevents infinite recursion.
                 if (s0.isCarParked() && s0.isEverBoarded() && currMode == TraverseMode.WALK) {
-                    editor = doTraverse(s0, options, TraverseMode.CAR);
-                    if (editor != null) {
-                        editor.setCarParked(false); // Also has the effect of switching to CAR
-                        State forkState = editor.makeState();
-                        if (forkState != null) {
-                            forkState.addToExistingResultChain(state);
-                            return forkState; // return both parked and unparked states
-                        }
+                    // Also has the effect of switching to CAR
+                    State forkState = doTraverse(s0, options, TraverseMode.CAR, Boolean.FALSE);
+                    if (forkState != null) {
+                        forkState.addToExistingResultChain(state);
+                        return forkState; // return both parked and unparked states
                     }
                 }
             } else { /* departAfter */
                 // Irrevocable transition from driving to walking. "Parking" means being dropped off in this case.
                 // Final CAR check needed to prevent infinite recursion.
                 if ( ! s0.isCarParked() && ! getPermission().allows(TraverseMode.CAR) && currMode == TraverseMode.CAR) {
-                    editor = doTraverse(s0, options, TraverseMode.WALK);
-                    if (editor != null) {
-                        editor.setCarParked(true); // has the effect of switching to WALK and preventing further car use
-                        return editor.makeState(); // return only the "parked" walking state
+                    // has the effect of switching to WALK and preventing further car use
+                    State parkedState = doTraverse(s0, options, TraverseMode.WALK, Boolean.TRUE);
+                    if (parkedState != null) {
+                        return parkedState; // return only the "parked" walking state
                     }
-
                 }
             }
         }
         return state;
     }
 
-    /** return a StateEditor rather than a State so that we can make parking/mode switch modifications for kiss-and-ride. */
-    private StateEditor doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode) {
-        boolean walkingBike = options.walkingBike;
+    /**
+     * @param carParked if not null, park (true) or unpark (false) the car in the new state, which
+     *        also switches modes. Used for kiss-and-ride.
+     */
+    private State doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode,
+            Boolean carParked) {
+        final StreetCostModel costModel = options.getStreetCostModel();
+        boolean walkingBike = costModel.walkingBike;
         boolean backWalkingBike = s0.isBackWalkingBike();
         TraverseMode backMode = s0.getBackMode();
         Edge backEdge = s0.getBackEdge();
@@ -266,20 +287,20 @@ public class StreetEdge extends Edge implements Cloneable {
         walkingBike &= TraverseMode.WALK.equals(traverseMode);
 
         /* Check whether this street allows the current mode. If not and we are biking, attempt to walk the bike. */
-        if (!canTraverse(options, traverseMode)) {
+        if (!canTraverse(costModel, traverseMode)) {
             if (traverseMode == TraverseMode.BICYCLE) {
-                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK);
+                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK, carParked);
             }
             return null;
         }
 
         // Automobiles have variable speeds depending on the edge type
-        double speed = calculateSpeed(options, traverseMode);
+        double speed = calculateSpeed(costModel, traverseMode);
         
         double time = getDistance() / speed;
         double weight;
         // TODO(flamholz): factor out this bike, wheelchair and walking specific logic to somewhere central.
-        if (options.wheelchairAccessible) {
+        if (costModel.wheelchairAccessible) {
             weight = getSlopeSpeedEffectiveLength() / speed;
             //Slightly prefer edges that do not allow cars, in order to prefer sidewalks to streets.
             if (this.getStreetClass() != StreetEdge.CLASS_OTHERPATH ){
@@ -287,7 +308,7 @@ public class StreetEdge extends Edge implements Cloneable {
             }
         } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
             time = getSlopeSpeedEffectiveLength() / speed;
-            switch (options.optimize) {
+            switch (costModel.optimize) {
             case SAFE:
                 weight = bicycleSafetyFactor * getDistance() / speed;
                 break;
@@ -310,9 +331,9 @@ public class StreetEdge extends Edge implements Cloneable {
                 double safety = bicycleSafetyFactor * getDistance();
                 // TODO This computation is not coherent with the one for FLAT
                 double slope = getSlopeWorkCostEffectiveLength();
-                weight = quick * options.triangleTimeFactor + slope
-                        * options.triangleSlopeFactor + safety
-                        * options.triangleSafetyFactor;
+                weight = quick * costModel.triangleTimeFactor + slope
+                        * costModel.triangleSlopeFactor + safety
+                        * costModel.triangleSafetyFactor;
                 weight /= speed;
                 break;
             default:
@@ -330,8 +351,7 @@ public class StreetEdge extends Edge implements Cloneable {
                 double costs = ElevationUtils.getWalkCostsForSlope(getDistance(), getMaxSlope());
                 // as the cost walkspeed is assumed to be for 4.8km/h (= 1.333 m/sec) we need to adjust
                 // for the walkspeed set by the user
-                double elevationUtilsSpeed = 4.0 / 3.0;
-                weight = costs * (elevationUtilsSpeed / speed);
+                weight = costs * costModel.walkCostFactor;
                 time = weight; //treat cost as time, as in the current model it actually is the same (this can be checked for maxSlope == 0)
                 if (this.getStreetClass() != StreetEdge.CLASS_OTHERPATH ){
                     weight *= 1.4;
@@ -347,15 +367,13 @@ public class StreetEdge extends Edge implements Cloneable {
         }
 
         if (isStairs()) {
-            weight *= options.stairsReluctance;
+            weight *= costModel.stairsReluctance;
         } else {
             // TODO: this is being applied even when biking or driving.
-            weight *= options.walkReluctance;
+            weight *= costModel.walkReluctance;
         }
 
-        StateEditor s1 = s0.edit(this);
-        s1.setBackMode(traverseMode);
-        s1.setBackWalkingBike(walkingBike);
+        double turnWalkDistance = 0;
 
         /* Compute turn cost. */
         StreetEdge backPSE;
@@ -363,7 +381,7 @@ public class StreetEdge extends Edge implements Cloneable {
             backPSE = (StreetEdge) backEdge;
             RoutingRequest backOptions = backWalkingBike ?
                     s0.getOptions().bikeWalkingOptions : s0.getOptions();
-            double backSpeed = backPSE.calculateSpeed(backOptions, backMode);
+            double backSpeed = backPSE.calculateSpeed(backOptions.getStreetCostModel(), backMode);
             final double realTurnCost;  // Units are seconds.
 
             // Apply turn restrictions
@@ -403,28 +421,57 @@ public class StreetEdge extends Edge implements Cloneable {
             }
 
             if (!traverseMode.isDriving()) {
-                s1.incrementWalkDistance(realTurnCost / 100);  // just a tie-breaker
+                turnWalkDistance = realTurnCost / 100;  // just a tie-breaker
             }
 
             long turnTime = (long) Math.ceil(realTurnCost);
             time += turnTime;
-            weight += options.turnReluctance * realTurnCost;
+            weight += costModel.turnReluctance * realTurnCost;
         }
         
 
-        if (walkingBike || TraverseMode.BICYCLE.equals(traverseMode)) {
-            if (!(backWalkingBike || TraverseMode.BICYCLE.equals(backMode))) {
-                s1.incrementTimeInSeconds(options.bikeSwitchTime);
-                s1.incrementWeight(options.bikeSwitchCost);
+        boolean bikeSwitch = (walkingBike || TraverseMode.BICYCLE.equals(traverseMode))
+                && !(backWalkingBike || TraverseMode.BICYCLE.equals(backMode));
+        double distance = traverseMode.isDriving() ? 0 : getDistance();
+        int roundedTime = (int) Math.ceil(time);
+
+        /*
+         * Fast path for plain street traversal: make the new state directly rather than through a
+         * StateEditor when no kiss-and-ride, park-and-ride, bike switch or walk limit applies.
+         * The checks are those a StateEditor would make, the results are the same.
+         */
+        if (fastTraversal && carParked == null && !bikeSwitch && !options.kissAndRide && !options.parkAndRide
+                && s0.getVertex() == (options.arriveBy ? tov : fromv)
+                && roundedTime >= 0 && weight >= 0 && turnWalkDistance >= 0) {
+            double walkDistance = s0.getWalkDistance() + turnWalkDistance + distance;
+            if (!(options.modes.isTransit() && walkDistance >= options.maxWalkDistance)) {
+                long timeInMillis = s0.getTimeInMillis()
+                        + (options.arriveBy ? -roundedTime * 1000L : roundedTime * 1000L);
+                return s0.makeStreetChild(this, traverseMode, walkingBike, timeInMillis,
+                        s0.getWeight() + weight, walkDistance);
             }
         }
 
+        StateEditor s1 = s0.edit(this);
+        s1.setBackMode(traverseMode);
+        s1.setBackWalkingBike(walkingBike);
+        if (carParked != null) {
+            s1.setCarParked(carParked);
+        }
         if (!traverseMode.isDriving()) {
-            s1.incrementWalkDistance(getDistance());
+            s1.incrementWalkDistance(turnWalkDistance);
+        }
+
+        if (bikeSwitch) {
+            s1.incrementTimeInSeconds(costModel.bikeSwitchTime);
+            s1.incrementWeight(costModel.bikeSwitchCost);
+        }
+
+        if (!traverseMode.isDriving()) {
+            s1.incrementWalkDistance(distance);
         }
 
         /* On the pre-kiss/pre-park leg, limit both walking and driving, either soft or hard. */
-        int roundedTime = (int) Math.ceil(time);
         if (options.kissAndRide || options.parkAndRide) {
             if (options.arriveBy) {
                 if (!s0.isCarParked()) s1.incrementPreTransitTime(roundedTime);
@@ -460,7 +507,7 @@ public class StreetEdge extends Edge implements Cloneable {
         
         s1.incrementWeight(weight);
 
-        return s1;
+        return s1.makeState();
     }
 
     private double calculateOverageWeight(double firstValue, double secondValue, double maxValue,
@@ -501,6 +548,16 @@ public class StreetEdge extends Edge implements Cloneable {
         return options.getSpeed(traverseMode);
     }
 
+    /** As {@link #calculateSpeed(RoutingRequest, TraverseMode)}, from the compiled preferences. */
+    private double calculateSpeed(StreetCostModel costModel, TraverseMode traverseMode) {
+        if (traverseMode == null) {
+            return Double.NaN;
+        } else if (traverseMode.isDriving()) {
+            return getCarSpeed();
+        }
+        return costModel.getSpeed(traverseMode);
+    }
+
     @Override
     public double weightLowerBound(RoutingRequest options) {
         return timeLowerBound(options) * options.walkReluctance;
@@ -528,9 +585,215 @@ public class StreetEdge extends Edge implements Cloneable {
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
+        // the mapped geometry table is not serializable, so the geometry comes back onto the heap
+        compactGeometry = getCompactGeometry();
+        mappedGeometries = null;
         out.defaultWriteObject();
     }
 
+    private int[] getCompactGeometry() {
+        if (mappedGeometries != null) {
+            return mappedGeometries.get(mappedGeometryPosition);
+        }
+        return compactGeometry;
+    }
+
+    /**
+     * Write street edges of one class, StreetEdge or StreetWithElevationEdge, as a table of columns for the street
+     * section of a graph file. Vertices are written as their positions in the vertex table of the section. Names
+     * and geometries go in tables of their own, so a geometry shared by the two directions of a street is written
+     * once and shared again when read. The geometry table is preceded by its size in bytes, so that it can be
+     * skipped and left in a mapping of the file.
+     */
+    public static void writeColumns(DataOutput out, StreetEdge[] edges, boolean elevation,
+            int[] positionForVertexIndex) throws IOException {
+        out.writeInt(edges.length);
+        for (StreetEdge e : edges) {
+            out.writeInt(e.getId());
+        }
+        for (StreetEdge e : edges) {
+            out.writeInt(positionForVertexIndex[e.fromv.getIndex()]);
+        }
+        for (StreetEdge e : edges) {
+            out.writeInt(positionForVertexIndex[e.tov.getIndex()]);
+        }
+        Map<String, Integer> positionForName = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        for (StreetEdge e : edges) {
+            if (e.name != null && !positionForName.containsKey(e.name)) {
+                positionForName.put(e.name, names.size());
+                names.add(e.name);
+            }
+        }
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+        for (StreetEdge e : edges) {
+            out.writeInt(e.name == null ? -1 : positionForName.get(e.name));
+        }
+        Map<int[], Integer> positionForGeometry = new IdentityHashMap<int[], Integer>();
+        List<int[]> geometries = new ArrayList<int[]>();
+        // geometries left in a mapping are copied out once each, so that the edges sharing them still share them
+        Map<MappedGeometries, int[][]> mappedCopies = new IdentityHashMap<MappedGeometries, int[][]>();
+        int[] geometryPositions = new int[edges.length];
+        long tableSize = 0;
+        for (int i = 0; i < edges.length; i++) {
+            StreetEdge e = edges[i];
+            int[] geometry = e.compactGeometry;
+            if (e.mappedGeometries != null) {
+                int[][] copies = mappedCopies.get(e.mappedGeometries);
+                if (copies == null) {
+                    copies = new int[e.mappedGeometries.size()][];
+                    mappedCopies.put(e.mappedGeometries, copies);
+                }
+                if (copies[e.mappedGeometryPosition] == null) {
+                    copies[e.mappedGeometryPosition] = e.mappedGeometries.get(e.mappedGeometryPosition);
+                }
+                geometry = copies[e.mappedGeometryPosition];
+            }
+            if (geometry == null) {
+                geometryPositions[i] = -1;
+                continue;
+            }
+            Integer position = positionForGeometry.get(geometry);
+            if (position == null) {
+                position = geometries.size();
+                positionForGeometry.put(geometry, position);
+                geometries.add(geometry);
+                tableSize += 4 + 4L * geometry.length;
+            }
+            geometryPositions[i] = position;
+        }
+        out.writeInt(geometries.size());
+        out.writeLong(tableSize);
+        for (int[] geometry : geometries) {
+            out.writeInt(geometry.length);
+            for (int c : geometry) {
+                out.writeInt(c);
+            }
+        }
+        for (int position : geometryPositions) {
+            out.writeInt(position);
+        }
+        for (StreetEdge e : edges) {
+            out.writeByte(e.flags);
+        }
+        for (StreetEdge e : edges) {
+            out.writeInt(e.length_mm);
+        }
+        for (StreetEdge e : edges) {
+            out.writeFloat(e.bicycleSafetyFactor);
+        }
+        for (StreetEdge e : edges) {
+            out.writeByte(e.permission == null ? -1 : e.permission.ordinal());
+        }
+        for (StreetEdge e : edges) {
+            out.writeInt(e.streetClass);
+        }
+        for (StreetEdge e : edges) {
+            out.writeFloat(e.carSpeed);
+        }
+        for (StreetEdge e : edges) {
+            out.writeByte(e.inAngle);
+        }
+        for (StreetEdge e : edges) {
+            out.writeByte(e.outAngle);
+        }
+        if (elevation) {
+            StreetWithElevationEdge.writeElevationColumns(out, edges);
+        }
+    }
+
+    /**
+     * Read a table of street edges written by writeColumns, connecting them to the given vertices.
+     * @param elevation true for a table of StreetWithElevationEdges
+     * @param file the mapped graph file in is reading from without buffering, to leave the geometries in the
+     *        mapping, or null to read them onto the heap
+     */
+    public static StreetEdge[] readColumns(DataInput in, StreetVertex[] vertices, boolean elevation,
+            MappedFileInputStream file) throws IOException {
+        int n = in.readInt();
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = in.readInt();
+        }
+        int[] fromPositions = new int[n];
+        for (int i = 0; i < n; i++) {
+            fromPositions[i] = in.readInt();
+        }
+        StreetEdge[] edges = new StreetEdge[n];
+        for (int i = 0; i < n; i++) {
+            StreetVertex from = vertices[fromPositions[i]];
+            StreetVertex to = vertices[in.readInt()];
+            edges[i] = elevation ? new StreetWithElevationEdge(from, to) : new StreetEdge(from, to);
+            edges[i].setId(ids[i]);
+        }
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        for (StreetEdge e : edges) {
+            int position = in.readInt();
+            e.name = position < 0 ? null : names[position];
+        }
+        int nGeometries = in.readInt();
+        long tableSize = in.readLong();
+        if (file != null && tableSize <= Integer.MAX_VALUE) {
+            MappedGeometries mapped = MappedGeometries.map(in, file, nGeometries, (int) tableSize);
+            for (StreetEdge e : edges) {
+                int position = in.readInt();
+                if (position >= 0) {
+                    e.mappedGeometries = mapped;
+                    e.mappedGeometryPosition = position;
+                }
+            }
+        } else {
+            int[][] geometries = new int[nGeometries][];
+            for (int g = 0; g < geometries.length; g++) {
+                int[] geometry = new int[in.readInt()];
+                for (int i = 0; i < geometry.length; i++) {
+                    geometry[i] = in.readInt();
+                }
+                geometries[g] = geometry;
+            }
+            for (StreetEdge e : edges) {
+                int position = in.readInt();
+                e.compactGeometry = position < 0 ? null : geometries[position];
+            }
+        }
+        for (StreetEdge e : edges) {
+            e.flags = in.readByte();
+        }
+        for (StreetEdge e : edges) {
+            e.length_mm = in.readInt();
+        }
+        for (StreetEdge e : edges) {
+            e.bicycleSafetyFactor = in.readFloat();
+        }
+        StreetTraversalPermission[] permissions = StreetTraversalPermission.values();
+        for (StreetEdge e : edges) {
+            int ordinal = in.readByte();
+            e.permission = ordinal < 0 ? null : permissions[ordinal];
+        }
+        for (StreetEdge e : edges) {
+            e.streetClass = in.readInt();
+        }
+        for (StreetEdge e : edges) {
+            e.carSpeed = in.readFloat();
+        }
+        for (StreetEdge e : edges) {
+            e.inAngle = in.readByte();
+        }
+        for (StreetEdge e : edges) {
+            e.outAngle = in.readByte();
+        }
+        if (elevation) {
+            StreetWithElevationEdge.readElevationColumns(in, edges);
+        }
+        return edges;
+    }
+
     public String toString() {
         return "StreetEdge(" + getId() + ", " + name + ", " + fromv + " -> " + tov
                 + " length=" + this.getDistance() + " carSpeed=" + this.getCarSpeed()
@@ -578,7 +841,7 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
-		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
+		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), getCompactGeometry(), isBack());
 	}
 
 	private void setGeometry(LineString geometry) {
@@ -13,6 +13,10 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.opentripplanner.common.geometry.CompactElevationProfile;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.routing.util.ElevationUtils;
@@ -45,6 +49,11 @@ public class StreetWithElevationEdge extends StreetEdge {
         super(v1, v2, geometry, name, length, permission, back);
     }
 
+    /** For edges read from the street section of a graph file, see StreetEdge.readColumns. */
+    StreetWithElevationEdge(StreetVertex v1, StreetVertex v2) {
+        super(v1, v2);
+    }
+
     @Override
     public StreetWithElevationEdge clone() {
         return (StreetWithElevationEdge) super.clone();
@@ -96,6 +105,50 @@ public class StreetWithElevationEdge extends StreetEdge {
         return slopeWorkFactor * getDistance();
     }
 
+    /** Write the elevation fields of a table of StreetWithElevationEdges, see StreetEdge.writeColumns. */
+    static void writeElevationColumns(DataOutput out, StreetEdge[] edges) throws IOException {
+        for (StreetEdge e : edges) {
+            byte[] profile = ((StreetWithElevationEdge) e).packedElevationProfile;
+            out.writeInt(profile == null ? -1 : profile.length);
+            if (profile != null) out.write(profile);
+        }
+        for (StreetEdge e : edges) {
+            out.writeFloat(((StreetWithElevationEdge) e).slopeSpeedFactor);
+        }
+        for (StreetEdge e : edges) {
+            out.writeFloat(((StreetWithElevationEdge) e).slopeWorkFactor);
+        }
+        for (StreetEdge e : edges) {
+            out.writeFloat(((StreetWithElevationEdge) e).maxSlope);
+        }
+        for (StreetEdge e : edges) {
+            out.writeBoolean(((StreetWithElevationEdge) e).flattened);
+        }
+    }
+
+    /** Read the elevation fields written by writeElevationColumns into a table of StreetWithElevationEdges. */
+    static void readElevationColumns(DataInput in, StreetEdge[] edges) throws IOException {
+        for (StreetEdge e : edges) {
+            int length = in.readInt();
+            if (length < 0) continue;
+            byte[] profile = new byte[length];
+            in.readFully(profile);
+            ((StreetWithElevationEdge) e).packedElevationProfile = profile;
+        }
+        for (StreetEdge e : edges) {
+            ((StreetWithElevationEdge) e).slopeSpeedFactor = in.readFloat();
+        }
+        for (StreetEdge e : edges) {
+            ((StreetWithElevationEdge) e).slopeWorkFactor = in.readFloat();
+        }
+        for (StreetEdge e : edges) {
+            ((StreetWithElevationEdge) e).maxSlope = in.readFloat();
+        }
+        for (StreetEdge e : edges) {
+            ((StreetWithElevationEdge) e).flattened = in.readBoolean();
+        }
+    }
+
     @Override
     public String toString() {
         return "StreetWithElevationEdge(" + getId() + ", " + getName() + ", " + fromv + " -> "
@@ -14,10 +14,15 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.TimeZone;
 
 import com.beust.jcommander.internal.Lists;
@@ -61,8 +66,10 @@ public class Timetable implements Serializable {
     /**
      * Contains one TripTimes object for each scheduled trip (even cancelled ones) and possibly
      * additional TripTimes objects for unscheduled trips. Frequency entries are stored separately.
+     * Any change made through this list invalidates the trip order, and replaced trips are recorded
+     * for finish(), whether the change is made by setTripTimes or directly on the list.
      */
-    public final List<TripTimes> tripTimes = Lists.newArrayList();
+    public final List<TripTimes> tripTimes = new TripTimesList();
 
     /**
      * Contains one FrequencyEntry object for each block of frequency-based trips.
@@ -88,6 +95,30 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * For each stop, the indexes of the TripTimes grouped by service code, then sorted by departure
+     * (arrival) time at that stop, ties broken by index. When trips do not overtake one another, all
+     * stops share a single array. Null when the TripTimes have changed since this Timetable was last
+     * finished, in which case trip searches fall back on a linear scan.
+     */
+    private transient int[][] departureOrder, arrivalOrder;
+
+    /**
+     * The distinct service codes of the TripTimes in ascending order. The trips of serviceCodes[i]
+     * occupy positions serviceStart[i] (inclusive) to serviceStart[i + 1] (exclusive) in every array
+     * of departureOrder and arrivalOrder, so searches skip the trips of services that do not run on
+     * a given day without looking at them.
+     */
+    private transient int[] serviceCodes, serviceStart;
+
+    /**
+     * The finished Timetable this one was copied from, and the indexes of the TripTimes replaced
+     * since then. Lets finish() patch the summaries and sorted trips of the original instead of
+     * recomputing them all when a few trips of a pattern are updated. Cleared by finish().
+     */
+    private transient Timetable base;
+    private transient BitSet changedTrips;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -102,6 +133,8 @@ public class Timetable implements Serializable {
         tripTimes.addAll(tt.tripTimes);
         this.serviceDate = serviceDate;
         this.pattern = tt.pattern;
+        this.base = tt;
+        this.changedTrips = new BitSet();
     }
 
     /**
@@ -141,71 +174,158 @@ public class Timetable implements Serializable {
         // NOTE the time is sometimes negative here. That is fine, we search for the first trip of the day.
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
+        int[][] order = boarding ? departureOrder : arrivalOrder;
+        if (order != null) {
+            // Binary search in the trips sorted by time at this stop, then step away from the search
+            // time until a trip passes the other criteria. Transfer rules only ever push the time
+            // further away, so the first acceptable trip is the best one.
+            bestTrip = boarding ? firstDeparture(s0, serviceDay, currentStop, stopIndex, time, order[stopIndex])
+                    : lastArrival(s0, serviceDay, currentStop, stopIndex, time, order[stopIndex]);
+        } else {
+            // The TripTimes were modified since they were last sorted.
+            bestTrip = scanTrips(s0, serviceDay, currentStop, stopIndex, time, boarding);
+        }
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
+        if (bestTrip != null) {
+            bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
+        }
+        // ACK all logic is identical to scanTrips.
+        // A sign that FrequencyEntries and TripTimes need a common interface.
+        FrequencyEntry bestFreq = null;
+        for (FrequencyEntry freq : frequencyEntries) {
+            TripTimes tt = freq.tripTimes;
             if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
             if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
             int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
             if (adjustedTime == -1) continue;
+            LOG.debug("  running freq {}", freq);
             if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
+                int depTime = freq.nextDepartureTime(stopIndex, adjustedTime); // min transfer time included in search
                 if (depTime < 0) continue;
                 if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
+                    bestFreq = freq;
                     bestTime = depTime;
                 }
             } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
+                int arvTime = freq.prevArrivalTime(stopIndex, adjustedTime); // min transfer time included in search
                 if (arvTime < 0) continue;
                 if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
+                    bestFreq = freq;
                     bestTime = arvTime;
                 }
             }
         }
-        // ACK all logic is identical to above.
-        // A sign that FrequencyEntries and TripTimes need a common interface.
-        FrequencyEntry bestFreq = null;
-        for (FrequencyEntry freq : frequencyEntries) {
-            TripTimes tt = freq.tripTimes;
+        if (bestFreq != null) {
+            // A FrequencyEntry beat all the TripTimes.
+            // Materialize that FrequencyEntry entry at the given time.
+            bestTrip = bestFreq.tripTimes.timeShift(stopIndex, bestTime, boarding);
+        }
+        return bestTrip;
+    }
+
+    /**
+     * Linear search through the timetable looking for the best departure (arrival).
+     * @return the best trip, or null if no trip matches both the time and other criteria.
+     */
+    private TripTimes scanTrips(State s0, ServiceDay serviceDay, Stop currentStop, int stopIndex,
+            int time, boolean boarding) {
+        TripTimes bestTrip = null;
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+        for (TripTimes tt : tripTimes) {
             if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
             if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
             int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
             if (adjustedTime == -1) continue;
-            LOG.debug("  running freq {}", freq);
             if (boarding) {
-                int depTime = freq.nextDepartureTime(stopIndex, adjustedTime); // min transfer time included in search
+                int depTime = tt.getDepartureTime(stopIndex);
                 if (depTime < 0) continue;
                 if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestFreq = freq;
+                    bestTrip = tt;
                     bestTime = depTime;
                 }
             } else {
-                int arvTime = freq.prevArrivalTime(stopIndex, adjustedTime); // min transfer time included in search
+                int arvTime = tt.getArrivalTime(stopIndex);
                 if (arvTime < 0) continue;
                 if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestFreq = freq;
+                    bestTrip = tt;
                     bestTime = arvTime;
                 }
             }
         }
-        if (bestFreq != null) {
-            // A FrequencyEntry beat all the TripTimes.
-            // Materialize that FrequencyEntry entry at the given time.
-            bestTrip = bestFreq.tripTimes.timeShift(stopIndex, bestTime, boarding);
-        }
         return bestTrip;
     }
 
+    /** @return the trip departing earliest at or after the given time that can be boarded, or null. */
+    private TripTimes firstDeparture(State s0, ServiceDay serviceDay, Stop currentStop, int stopIndex,
+            int time, int[] order) {
+        TripTimes best = null;
+        int bestIndex = -1, bestTime = Integer.MAX_VALUE;
+        for (int r = 0; r < serviceCodes.length; r++) {
+            if ( ! serviceDay.serviceRunning(serviceCodes[r])) continue;
+            int end = serviceStart[r + 1];
+            // find the first trip of this service departing at or after the given time
+            int lo = serviceStart[r], hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tripTimes.get(order[mid]).getDepartureTime(stopIndex) < time) lo = mid + 1;
+                else hi = mid;
+            }
+            for (int i = lo; i < end; i++) {
+                TripTimes tt = tripTimes.get(order[i]);
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime < 0) continue;
+                // Among trips departing at the same time keep the one with the lowest index, like a scan.
+                if (depTime > bestTime || (depTime == bestTime && order[i] > bestIndex)) break;
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, true, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (depTime >= adjustedTime) {
+                    best = tt;
+                    bestIndex = order[i];
+                    bestTime = depTime;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** @return the trip arriving latest at or before the given time that can be alighted, or null. */
+    private TripTimes lastArrival(State s0, ServiceDay serviceDay, Stop currentStop, int stopIndex,
+            int time, int[] order) {
+        TripTimes best = null;
+        int bestIndex = -1, bestTime = Integer.MIN_VALUE;
+        for (int r = 0; r < serviceCodes.length; r++) {
+            if ( ! serviceDay.serviceRunning(serviceCodes[r])) continue;
+            int start = serviceStart[r];
+            // find the last trip of this service arriving at or before the given time
+            int lo = start, hi = serviceStart[r + 1];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tripTimes.get(order[mid]).getArrivalTime(stopIndex) <= time) lo = mid + 1;
+                else hi = mid;
+            }
+            for (int i = lo - 1; i >= start; i--) {
+                TripTimes tt = tripTimes.get(order[i]);
+                int arvTime = tt.getArrivalTime(stopIndex);
+                if (arvTime < 0) break; // unavailable times sort first
+                if (arvTime < bestTime) break;
+                // Among trips arriving at the same time keep the one with the lowest index, like a scan.
+                if (arvTime == bestTime && order[i] > bestIndex) continue;
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, false, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (arvTime <= adjustedTime) {
+                    best = tt;
+                    bestIndex = order[i];
+                    bestTime = arvTime;
+                }
+            }
+        }
+        return best;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -253,6 +373,12 @@ public class Timetable implements Serializable {
     public void finish() {
         int nStops = pattern.stopPattern.size;
         int nHops = nStops - 1;
+        if (canPatchBase()) {
+            patchBase(nStops);
+            return;
+        }
+        base = null;
+        changedTrips = null;
         /* Find lower bounds on dwell and running times at each stop. */
         minDwellTimes = new int[nHops];
         minRunningTimes = new int[nHops];
@@ -286,6 +412,203 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        /* Group the trips by service, and sort them at each stop for binary searches. */
+        groupTripsByService();
+        departureOrder = sortTrips(nStops, true);
+        arrivalOrder = sortTrips(nStops, false);
+    }
+
+    /**
+     * @return whether this Timetable only differs from the finished Timetable it was copied from by
+     *         the replacement of some TripTimes with others on the same service.
+     */
+    private boolean canPatchBase() {
+        if (base == null || base.departureOrder == null || base.minDwellTimes == null) return false;
+        if (tripTimes.size() != base.tripTimes.size()) return false;
+        for (int i = changedTrips.nextSetBit(0); i >= 0; i = changedTrips.nextSetBit(i + 1)) {
+            if (tripTimes.get(i).serviceCode != base.tripTimes.get(i).serviceCode) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finish this Timetable from the summaries and sorted trips of the one it was copied from. Lower
+     * bounds and the active time range are widened to include the changed trips, which keeps them
+     * valid though possibly less tight. The changed trips are taken out of the sorted arrays and
+     * merged back in at their new positions.
+     */
+    private void patchBase(int nStops) {
+        int nHops = nStops - 1;
+        minDwellTimes = base.minDwellTimes.clone();
+        minRunningTimes = base.minRunningTimes.clone();
+        minTime = base.minTime;
+        maxTime = base.maxTime;
+        int[] changed = new int[changedTrips.cardinality()];
+        int c = 0;
+        for (int i = changedTrips.nextSetBit(0); i >= 0; i = changedTrips.nextSetBit(i + 1)) {
+            changed[c++] = i;
+            TripTimes tt = tripTimes.get(i);
+            for (int h = 0; h < nHops; ++h) {
+                minDwellTimes[h] = Math.min(minDwellTimes[h], tt.getDwellTime(h));
+                minRunningTimes[h] = Math.min(minRunningTimes[h], tt.getRunningTime(h));
+            }
+            minTime = Math.min(minTime, tt.getDepartureTime(0));
+            maxTime = Math.max(maxTime, tt.getArrivalTime(nStops - 1));
+        }
+        // the changed trips keep their service codes, so the service ranges do not move
+        serviceCodes = base.serviceCodes;
+        serviceStart = base.serviceStart;
+        departureOrder = patchTrips(nStops, true, base.departureOrder, changed);
+        arrivalOrder = patchTrips(nStops, false, base.arrivalOrder, changed);
+        base = null;
+        changedTrips = null;
+    }
+
+    /**
+     * Patch the sorted trips of the base Timetable at each stop. As in sortTrips, the array made for
+     * the first stop is tried at the following stops that shared one array in the base Timetable,
+     * which only requires checking the new neighbors of the changed trips.
+     */
+    private int[][] patchTrips(int nStops, boolean departures, int[][] baseOrders, int[] changed) {
+        if (changed.length == 0) return baseOrders;
+        int[][] orders = new int[nStops][];
+        int[] baseShared = null, shared = null, sharedPositions = null;
+        for (int s = 0; s < nStops; s++) {
+            if (baseOrders[s] == baseShared && isSortedAround(shared, sharedPositions, s, departures)) {
+                orders[s] = shared;
+                continue;
+            }
+            int[] positions = new int[changed.length];
+            orders[s] = mergeTrips(baseOrders[s], s, departures, changed, positions);
+            if (baseShared == null) {
+                baseShared = baseOrders[s];
+                shared = orders[s];
+                sharedPositions = positions;
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Remove the changed trips from a sorted array and merge them back in at the given stop.
+     * @param positions receives the new position of each changed trip.
+     */
+    private int[] mergeTrips(int[] baseOrder, final int stop, final boolean departures, int[] changed,
+            int[] positions) {
+        Integer[] sortedChanged = new Integer[changed.length];
+        for (int i = 0; i < changed.length; i++) sortedChanged[i] = changed[i];
+        Arrays.sort(sortedChanged, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareTrips(a, b, stop, departures);
+            }
+        });
+        int[] order = new int[baseOrder.length];
+        int n = 0, c = 0;
+        for (int trip : baseOrder) {
+            if (changedTrips.get(trip)) continue;
+            while (c < sortedChanged.length && compareTrips(sortedChanged[c], trip, stop, departures) < 0) {
+                positions[c] = n;
+                order[n++] = sortedChanged[c++];
+            }
+            order[n++] = trip;
+        }
+        while (c < sortedChanged.length) {
+            positions[c] = n;
+            order[n++] = sortedChanged[c++];
+        }
+        return order;
+    }
+
+    /**
+     * @return whether the given order, sorted at some stop where it was also valid for the base
+     *         Timetable, is sorted at the given stop, knowing that only the trips at the given
+     *         positions have changed.
+     */
+    private boolean isSortedAround(int[] order, int[] positions, int stop, boolean departures) {
+        for (int p : positions) {
+            if (p > 0 && compareTrips(order[p - 1], order[p], stop, departures) > 0) return false;
+            if (p + 1 < order.length && compareTrips(order[p], order[p + 1], stop, departures) > 0) return false;
+        }
+        return true;
+    }
+
+    /** Find the distinct service codes of the TripTimes and the range of positions of each one. */
+    private void groupTripsByService() {
+        int[] codes = new int[tripTimes.size()];
+        for (int i = 0; i < codes.length; i++) codes[i] = tripTimes.get(i).serviceCode;
+        Arrays.sort(codes);
+        int nServices = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (i == 0 || codes[i] != codes[i - 1]) nServices++;
+        }
+        serviceCodes = new int[nServices];
+        serviceStart = new int[nServices + 1];
+        int r = -1;
+        for (int i = 0; i < codes.length; i++) {
+            if (i == 0 || codes[i] != codes[i - 1]) {
+                serviceCodes[++r] = codes[i];
+                serviceStart[r] = i;
+            }
+        }
+        serviceStart[nServices] = codes.length;
+    }
+
+    /**
+     * Sort the TripTimes by service code, then by their departure or arrival time at each stop. Most patterns have no
+     * overtaking trips, so the order at the first stop is tried at every stop and only replaced by
+     * a separately sorted array at the stops where it does not hold.
+     */
+    private int[][] sortTrips(int nStops, final boolean departures) {
+        int[][] orders = new int[nStops][];
+        int[] shared = null;
+        for (int s = 0; s < nStops; s++) {
+            if (shared != null && isSorted(shared, s, departures)) {
+                orders[s] = shared;
+                continue;
+            }
+            final int stop = s;
+            Integer[] boxed = new Integer[tripTimes.size()];
+            for (int i = 0; i < boxed.length; i++) boxed[i] = i;
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compareTrips(a, b, stop, departures);
+                }
+            });
+            int[] order = new int[boxed.length];
+            for (int i = 0; i < order.length; i++) order[i] = boxed[i];
+            orders[s] = order;
+            if (shared == null) shared = order;
+        }
+        return orders;
+    }
+
+    /** @return whether the given order sorts the trips by service, time, then index at the given stop. */
+    private boolean isSorted(int[] order, int stop, boolean departures) {
+        for (int i = 1; i < order.length; i++) {
+            if (compareTrips(order[i - 1], order[i], stop, departures) > 0) return false;
+        }
+        return true;
+    }
+
+    /** Compare two trips by service code, then by departure or arrival time at a stop, then by index. */
+    private int compareTrips(int a, int b, int stop, boolean departures) {
+        TripTimes ta = tripTimes.get(a);
+        TripTimes tb = tripTimes.get(b);
+        if (ta.serviceCode != tb.serviceCode) return ta.serviceCode < tb.serviceCode ? -1 : 1;
+        int timeA = departures ? ta.getDepartureTime(stop) : ta.getArrivalTime(stop);
+        int timeB = departures ? tb.getDepartureTime(stop) : tb.getArrivalTime(stop);
+        if (timeA != timeB) return timeA < timeB ? -1 : 1;
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /** Drop the sorted trip indexes after the TripTimes change, until the next call to finish(). */
+    private void invalidateTripOrder() {
+        departureOrder = null;
+        arrivalOrder = null;
+        serviceCodes = null;
+        serviceStart = null;
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -483,7 +806,7 @@ public class Timetable implements Serializable {
             }
 
             // Update succeeded, save the new TripTimes back into this Timetable.
-            tripTimes.set(tripIndex, newTimes);
+            setTripTimes(tripIndex, newTimes);
         } catch (Exception e) { // prevent server from dying while debugging
             e.printStackTrace();
             return false;
@@ -493,6 +816,14 @@ public class Timetable implements Serializable {
         return true;
     }
 
+    /**
+     * Replace the TripTimes at the given index. As with update(), the caller is responsible for
+     * not modifying a Timetable that is visible to routing threads.
+     */
+    void setTripTimes(int tripIndex, TripTimes tt) {
+        tripTimes.set(tripIndex, tt);
+    }
+
     /**
      * Add a trip to this Timetable. The Timetable must be analyzed, compacted, and indexed
      * any time trips are added, but this is not done automatically because it is time consuming
@@ -548,6 +879,8 @@ public class Timetable implements Serializable {
         for (TripTimes tt : this.tripTimes) {
             tt.serviceCode = serviceCodes.get(tt.trip.getServiceId());
         }
+        invalidateTripOrder(); // the trips are grouped by service code
+        base = null;
         // Repeated code... bad sign...
         for (FrequencyEntry freq : this.frequencyEntries) {
             TripTimes tt = freq.tripTimes;
@@ -555,4 +888,53 @@ public class Timetable implements Serializable {
         }
     }
 
-} 
+    /**
+     * The list behind tripTimes. Replacing a trip records its index in changedTrips, so that finish()
+     * can still patch the Timetable this one was copied from. Adding or removing trips shifts the
+     * indexes, so finish() then recomputes everything.
+     */
+    private class TripTimesList extends AbstractList<TripTimes> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<TripTimes> list = new ArrayList<TripTimes>();
+
+        @Override
+        public TripTimes get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public TripTimes set(int index, TripTimes tt) {
+            TripTimes old = list.set(index, tt);
+            invalidateTripOrder();
+            if (changedTrips != null) changedTrips.set(index);
+            return old;
+        }
+
+        @Override
+        public void add(int index, TripTimes tt) {
+            list.add(index, tt);
+            structureChanged();
+        }
+
+        @Override
+        public TripTimes remove(int index) {
+            TripTimes old = list.remove(index);
+            structureChanged();
+            return old;
+        }
+
+        private void structureChanged() {
+            invalidateTripOrder();
+            base = null;
+            changedTrips = null;
+        }
+    }
+
+}
@@ -13,20 +13,26 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.TimeZone;
-import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentIntMap;
+import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 
 // this is only currently in edgetype because that's where Trippattern is.
@@ -53,26 +59,34 @@ public class TimetableResolver {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableResolver.class);
 
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
-    // The SortedSet members are copy-on-write
-    // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private static final SortedTimetableComparator COMPARATOR = new SortedTimetableComparator();
+
+    /**
+     * The updated timetables of each pattern sorted by service date, keyed on the pattern index.
+     * The map and the arrays are never modified, only replaced, so committing a snapshot shares
+     * them with the buffer and the buffer only copies the parts it changes afterward.
+     */
+    private PersistentIntMap<Timetable[]> timetables = PersistentIntMap.empty();
+
+    /** The total number of timetables in all the arrays of the map. */
+    private int timetableCount = 0;
 
     /** A set of all timetables which have been modified and are waiting to be indexed. */
     private Set<Timetable> dirty = new HashSet<Timetable>();
 
+    /** The time this snapshot was committed in milliseconds since the epoch, or -1 for a buffer. */
+    private long commitTime = -1;
+
     /**
      * Returns an updated timetable for the specified pattern if one is available in this snapshot,
      * or the originally scheduled timetable if there are no updates in this snapshot.
      */
     public Timetable resolve(TripPattern pattern, ServiceDate serviceDate) {
-        SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        Timetable[] sortedTimetables = timetables.get(pattern.getIndex());
 
         if(sortedTimetables != null && serviceDate != null) {
             for(Timetable timetable : sortedTimetables) {
-                if (timetable != null && timetable.isValidFor(serviceDate)) {
+                if (timetable.isValidFor(serviceDate)) {
                     LOG.trace("returning modified timetable");
                     return timetable;
                 }
@@ -91,35 +105,149 @@ public class TimetableResolver {
         synchronized(this) {
             if (dirty == null)
                 throw new ConcurrentModificationException("This TimetableResolver is read-only.");
-            Timetable tt = resolve(pattern, serviceDate);
-            // we need to perform the copy of Timetable here rather than in Timetable.update()
-            // to avoid repeatedly copying in case several updates are applied to the same timetable
-            if ( ! dirty.contains(tt)) {
-                Timetable old = tt;
-                tt = new Timetable(tt, serviceDate);
-                SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
-                if(sortedTimetables == null) {
-                    sortedTimetables = new TreeSet<Timetable>(new SortedTimetableComparator());
-                } else {
-                    SortedSet<Timetable> temp =
-                            new TreeSet<Timetable>(new SortedTimetableComparator());
-                    temp.addAll(sortedTimetables);
-                    sortedTimetables = temp;
-                }
-                if(old.serviceDate != null)
-                    sortedTimetables.remove(old);
-                sortedTimetables.add(tt);
-                timetables.put(pattern, sortedTimetables);
-                dirty.add(tt);
-            }
+            Timetable tt = writableTimetable(pattern, serviceDate);
             // Assume all trips in a pattern are from the same feed, which should be the case.
             return tt.update(tripUpdate, timeZone, serviceDate);
         }
     }
 
     /**
-     * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * Apply a batch of updates, the i-th one to the given pattern and service date. Each timetable
+     * is only touched by the updates to it, so the updates of different timetables are applied in
+     * parallel in the given pool while the updates of any one timetable keep their order.
+     * @return whether or not each update was actually applied
+     */
+    public boolean[] update(List<TripPattern> patterns, List<TripUpdate> tripUpdates,
+            List<ServiceDate> serviceDates, TimeZone timeZone, ForkJoinPool pool) {
+        boolean[] applied = new boolean[tripUpdates.size()];
+        // synchronization prevents commits/snapshots while the batch is in progress
+        synchronized(this) {
+            if (dirty == null)
+                throw new ConcurrentModificationException("This TimetableResolver is read-only.");
+            // copying is done here, since it changes the map shared by all patterns
+            Map<Timetable, List<Integer>> updatesByTimetable = Maps.newLinkedHashMap();
+            for (int i = 0; i < tripUpdates.size(); i++) {
+                Timetable tt = writableTimetable(patterns.get(i), serviceDates.get(i));
+                List<Integer> updates = updatesByTimetable.get(tt);
+                if (updates == null) {
+                    updates = Lists.newArrayList();
+                    updatesByTimetable.put(tt, updates);
+                }
+                updates.add(i);
+            }
+            List<Timetable> targets = Lists.newArrayList(updatesByTimetable.keySet());
+            List<List<Integer>> updates = Lists.newArrayList(updatesByTimetable.values());
+            pool.invoke(new ApplyUpdates(targets, updates, tripUpdates, serviceDates, timeZone,
+                    applied, 0, targets.size()));
+        }
+        return applied;
+    }
+
+    /** Applies the updates of a range of timetables, splitting it among threads when large. */
+    private static class ApplyUpdates extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private static final int SEQUENTIAL_THRESHOLD = 16;
+
+        private final List<Timetable> targets;
+
+        private final List<List<Integer>> updates;
+
+        private final List<TripUpdate> tripUpdates;
+
+        private final List<ServiceDate> serviceDates;
+
+        private final TimeZone timeZone;
+
+        private final boolean[] applied;
+
+        private final int from, to;
+
+        ApplyUpdates(List<Timetable> targets, List<List<Integer>> updates,
+                List<TripUpdate> tripUpdates, List<ServiceDate> serviceDates, TimeZone timeZone,
+                boolean[] applied, int from, int to) {
+            this.targets = targets;
+            this.updates = updates;
+            this.tripUpdates = tripUpdates;
+            this.serviceDates = serviceDates;
+            this.timeZone = timeZone;
+            this.applied = applied;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int t = from; t < to; t++) {
+                    Timetable tt = targets.get(t);
+                    // Assume all trips in a pattern are from the same feed, which should be the case.
+                    for (int i : updates.get(t)) {
+                        applied[i] = tt.update(tripUpdates.get(i), timeZone, serviceDates.get(i));
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ApplyUpdates(targets, updates, tripUpdates, serviceDates, timeZone,
+                                applied, from, mid),
+                        new ApplyUpdates(targets, updates, tripUpdates, serviceDates, timeZone,
+                                applied, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Undo all updates to a trip on the given service date, restoring its scheduled times.
+     * @return whether the trip had any updates to undo
+     */
+    public boolean revert(TripPattern pattern, String tripId, ServiceDate serviceDate) {
+        synchronized(this) {
+            if (dirty == null)
+                throw new ConcurrentModificationException("This TimetableResolver is read-only.");
+            Timetable tt = resolve(pattern, serviceDate);
+            int tripIndex = tt.getTripIndex(tripId);
+            if (tt == pattern.scheduledTimetable || tripIndex < 0) return false;
+            // all timetables of a pattern hold the same trips in the same order
+            TripTimes scheduled = pattern.scheduledTimetable.getTripTimes(tripIndex);
+            if (tt.getTripTimes(tripIndex) == scheduled) return false;
+            writableTimetable(pattern, serviceDate).setTripTimes(tripIndex, scheduled);
+            return true;
+        }
+    }
+
+    /** @return the timetable of the pattern for the date in this buffer, copied on first change. */
+    private Timetable writableTimetable(TripPattern pattern, ServiceDate serviceDate) {
+        Timetable tt = resolve(pattern, serviceDate);
+        // we need to perform the copy of Timetable here rather than in Timetable.update()
+        // to avoid repeatedly copying in case several updates are applied to the same timetable
+        if ( ! dirty.contains(tt)) {
+            Timetable old = tt;
+            tt = new Timetable(tt, serviceDate);
+            replace(pattern, old.serviceDate == null ? null : old, tt);
+            dirty.add(tt);
+        }
+        return tt;
+    }
+
+    /** Replace a timetable of the pattern (or none if old is null) with a new one. */
+    private void replace(TripPattern pattern, Timetable old, Timetable tt) {
+        Timetable[] sortedTimetables = timetables.get(pattern.getIndex());
+        int n = sortedTimetables == null ? 0 : sortedTimetables.length;
+        Timetable[] replaced = new Timetable[old == null ? n + 1 : n];
+        int i = 0;
+        for (int j = 0; j < n; j++) {
+            if (sortedTimetables[j] != old) replaced[i++] = sortedTimetables[j];
+        }
+        replaced[i] = tt;
+        Arrays.sort(replaced, COMPARATOR);
+        timetables = timetables.put(pattern.getIndex(), replaced);
+        timetableCount += replaced.length - n;
+    }
+
+    /**
+     * Committing only finishes the timetables changed since the last commit, which is typically
+     * what takes most of the time; the snapshot shares the map with this buffer rather than
+     * copying it, so its cost does not depend on the number of patterns with updates.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -131,7 +259,6 @@ public class TimetableResolver {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableResolver commit(boolean force) {
         TimetableResolver ret = new TimetableResolver();
         // synchronization prevents updates while commit/snapshot in progress
@@ -143,11 +270,12 @@ public class TimetableResolver {
             for (Timetable tt : dirty) {
                 tt.finish(); // summarize, index, etc. the new timetables
             }
-            ret.timetables =
-                    (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
+            ret.timetables = this.timetables;
+            ret.timetableCount = this.timetableCount;
             this.dirty.clear();
         }
         ret.dirty = null; // mark the snapshot as henceforth immutable
+        ret.commitTime = System.currentTimeMillis();
         return ret;
     }
 
@@ -161,23 +289,22 @@ public class TimetableResolver {
             }
 
             boolean modified = false;
-            for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-                TripPattern pattern = it.next();
-                SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
-                SortedSet<Timetable> toKeepTimetables =
-                        new TreeSet<Timetable>(new SortedTimetableComparator());
+            for (Timetable[] sortedTimetables : timetables.values()) {
+                TripPattern pattern = sortedTimetables[0].pattern;
+                List<Timetable> toKeepTimetables = new ArrayList<Timetable>();
                 for(Timetable timetable : sortedTimetables) {
                     if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                         toKeepTimetables.add(timetable);
-                    } else {
-                        modified = true;
                     }
                 }
-
+                if (toKeepTimetables.size() == sortedTimetables.length) continue;
+                modified = true;
+                timetableCount -= sortedTimetables.length - toKeepTimetables.size();
                 if(toKeepTimetables.isEmpty()) {
-                    it.remove();
+                    timetables = timetables.remove(pattern.getIndex());
                 } else {
-                    timetables.put(pattern, toKeepTimetables);
+                    timetables = timetables.put(pattern.getIndex(),
+                            toKeepTimetables.toArray(new Timetable[toKeepTimetables.size()]));
                 }
             }
 
@@ -185,6 +312,21 @@ public class TimetableResolver {
         }
     }
 
+    /** @return the number of patterns with updated timetables. */
+    public int getPatternCount() {
+        return timetables.size();
+    }
+
+    /** @return the number of updated timetables, over all patterns and service dates. */
+    public int getTimetableCount() {
+        return timetableCount;
+    }
+
+    /** @return the time this snapshot was committed in milliseconds since the epoch, or -1 for a buffer. */
+    public long getCommitTime() {
+        return commitTime;
+    }
+
     public boolean isDirty() {
         if (dirty == null) return false;
         return dirty.size() > 0;
@@ -192,6 +334,7 @@ public class TimetableResolver {
 
     public String toString() {
         String d = dirty == null ? "committed" : String.format("%d dirty", dirty.size());
-        return String.format("Timetable snapshot: %d timetables (%s)", timetables.size(), d);
+        return String.format("Timetable snapshot: %d timetables for %d patterns (%s)",
+                timetableCount, timetables.size(), d);
     }
 }
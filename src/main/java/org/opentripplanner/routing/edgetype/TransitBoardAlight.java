@@ -233,6 +233,10 @@ public class TransitBoardAlight extends TablePatternEdge implements OnboardEdge
              * finding today's 25:00 trip we would never find tomorrow's 00:30 trip.
              */
             TripPattern tripPattern = this.getPattern();
+            /* Skip the pattern entirely when none of its services run yesterday, today or tomorrow. */
+            if (tripPattern.services != null && ! rctx.anyServiceRunning(tripPattern.services)) {
+                return null;
+            }
             int bestWait = -1;
             TripTimes  bestTripTimes  = null;
             ServiceDay bestServiceDay = null;
@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlTransient;
@@ -87,6 +88,14 @@ public class TripPattern implements Serializable {
     public static final int NO_PICKUP = 1;
     public static final int FLAG_BIKES_ALLOWED = 32;
 
+    private static final AtomicInteger maxIndex = new AtomicInteger();
+
+    /**
+     * A small integer unique to this pattern within the running JVM, for use as a table index like
+     * Vertex.getIndex(). It is reassigned when the pattern is deserialized.
+     */
+    private transient int index;
+
     /**
      * The GTFS Route of all trips in this pattern. GTFS technically allows the same pattern to appear in more
      * than one route, but we make the assumption that all trips with the same pattern belong to the
@@ -169,6 +178,7 @@ public class TripPattern implements Serializable {
     BitSet services;
 
     public TripPattern(Route route, StopPattern stopPattern) {
+        this.index = maxIndex.getAndIncrement();
         this.route = route;
         this.mode = GtfsLibrary.getTraverseMode(this.route);
         this.stopPattern = stopPattern;
@@ -188,6 +198,7 @@ public class TripPattern implements Serializable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        index = maxIndex.getAndIncrement();
         // The serialized graph contains cyclic references TripPattern <--> Timetable.
         // The Timetable must be indexed from here (rather than in its own readObject method)
         // to ensure that the stops field it uses in TripPattern is already deserialized.
@@ -211,6 +222,11 @@ public class TripPattern implements Serializable {
         }
     }
 
+    /** @return this pattern's unique index, which can serve as an index into a table. */
+    public int getIndex() {
+        return index;
+    }
+
     public Stop getStop(int stopIndex) {
         if (stopIndex == patternHops.length) {
             return patternHops[stopIndex - 1].getEndStop();
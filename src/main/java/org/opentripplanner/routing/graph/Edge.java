@@ -271,4 +271,9 @@ public abstract class Edge implements Serializable {
     	return this.id;
     }
 
+    /** Restores the identifier of an edge read from the columnar street section of a graph file. */
+    protected void setId(int id) {
+        this.id = id;
+    }
+
 }
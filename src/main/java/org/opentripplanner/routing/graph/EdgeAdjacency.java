@@ -0,0 +1,149 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The permanent edges of a set of vertices, frozen into compressed sparse row form: the outgoing
+ * (incoming) edges of the vertex in slot i are outEdges[outStart[i]] to outEdges[outStart[i + 1] - 1].
+ * The edges of all vertices sit in two flat arrays, so a search expanding a vertex walks a slice of
+ * an array instead of asking the vertex for a collection.
+ *
+ * Each vertex keeps a {@link Slot} giving the adjacency it was frozen into and its place there, and
+ * drops its own permanent edge arrays so the edges are held only once. Adding or removing a
+ * permanent edge afterwards copies the slice back into arrays of the vertex and detaches it;
+ * temporary edges never go into the frozen arrays, see {@link Vertex#getTemporaryEdges}.
+ */
+public final class EdgeAdjacency {
+
+    private final int[] outStart;
+
+    private final Edge[] outEdges;
+
+    private final int[] inStart;
+
+    private final Edge[] inEdges;
+
+    private EdgeAdjacency(int[] outStart, Edge[] outEdges, int[] inStart, Edge[] inEdges) {
+        this.outStart = outStart;
+        this.outEdges = outEdges;
+        this.inStart = inStart;
+        this.inEdges = inEdges;
+    }
+
+    /**
+     * Freeze the permanent edges of the given vertices and attach each vertex to the result. A
+     * vertex whose edges change while this runs is left detached.
+     */
+    public static EdgeAdjacency freeze(Collection<Vertex> vertices) {
+        List<Vertex> slots = new ArrayList<Vertex>(vertices);
+        int n = slots.size();
+        int[] changes = new int[n];
+        Edge[][] outgoing = new Edge[n][];
+        Edge[][] incoming = new Edge[n][];
+        int[] outStart = new int[n + 1];
+        int[] inStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            // read the change count first, so that any later change keeps the vertex detached
+            changes[i] = slots.get(i).getPermanentChanges();
+            // the vertex replaces rather than modifies these arrays, so they cannot change under us
+            outgoing[i] = slots.get(i).getPermanentEdges(false);
+            incoming[i] = slots.get(i).getPermanentEdges(true);
+            outStart[i + 1] = outStart[i] + outgoing[i].length;
+            inStart[i + 1] = inStart[i] + incoming[i].length;
+        }
+        Edge[] outEdges = new Edge[outStart[n]];
+        Edge[] inEdges = new Edge[inStart[n]];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(outgoing[i], 0, outEdges, outStart[i], outgoing[i].length);
+            System.arraycopy(incoming[i], 0, inEdges, inStart[i], incoming[i].length);
+        }
+        EdgeAdjacency adjacency = new EdgeAdjacency(outStart, outEdges, inStart, inEdges);
+        for (int i = 0; i < n; i++) {
+            slots.get(i).attachAdjacency(new Slot(adjacency, i), changes[i]);
+        }
+        return adjacency;
+    }
+
+    /** @return the array holding the incoming or outgoing edges of all vertices. */
+    public Edge[] getEdges(boolean incoming) {
+        return incoming ? inEdges : outEdges;
+    }
+
+    /** @return the index in getEdges(incoming) of the first edge of the vertex in the given slot. */
+    public int getStart(int slot, boolean incoming) {
+        return incoming ? inStart[slot] : outStart[slot];
+    }
+
+    /** @return the index in getEdges(incoming) after the last edge of the vertex in the given slot. */
+    public int getEnd(int slot, boolean incoming) {
+        return incoming ? inStart[slot + 1] : outStart[slot + 1];
+    }
+
+    public int getVertexCount() {
+        return outStart.length - 1;
+    }
+
+    public int getEdgeCount() {
+        return outEdges.length;
+    }
+
+    /**
+     * The place of one vertex in a frozen adjacency. Vertices publish it as a single immutable
+     * object, so a search never sees the adjacency of one freeze with the slot of another.
+     */
+    public static final class Slot {
+
+        public final EdgeAdjacency adjacency;
+
+        public final int index;
+
+        Slot(EdgeAdjacency adjacency, int index) {
+            this.adjacency = adjacency;
+            this.index = index;
+        }
+
+        /** @return the index in adjacency.getEdges(incoming) of the first edge of the vertex. */
+        public int getStart(boolean incoming) {
+            return adjacency.getStart(index, incoming);
+        }
+
+        /** @return the index in adjacency.getEdges(incoming) after the last edge of the vertex. */
+        public int getEnd(boolean incoming) {
+            return adjacency.getEnd(index, incoming);
+        }
+
+        public int getDegree(boolean incoming) {
+            return getEnd(incoming) - getStart(incoming);
+        }
+
+        /** @return a view of the edges of the vertex rather than a copy, which must not be modified. */
+        List<Edge> getEdgeList(boolean incoming) {
+            return Arrays.asList(adjacency.getEdges(incoming)).subList(getStart(incoming),
+                    getEnd(incoming));
+        }
+
+        /** @return a copy of the edges of the vertex. */
+        Edge[] copyEdges(boolean incoming) {
+            return Arrays.copyOfRange(adjacency.getEdges(incoming), getStart(incoming),
+                    getEnd(incoming));
+        }
+
+    }
+
+}
@@ -15,6 +15,9 @@ package org.opentripplanner.routing.graph;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -23,7 +26,7 @@ import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.ObjectStreamClass;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -38,6 +41,9 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.prefs.Preferences;
 
 import com.google.common.collect.*;
@@ -73,10 +79,13 @@ import org.opentripplanner.routing.vertextype.PatternArriveVertex;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.MappedFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -92,6 +101,24 @@ public class Graph implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Graph.class);
 
+    /** Marks the start of a serialized graph ("OTPG"), so foreign files are rejected before any class is resolved. */
+    public static final int GRAPH_FILE_MAGIC = 0x4F545047;
+
+    /**
+     * Version of the on-disk layout written by {@link #save(OutputStream)}. Bump this whenever the layout
+     * of the header, of the street section or of the sections following the Graph object changes.
+     */
+    public static final int GRAPH_FILE_FORMAT_VERSION = 4;
+
+    /** Buffer size used when reading or writing graph files. Default-sized buffers make (de)serialization I/O bound. */
+    private static final int GRAPH_FILE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The pool graphs are indexed on. It is shared by all graphs, so that loading or reloading a graph does not start
+     * and stop a set of worker threads each time; the workers are daemon threads and go away when idle.
+     */
+    private static final ForkJoinPool INDEXING_POOL = new ForkJoinPool();
+
     // TODO Remove this field, use Router.routerId ?
     public String routerId;
 
@@ -634,34 +661,37 @@ public class Graph implements Serializable {
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), GRAPH_FILE_BUFFER_SIZE);
+        try {
+            return load(in, level);
+        } finally {
+            in.close();
+        }
     }
 
+    /* deserialization for org.opentripplanner.customize */
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)), classLoader);
-        return load(in, level);
-    }
-
-    public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
-            IOException {
-        return load(new ObjectInputStream(is), level);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), GRAPH_FILE_BUFFER_SIZE);
+        try {
+            return load(in, level, new DefaultStreetVertexIndexFactory(), classLoader);
+        } finally {
+            in.close();
+        }
     }
 
     /**
      * Default load. Uses DefaultStreetVertexIndexFactory.
-     * @param in
+     * @param is
      * @param level
      * @return
      * @throws IOException
      * @throws ClassNotFoundException
      */
-    public static Graph load(ObjectInputStream in, LoadLevel level) throws IOException,
-            ClassNotFoundException {
-        return load(in, level, new DefaultStreetVertexIndexFactory());
+    public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
+            IOException {
+        return load(is, level, new DefaultStreetVertexIndexFactory());
     }
     
     /** 
@@ -669,38 +699,162 @@ public class Graph implements Serializable {
      * This used to be done in readObject methods upon deserialization, but stand-alone mode now
      * allows passing graphs from graphbuilder to server in memory, without a round trip through
      * serialization. 
+     *
+     * The street index, the vertex and edge ID maps, the timetable summaries and the GraphIndex
+     * do not depend on one another, so they are built concurrently on a ForkJoinPool sized to the
+     * number of available cores and shared by all graphs. Each phase logs its own duration.
      * TODO: do we really need a factory for different street vertex indexes?
      */
-    public void index(StreetVertexIndexFactory indexFactory) {
-        streetIndex = indexFactory.newIndex(this);
-        LOG.debug("street index built.");
-        LOG.debug("Rebuilding edge and vertex indices.");
-        rebuildVertexAndEdgeIndices();
+    public void index(final StreetVertexIndexFactory indexFactory) {
+        final ForkJoinPool pool = INDEXING_POOL;
+        LOG.info("Indexing graph with parallelism {}...", pool.getParallelism());
+        long startTime = System.currentTimeMillis();
+        List<ForkJoinTask<?>> phases = Lists.newArrayList();
+        phases.add(pool.submit(new IndexingPhase("street index") {
+            @Override
+            void run() {
+                streetIndex = indexFactory.newIndex(Graph.this);
+            }
+        }));
+        phases.add(pool.submit(new IndexingPhase("vertex and edge ids") {
+            @Override
+            void run() {
+                rebuildVertexAndEdgeIndices();
+            }
+        }));
+        phases.add(pool.submit(new IndexingPhase("timetables") {
+            @Override
+            void run() {
+                List<TripPattern> tableTripPatterns = Lists.newArrayList(getTableTripPatterns());
+                new FinishTimetables(tableTripPatterns, 0, tableTripPatterns.size()).invoke();
+            }
+        }));
+        // TODO: Move the timetable stuff into the graph index
+        phases.add(pool.submit(new IndexingPhase("graph index") {
+            @Override
+            void run() {
+                index = new GraphIndex(Graph.this, pool);
+            }
+        }));
+        // join() rethrows any exception thrown in a phase
+        for (ForkJoinTask<?> phase : phases) {
+            phase.join();
+        }
+        freezeAdjacency();
+        // the transit layer reads the finished timetables, so it waits for all the phases above
+        index.buildTransitLayer();
+        LOG.info("Graph indexed in {} msec.", System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Freeze the permanent edges of all vertices into a compressed sparse row adjacency that
+     * searches iterate instead of the per-vertex edge lists. Vertices whose permanent edges change
+     * later fall back to their own lists until the graph is frozen again, so this only needs to be
+     * called again after large modifications, and not while searches are running.
+     */
+    public void freezeAdjacency() {
+        long startTime = System.currentTimeMillis();
+        EdgeAdjacency adjacency = EdgeAdjacency.freeze(getVertices());
+        LOG.info("Froze the adjacency of {} vertices and {} edges in {} msec.",
+                adjacency.getVertexCount(), adjacency.getEdgeCount(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    private Set<TripPattern> getTableTripPatterns() {
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
         for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
-            tableTripPatterns.add(pav.getTripPattern());
+            TripPattern ttp = pav.getTripPattern();
+            if (ttp != null) tableTripPatterns.add(ttp); // skip frequency-based patterns with no table (null)
+        }
+        return tableTripPatterns;
+    }
+
+    /** One independent step of {@link #index(StreetVertexIndexFactory)}, logging its own duration. */
+    private static abstract class IndexingPhase extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        IndexingPhase(String name) {
+            this.name = name;
         }
-        for (TripPattern ttp : tableTripPatterns) {
-            if (ttp != null) ttp.scheduledTimetable.finish(); // skip frequency-based patterns with no table (null)
+
+        abstract void run();
+
+        @Override
+        protected void compute() {
+            long t0 = System.currentTimeMillis();
+            run();
+            LOG.info("Indexing phase '{}' finished in {} msec.", name, System.currentTimeMillis() - t0);
+        }
+    }
+
+    /** Finishes the scheduled timetables of a range of patterns, splitting the range in half until it is small. */
+    private static class FinishTimetables extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private static final int SEQUENTIAL_THRESHOLD = 256;
+
+        private final List<TripPattern> patterns;
+
+        private final int from, to;
+
+        FinishTimetables(List<TripPattern> patterns, int from, int to) {
+            this.patterns = patterns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    patterns.get(i).scheduledTimetable.finish();
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FinishTimetables(patterns, from, mid),
+                        new FinishTimetables(patterns, mid, to));
+            }
         }
-        // TODO: Move this ^ stuff into the graph index
-        this.index = new GraphIndex(this);
     }
     
     /**
      * Loading which allows you to specify StreetVertexIndexFactory and inject other implementation.
-     * @param in
+     * The stream is buffered here unless it is already buffered, or is a MappedFileInputStream: the street
+     * geometries of a mapped file are then left in the mapping, see {@link StreetSection}.
+     * @param is
      * @param level
      * @param indexFactory
      * @return
      * @throws IOException
      * @throws ClassNotFoundException
      */
-    @SuppressWarnings("unchecked")
-    public static Graph load(ObjectInputStream in, LoadLevel level,
+    public static Graph load(InputStream is, LoadLevel level,
             StreetVertexIndexFactory indexFactory) throws IOException, ClassNotFoundException {
+        return load(is, level, indexFactory, null);
+    }
+
+    /** @param classLoader the class loader to resolve the classes of the object section with, or null */
+    private static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory,
+            ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        MappedFileInputStream mapped = null;
+        if (is instanceof MappedFileInputStream) {
+            mapped = (MappedFileInputStream) is;
+        } else if (!(is instanceof BufferedInputStream)) {
+            is = new BufferedInputStream(is, GRAPH_FILE_BUFFER_SIZE);
+        }
         try {
-            Graph graph = (Graph) in.readObject();
+            GraphFileHeader header = GraphFileHeader.read(new DataInputStream(is));
+            // the objects refer to the street network, so it is read first even for LoadLevel.BASIC
+            LOG.debug("Loading street section of {} bytes...", header.streetSectionLength);
+            InputStream section = ByteStreams.limit(is, header.streetSectionLength);
+            StreetSection streets = StreetSection.read(new DataInputStream(section), mapped);
+            if (section.read() != -1) {
+                throw new IllegalStateException("Street section is longer than announced in the graph file header.");
+            }
+            ObjectInputStream objects = streets.objectInput(is, classLoader);
+            Graph graph = (Graph) objects.readObject();
             LOG.debug("Basic graph info read.");
             if (graph.graphVersionMismatch())
                 throw new RuntimeException("Graph version mismatch detected.");
@@ -709,9 +863,18 @@ public class Graph implements Serializable {
             // vertex edge lists are transient to avoid excessive recursion depth
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
-            List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
+            Edge[] edges = (Edge[]) objects.readObject();
+            if (streets.getEdgeCount() + edges.length != header.edgeCount) {
+                throw new IllegalStateException(String.format(
+                        "Graph file header announces %d edges but %d were read.",
+                        header.edgeCount, streets.getEdgeCount() + edges.length));
+            }
+            // Presize the vertex map from the header to avoid rehashing millions of entries.
+            graph.vertices = new HashMap<String, Vertex>((int) (header.vertexCount / 0.75f) + 1);
+            // every vertex of the street section has edges
+            for (Vertex v : streets.vertices) {
+                graph.vertices.put(v.getLabel(), v);
+            }
             for (Edge e : edges) {
                 graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
                 graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
@@ -725,7 +888,7 @@ public class Graph implements Serializable {
             }
             
             if (graph.debugData) {
-                graph.graphBuilderAnnotations = (List<GraphBuilderAnnotation>) in.readObject();
+                graph.graphBuilderAnnotations = readAnnotations(objects);
                 LOG.debug("Debug info read.");
             } else {
                 LOG.warn("Graph file does not contain debug data.");
@@ -737,6 +900,62 @@ public class Graph implements Serializable {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static List<GraphBuilderAnnotation> readAnnotations(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        return (List<GraphBuilderAnnotation>) in.readObject();
+    }
+
+    /**
+     * The fixed-size header written in front of the serialized graph. It is read with primitive reads only, so an
+     * incompatible or foreign file is detected before any class needs to be resolved or any object is allocated,
+     * and it announces the sizes needed to presize the load-time collections.
+     */
+    private static class GraphFileHeader {
+
+        int vertexCount;
+
+        int edgeCount;
+
+        /** Length in bytes of the street section, which immediately follows the header. */
+        long streetSectionLength;
+
+        static void write(DataOutputStream out, int vertexCount, int edgeCount, long streetSectionLength)
+                throws IOException {
+            out.writeInt(GRAPH_FILE_MAGIC);
+            out.writeInt(GRAPH_FILE_FORMAT_VERSION);
+            out.writeInt(vertexCount);
+            out.writeInt(edgeCount);
+            out.writeLong(streetSectionLength);
+        }
+
+        static GraphFileHeader read(DataInputStream in) throws IOException {
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                magic = 0; // the stream is empty
+            }
+            if (magic != GRAPH_FILE_MAGIC) {
+                LOG.error("Input is not an OTP graph file, or was written by an OTP version predating graph file headers.");
+                throw new IllegalStateException("Not an OTP graph file (bad magic number).");
+            }
+            int version = in.readInt();
+            if (version != GRAPH_FILE_FORMAT_VERSION) {
+                LOG.error("Graph file format version is {}, this version of OTP reads version {}. Please rebuild the graph.",
+                        version, GRAPH_FILE_FORMAT_VERSION);
+                throw new IllegalStateException("Graph file format version mismatch.");
+            }
+            GraphFileHeader header = new GraphFileHeader();
+            header.vertexCount = in.readInt();
+            header.edgeCount = in.readInt();
+            header.streetSectionLength = in.readLong();
+            LOG.debug("Graph file header: format version {}, |V|={} |E|={}", version,
+                    header.vertexCount, header.edgeCount);
+            return header;
+        }
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -773,8 +992,7 @@ public class Graph implements Serializable {
     public void save(File file) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
-        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), GRAPH_FILE_BUFFER_SIZE);
         try {
             save(out);
             out.close();
@@ -785,53 +1003,58 @@ public class Graph implements Serializable {
         }
     }
 
-    public void save(ObjectOutputStream out) throws IOException {
+    /**
+     * Write this graph to a stream. After a fixed header, the street network is written as a raw block of columns
+     * (see {@link StreetSection}) whose length is given in the header, then the Graph object and the remaining
+     * edges are written with Java serialization, followed by the debug data if any. The stream is flushed but not
+     * closed.
+     */
+    public void save(OutputStream out) throws IOException {
         LOG.debug("Consolidating edges...");
-        // this is not space efficient
-        List<Edge> edges = new ArrayList<Edge>(this.countEdges());
+        StreetSection streets = new StreetSection(getVertices());
+        // A plain array avoids the ArrayList wrapper and its growth copies, on both sides of the stream.
+        Edge[] edges = new Edge[this.countEdges() - streets.getEdgeCount()];
+        int nEdges = 0;
+        int nVertices = 0;
         for (Vertex v : getVertices()) {
             // there are assumed to be no edges in an incoming list that are not
             // in an outgoing list
-            edges.addAll(v.getOutgoing());
+            for (Edge e : v.getOutgoing()) {
+                if (!streets.contains(e))
+                    edges[nEdges++] = e;
+            }
             if (v.getDegreeOut() + v.getDegreeIn() == 0)
                 LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+            else
+                nVertices++;
         }
         LOG.debug("Assigning vertex/edge ID numbers...");
         this.rebuildVertexAndEdgeIndices();
+        // the length of the section goes in the header, so it is written once to a counter first
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        streets.write(new DataOutputStream(counter));
+        DataOutputStream data = new DataOutputStream(out);
+        GraphFileHeader.write(data, nVertices, nEdges + streets.getEdgeCount(), counter.getCount());
+        LOG.debug("Writing street section: {} vertices, {} edges, {} bytes...", streets.vertices.length,
+                streets.getEdgeCount(), counter.getCount());
+        streets.write(data);
         LOG.debug("Writing edges...");
-        out.writeObject(this);
-        out.writeObject(edges);
+        ObjectOutputStream objects = streets.objectOutput(out);
+        objects.writeObject(this);
+        objects.writeObject(edges);
         if (debugData) {
             // should we make debug info generation conditional?
             LOG.debug("Writing debug data...");
-            out.writeObject(this.graphBuilderAnnotations);
-            out.writeObject(this.vertexById);
-            out.writeObject(this.edgeById);
+            objects.writeObject(this.graphBuilderAnnotations);
+            objects.writeObject(this.vertexById);
+            objects.writeObject(this.edgeById);
         } else {
             LOG.debug("Skipping debug data.");
         }
+        objects.flush();
         LOG.info("Graph written.");
     }
 
-    /* deserialization for org.opentripplanner.customize */
-    private static class GraphObjectInputStream extends ObjectInputStream {
-        ClassLoader classLoader;
-
-        public GraphObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
-            super(in);
-            this.classLoader = classLoader;
-        }
-
-        @Override
-        public Class<?> resolveClass(ObjectStreamClass osc) {
-            try {
-                return Class.forName(osc.getName(), false, classLoader);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
-
     public Integer getIdForEdge(Edge edge) {
         return edge.getId();
     }
@@ -1,10 +1,13 @@
 package org.opentripplanner.routing.graph;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.joda.time.LocalDate;
 import org.onebusaway.gtfs.model.Agency;
@@ -22,9 +25,11 @@ import org.opentripplanner.common.model.P2;
 import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.index.model.TripTimeShort;
 import org.opentripplanner.profile.ProfileTransfer;
+import org.opentripplanner.profile.RaptorData;
 import org.opentripplanner.profile.StopCluster;
 import org.opentripplanner.profile.StopNameNormalizer;
 import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.profile.TransitLayer;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
@@ -36,6 +41,9 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
@@ -93,27 +101,81 @@ public class GraphIndex {
     /** Used for finding first/last trip of the day. This is the time at which service ends for the day. */
     public final int overnightBreak = 60 * 60 * 2; // FIXME not being set, this was done in transitIndex
 
-    /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
-    private transient StopTreeCache stopTreeCache = null;
+    /** The transit network flattened into int arrays, shared by the profile and analyst routers. */
+    private transient TransitLayer transitLayer = null;
+
+    /** The number of service days whose RaptorData is kept, see getRaptorData. */
+    private static final int RAPTOR_DATA_CACHE_SIZE = 8;
+
+    /* The scheduled trips of the transit layer running on each recently requested day, replaced with the layer. */
+    private transient LoadingCache<LocalDate, RaptorData> raptorDataForDate = null;
 
     public GraphIndex (Graph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Build the index. The independent indexing phases run on the given ForkJoinPool when one is supplied, or
+     * sequentially on the calling thread otherwise. Each phase only writes to its own maps, and joining the
+     * phases makes their results visible to the caller.
+     */
+    public GraphIndex (final Graph graph, ForkJoinPool pool) {
         LOG.info("Indexing graph...");
+        long startTime = System.currentTimeMillis();
         for (Agency a : graph.getAgencies()) {
             agencyForId.put(a.getId(), a);
         }
-        Collection<Edge> edges = graph.getEdges();
         /* We will keep a separate set of all vertices in case some have the same label. 
-         * Maybe we should just guarantee unique labels. */
-        Set<Vertex> vertices = Sets.newHashSet();
-        for (Edge edge : edges) {
-            vertices.add(edge.getFromVertex());
-            vertices.add(edge.getToVertex());
-            if (edge instanceof TablePatternEdge) {
-                TablePatternEdge patternEdge = (TablePatternEdge) edge;
-                TripPattern pattern = patternEdge.getPattern();
-                patternForId.put(pattern.code, pattern);
+         * Maybe we should just guarantee unique labels.
+         * Every edge is assumed to appear in exactly one outgoing edge list, so walking those lists visits
+         * each edge once without first collecting all edges into a set. */
+        final Set<Vertex> vertices = Sets.newHashSet();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge edge : v.getOutgoing()) {
+                vertices.add(edge.getFromVertex());
+                vertices.add(edge.getToVertex());
+                if (edge instanceof TablePatternEdge) {
+                    TablePatternEdge patternEdge = (TablePatternEdge) edge;
+                    TripPattern pattern = patternEdge.getPattern();
+                    patternForId.put(pattern.code, pattern);
+                }
             }
         }
+        LOG.info("Scanned edges in {} msec.", System.currentTimeMillis() - startTime);
+        Runnable indexStops = new Runnable() {
+            @Override
+            public void run() {
+                long t0 = System.currentTimeMillis();
+                indexVertices(vertices);
+                LOG.info("Indexed vertices and stops in {} msec.", System.currentTimeMillis() - t0);
+            }
+        };
+        Runnable indexPatterns = new Runnable() {
+            @Override
+            public void run() {
+                long t0 = System.currentTimeMillis();
+                indexPatterns();
+                LOG.info("Indexed patterns, routes and trips in {} msec.", System.currentTimeMillis() - t0);
+            }
+        };
+        if (pool == null) {
+            indexStops.run();
+            indexPatterns.run();
+        } else {
+            ForkJoinTask<?> stopsTask = pool.submit(indexStops);
+            ForkJoinTask<?> patternsTask = pool.submit(indexPatterns);
+            stopsTask.join();
+            patternsTask.join();
+        }
+
+        // Copy these two service indexes from the graph until we have better ones.
+        calendarService = graph.getCalendarService();
+        serviceCodes = graph.serviceCodes;
+        this.graph = graph;
+        LOG.info("Done indexing graph in {} msec.", System.currentTimeMillis() - startTime);
+    }
+
+    private void indexVertices(Collection<Vertex> vertices) {
         for (Vertex vertex : vertices) {
             vertexForId.put(vertex.getLabel(), vertex);
             if (vertex instanceof TransitStop) {
@@ -128,6 +190,9 @@ public class GraphIndex {
             Envelope envelope = new Envelope(stopVertex.getCoordinate());
             stopSpatialIndex.insert(envelope, stopVertex);
         }
+    }
+
+    private void indexPatterns() {
         for (TripPattern pattern : patternForId.values()) {
             patternsForAgency.put(pattern.route.getAgency(), pattern);
             patternsForRoute.put(pattern.route, pattern);
@@ -142,12 +207,6 @@ public class GraphIndex {
         for (Route route : patternsForRoute.asMap().keySet()) {
             routeForId.put(route.getId(), route);
         }
-
-        // Copy these two service indexes from the graph until we have better ones.
-        calendarService = graph.getCalendarService();
-        serviceCodes = graph.serviceCodes;
-        this.graph = graph;
-        LOG.info("Done indexing graph.");
     }
 
     /**
@@ -332,14 +391,68 @@ public class GraphIndex {
         return ret;
     }
 
-    /** Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed. */
+    /**
+     * Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed.
+     * The cache is a graph service, so one built during graph building is saved and loaded with the graph.
+     */
     public StopTreeCache getStopTreeCache() {
         synchronized (this) {
+            StopTreeCache stopTreeCache = graph.getService(StopTreeCache.class);
             if (stopTreeCache == null) {
-                stopTreeCache = new StopTreeCache(graph, 20); // TODO make this max-distance variable
+                // TODO make this max-distance variable
+                stopTreeCache = new StopTreeCache(graph, Arrays.asList(getTransitLayer().stopVertices),
+                        StopTreeCache.DEFAULT_CUTOFF_MINUTES);
+                graph.putService(StopTreeCache.class, stopTreeCache);
+            }
+            return stopTreeCache;
+        }
+    }
+
+    /**
+     * Build the flat transit data used by profile and analyst routing, replacing any previous one. This reads the
+     * scheduled timetables, so it must run once they are finished, which Graph.index() takes care of.
+     */
+    public void buildTransitLayer() {
+        long startTime = System.currentTimeMillis();
+        final TransitLayer layer = new TransitLayer(this);
+        LoadingCache<LocalDate, RaptorData> raptorData = CacheBuilder.newBuilder()
+                .maximumSize(RAPTOR_DATA_CACHE_SIZE)
+                .build(new CacheLoader<LocalDate, RaptorData>() {
+                    @Override
+                    public RaptorData load(LocalDate date) {
+                        return new RaptorData(layer, servicesRunning(date));
+                    }
+                });
+        synchronized (this) {
+            transitLayer = layer;
+            raptorDataForDate = raptorData;
+        }
+        LOG.info("Built the transit layer of {} stops and {} patterns in {} msec.", layer.getStopCount(),
+                layer.getPatternCount(), System.currentTimeMillis() - startTime);
+    }
+
+    /** Fetch the flat transit data for this graph, lazy-building it if the graph was not indexed by Graph.index(). */
+    public TransitLayer getTransitLayer() {
+        synchronized (this) {
+            if (transitLayer == null) {
+                buildTransitLayer();
             }
         }
-        return stopTreeCache;
+        return transitLayer;
+    }
+
+    /**
+     * Fetch the scheduled trips of the transit layer running on a service day, extracting them on the first request
+     * for that day. The views of the most recently requested days are kept, as every search of a profile request
+     * and every request on the same day use the same one.
+     */
+    public RaptorData getRaptorData(LocalDate date) {
+        LoadingCache<LocalDate, RaptorData> raptorData;
+        synchronized (this) {
+            getTransitLayer();
+            raptorData = raptorDataForDate;
+        }
+        return raptorData.getUnchecked(date);
     }
 
     /**
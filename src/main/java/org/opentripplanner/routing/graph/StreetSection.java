@@ -0,0 +1,273 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.MappedFileInputStream;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The street network of a graph file, written as tables of primitive columns instead of Java serialized objects.
+ * Street intersections and the street edges between them make up the bulk of a graph, and reading them as columns
+ * avoids reflection and the object handle table of ObjectInputStream, which holds on to every object read until the
+ * end of the stream. Street names and geometries are written once each, so that the two directions of a street keep
+ * sharing them after loading.
+ *
+ * The section holds the vertices of class IntersectionVertex that have edges, and the edges of class StreetEdge or
+ * StreetWithElevationEdge between two of them. All other vertices and edges (transit, links, subclasses, translated
+ * names) are written with Java serialization in the object section that follows, where references to the vertices
+ * and edges of this section are written as their positions in it, see {@link #objectOutput(OutputStream)}.
+ *
+ * The section is written as a raw block before the object section rather than inside its block-data framing, so
+ * that its columns are contiguous in the file: when the file is mapped, the table of street geometries is left in
+ * the mapping and each geometry is only read when it is needed.
+ */
+class StreetSection {
+
+    final IntersectionVertex[] vertices;
+
+    final StreetEdge[] streetEdges;
+
+    final StreetEdge[] elevationEdges;
+
+    /* When writing, the position of each vertex in the section by vertex index, or -1, and of each edge. */
+    private final int[] positionForVertexIndex;
+
+    private final Map<Edge, Integer> positionForEdge;
+
+    /** Select the street network among the given vertices and their outgoing edges, for writing. */
+    StreetSection(Collection<Vertex> graphVertices) {
+        positionForVertexIndex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(positionForVertexIndex, -1);
+        List<IntersectionVertex> vertexList = Lists.newArrayList();
+        for (Vertex v : graphVertices) {
+            if (v.getClass() == IntersectionVertex.class && v.getDegreeOut() + v.getDegreeIn() > 0) {
+                positionForVertexIndex[v.getIndex()] = vertexList.size();
+                vertexList.add((IntersectionVertex) v);
+            }
+        }
+        List<StreetEdge> streetList = Lists.newArrayList();
+        List<StreetEdge> elevationList = Lists.newArrayList();
+        for (IntersectionVertex v : vertexList) {
+            for (Edge e : v.getPermanentEdges(false)) {
+                if (e.translatedName != null || positionForVertexIndex[e.getToVertex().getIndex()] < 0) continue;
+                if (e.getClass() == StreetEdge.class) {
+                    streetList.add((StreetEdge) e);
+                } else if (e.getClass() == StreetWithElevationEdge.class) {
+                    elevationList.add((StreetEdge) e);
+                }
+            }
+        }
+        vertices = vertexList.toArray(new IntersectionVertex[vertexList.size()]);
+        streetEdges = streetList.toArray(new StreetEdge[streetList.size()]);
+        elevationEdges = elevationList.toArray(new StreetEdge[elevationList.size()]);
+        positionForEdge = new IdentityHashMap<Edge, Integer>(getEdgeCount());
+        for (int i = 0; i < streetEdges.length; i++) {
+            positionForEdge.put(streetEdges[i], i);
+        }
+        for (int i = 0; i < elevationEdges.length; i++) {
+            positionForEdge.put(elevationEdges[i], streetEdges.length + i);
+        }
+    }
+
+    private StreetSection(IntersectionVertex[] vertices, StreetEdge[] streetEdges, StreetEdge[] elevationEdges) {
+        this.vertices = vertices;
+        this.streetEdges = streetEdges;
+        this.elevationEdges = elevationEdges;
+        this.positionForVertexIndex = null;
+        this.positionForEdge = null;
+    }
+
+    int getEdgeCount() {
+        return streetEdges.length + elevationEdges.length;
+    }
+
+    boolean contains(Edge e) {
+        return positionForEdge.containsKey(e);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(vertices.length);
+        for (IntersectionVertex v : vertices) {
+            out.writeUTF(v.getLabel());
+        }
+        // vertex names are mostly street names, so they go in a table of distinct names
+        Map<String, Integer> positionForName = new HashMap<String, Integer>();
+        for (IntersectionVertex v : vertices) {
+            if (v.getName() != null && !positionForName.containsKey(v.getName())) {
+                positionForName.put(v.getName(), positionForName.size());
+            }
+        }
+        String[] names = new String[positionForName.size()];
+        for (Map.Entry<String, Integer> entry : positionForName.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+        for (IntersectionVertex v : vertices) {
+            out.writeInt(v.getName() == null ? -1 : positionForName.get(v.getName()));
+        }
+        for (IntersectionVertex v : vertices) {
+            out.writeDouble(v.getX());
+        }
+        for (IntersectionVertex v : vertices) {
+            out.writeDouble(v.getY());
+        }
+        for (IntersectionVertex v : vertices) {
+            out.writeByte((v.trafficLight ? 1 : 0) | (v.freeFlowing ? 2 : 0));
+        }
+        StreetEdge.writeColumns(out, streetEdges, false, positionForVertexIndex);
+        StreetEdge.writeColumns(out, elevationEdges, true, positionForVertexIndex);
+    }
+
+    /**
+     * @param file the mapped graph file in is reading from without buffering, to leave the street geometries in the
+     *        mapping, or null to read them onto the heap
+     */
+    static StreetSection read(DataInput in, MappedFileInputStream file) throws IOException {
+        int n = in.readInt();
+        String[] labels = new String[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = in.readUTF();
+        }
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        int[] namePositions = new int[n];
+        for (int i = 0; i < n; i++) {
+            namePositions[i] = in.readInt();
+        }
+        double[] xs = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = in.readDouble();
+        }
+        IntersectionVertex[] vertices = new IntersectionVertex[n];
+        for (int i = 0; i < n; i++) {
+            // a null graph: the vertex map is rebuilt once all the edges are read
+            String name = namePositions[i] < 0 ? null : names[namePositions[i]];
+            vertices[i] = new IntersectionVertex(null, labels[i], xs[i], in.readDouble(), name);
+        }
+        for (IntersectionVertex v : vertices) {
+            byte flags = in.readByte();
+            v.trafficLight = (flags & 1) != 0;
+            v.freeFlowing = (flags & 2) != 0;
+        }
+        StreetEdge[] streetEdges = StreetEdge.readColumns(in, vertices, false, file);
+        StreetEdge[] elevationEdges = StreetEdge.readColumns(in, vertices, true, file);
+        return new StreetSection(vertices, streetEdges, elevationEdges);
+    }
+
+    /**
+     * @return a stream over out for the object section of the graph file, writing the vertices and edges of this
+     *         section as their positions. The caller must flush it, and must not close it unless out is to be closed.
+     */
+    ObjectOutputStream objectOutput(OutputStream out) throws IOException {
+        return new ReplacingOutputStream(out);
+    }
+
+    /**
+     * @return a stream over in for the object section of the graph file, resolving the positions written by
+     *         objectOutput to the vertices and edges of this section.
+     * @param classLoader the class loader to resolve classes with, or null for the default
+     */
+    ObjectInputStream objectInput(InputStream in, ClassLoader classLoader) throws IOException {
+        return new ResolvingInputStream(in, classLoader);
+    }
+
+    private Object get(int position) {
+        if (position < vertices.length) return vertices[position];
+        position -= vertices.length;
+        if (position < streetEdges.length) return streetEdges[position];
+        return elevationEdges[position - streetEdges.length];
+    }
+
+    /** Stands for a vertex or edge of the section in the object section: vertices come first, then edges. */
+    private static class Ref implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int position;
+
+        Ref(int position) {
+            this.position = position;
+        }
+    }
+
+    private class ReplacingOutputStream extends ObjectOutputStream {
+
+        ReplacingOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj instanceof IntersectionVertex) {
+                int index = ((Vertex) obj).getIndex();
+                if (index < positionForVertexIndex.length) {
+                    int position = positionForVertexIndex[index];
+                    if (position >= 0 && vertices[position] == obj) return new Ref(position);
+                }
+            } else if (obj instanceof StreetEdge) {
+                Integer position = positionForEdge.get(obj);
+                if (position != null) return new Ref(vertices.length + position);
+            }
+            return obj;
+        }
+    }
+
+    private class ResolvingInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        ResolvingInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader == null) return super.resolveClass(desc);
+            return Class.forName(desc.getName(), false, classLoader);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            return obj instanceof Ref ? get(((Ref) obj).position) : obj;
+        }
+    }
+
+}
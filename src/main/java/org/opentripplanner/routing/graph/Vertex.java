@@ -25,6 +25,7 @@ import javax.xml.bind.annotation.XmlTransient;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.common.geometry.DirectionUtils;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,9 +54,23 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private final double y;
     
-    private transient Edge[] incoming = new Edge[0];
+    private static final Edge[] NO_EDGES = new Edge[0];
 
-    private transient Edge[] outgoing = new Edge[0];
+    /* permanent edges, or null while they are held by the frozen adjacency instead */
+    private transient volatile Edge[] incoming = NO_EDGES;
+
+    private transient volatile Edge[] outgoing = NO_EDGES;
+
+    /* edges added for the requests in progress, kept apart so they never touch the frozen adjacency */
+    private transient Edge[] temporaryIncoming = NO_EDGES;
+
+    private transient Edge[] temporaryOutgoing = NO_EDGES;
+
+    /* the slot of the frozen adjacency holding the permanent edges, or null if they changed since */
+    private transient volatile EdgeAdjacency.Slot adjacencySlot;
+
+    /* number of changes to the permanent edges, for detecting changes while the graph is frozen */
+    private transient int permanentChanges;
 
     
     /* CONSTRUCTORS */
@@ -142,32 +157,54 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     public void addOutgoing(Edge edge) {
         synchronized (this) {
-            outgoing = addEdge(outgoing, edge);
+            if (edge instanceof TemporaryEdge) {
+                temporaryOutgoing = addEdge(temporaryOutgoing, edge);
+            } else {
+                outgoing = addEdge(getPermanentEdges(false), edge);
+                detachAdjacency();
+            }
         }
     }
 
     /** @return whether the edge was found and removed. */
     public boolean removeOutgoing(Edge edge) {
         synchronized (this) {
-            int n = outgoing.length;
-            outgoing = removeEdge(outgoing, edge);
-            return (outgoing.length < n);
+            if (edge instanceof TemporaryEdge) {
+                int n = temporaryOutgoing.length;
+                temporaryOutgoing = removeEdge(temporaryOutgoing, edge);
+                return (temporaryOutgoing.length < n);
+            }
+            Edge[] existing = getPermanentEdges(false);
+            outgoing = removeEdge(existing, edge);
+            detachAdjacency();
+            return (outgoing.length < existing.length);
         }
     }
 
 
     public void addIncoming(Edge edge) {
         synchronized (this) {
-            incoming = addEdge(incoming, edge);
+            if (edge instanceof TemporaryEdge) {
+                temporaryIncoming = addEdge(temporaryIncoming, edge);
+            } else {
+                incoming = addEdge(getPermanentEdges(true), edge);
+                detachAdjacency();
+            }
         }
     }
 
     /** @return whether the edge was found and removed. */
     public boolean removeIncoming(Edge edge) {
         synchronized (this) {
-            int n = incoming.length;
-            incoming = removeEdge(incoming, edge);
-            return (incoming.length < n);
+            if (edge instanceof TemporaryEdge) {
+                int n = temporaryIncoming.length;
+                temporaryIncoming = removeEdge(temporaryIncoming, edge);
+                return (temporaryIncoming.length < n);
+            }
+            Edge[] existing = getPermanentEdges(true);
+            incoming = removeEdge(existing, edge);
+            detachAdjacency();
+            return (incoming.length < existing.length);
         }
     }
 
@@ -177,22 +214,117 @@ public abstract class Vertex implements Serializable, Cloneable {
      * allows filtering and combining edge lists using stock Collection-based methods.
      */
     public Collection<Edge> getOutgoing() {
-        return Arrays.asList(outgoing);
+        return getEdges(false);
     }
 
     /** Get a collection containing all the edges leading from other vertices to this vertex. */
     public Collection<Edge> getIncoming() {
-        return Arrays.asList(incoming);
+        return getEdges(true);
+    }
+
+    private Collection<Edge> getEdges(boolean incoming) {
+        Edge[] temporary = incoming ? temporaryIncoming : temporaryOutgoing;
+        EdgeAdjacency.Slot slot = adjacencySlot;
+        if (slot != null && temporary.length == 0)
+            return slot.getEdgeList(incoming);
+        return Arrays.asList(concat(getPermanentEdges(incoming), temporary));
+    }
+
+    private static Edge[] concat(Edge[] permanent, Edge[] temporary) {
+        if (temporary.length == 0)
+            return permanent;
+        if (permanent.length == 0)
+            return temporary;
+        Edge[] all = Arrays.copyOf(permanent, permanent.length + temporary.length);
+        System.arraycopy(temporary, 0, all, permanent.length, temporary.length);
+        return all;
     }
 
     @XmlTransient
     public int getDegreeOut() {
-        return outgoing.length;
+        return getPermanentDegree(false) + temporaryOutgoing.length;
     }
 
     @XmlTransient
     public int getDegreeIn() {
-        return incoming.length;
+        return getPermanentDegree(true) + temporaryIncoming.length;
+    }
+
+    private int getPermanentDegree(boolean incoming) {
+        EdgeAdjacency.Slot slot = adjacencySlot;
+        if (slot != null)
+            return slot.getDegree(incoming);
+        return getPermanentEdges(incoming).length;
+    }
+
+    /**
+     * @return the slot of the frozen adjacency holding the permanent edges of this vertex, or null
+     *         if the vertex was never frozen or its permanent edges changed since. Temporary edges
+     *         are never in it.
+     */
+    @XmlTransient
+    public EdgeAdjacency.Slot getAdjacencySlot() {
+        return adjacencySlot;
+    }
+
+    /**
+     * @return the temporary edges of this vertex, which are not in its frozen adjacency. The array
+     *         is shared and must not be modified.
+     */
+    public Edge[] getTemporaryEdges(boolean incoming) {
+        return incoming ? temporaryIncoming : temporaryOutgoing;
+    }
+
+    /**
+     * @return the current (immutable) array of permanent edges, copied out of the frozen adjacency
+     *         while the vertex is attached to one.
+     */
+    Edge[] getPermanentEdges(boolean incoming) {
+        while (true) {
+            Edge[] edges = incoming ? this.incoming : this.outgoing;
+            if (edges != null)
+                return edges;
+            // The arrays are only dropped after the slot is published. If the slot is gone again,
+            // the vertex was detached in the meantime and has its arrays back.
+            EdgeAdjacency.Slot slot = adjacencySlot;
+            if (slot != null)
+                return slot.copyEdges(incoming);
+        }
+    }
+
+    synchronized int getPermanentChanges() {
+        return permanentChanges;
+    }
+
+    /**
+     * Attach this vertex to a frozen adjacency and drop its own arrays of permanent edges, unless
+     * they changed since the given number of changes was read.
+     */
+    void attachAdjacency(EdgeAdjacency.Slot slot, int changes) {
+        synchronized (this) {
+            if (permanentChanges == changes) {
+                adjacencySlot = slot;
+                incoming = null;
+                outgoing = null;
+            }
+        }
+    }
+
+    /**
+     * Leave the frozen adjacency after a change to the permanent edges, getting back arrays for
+     * those not yet replaced by the change. Called with the lock held.
+     */
+    private void detachAdjacency() {
+        EdgeAdjacency.Slot slot = adjacencySlot;
+        if (slot != null) {
+            // the arrays must be in place before the slot goes, see getPermanentEdges
+            if (incoming == null)
+                incoming = slot.copyEdges(true);
+            if (outgoing == null)
+                outgoing = slot.copyEdges(false);
+            adjacencySlot = null;
+        }
+        permanentChanges++;
     }
     
     /** Get the longitude of the vertex */
@@ -267,8 +399,10 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        this.incoming = new Edge[0];
-        this.outgoing = new Edge[0];
+        this.incoming = NO_EDGES;
+        this.outgoing = NO_EDGES;
+        this.temporaryIncoming = NO_EDGES;
+        this.temporaryOutgoing = NO_EDGES;
         index = maxIndex++;
     }
 
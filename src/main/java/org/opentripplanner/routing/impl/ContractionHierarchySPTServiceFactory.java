@@ -0,0 +1,23 @@
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.routing.algorithm.ContractionHierarchySPTService;
+import org.opentripplanner.routing.services.SPTService;
+
+/**
+ * Wraps the SPTServices of another factory so that street-only requests are answered with the
+ * graph's contraction hierarchies when possible.
+ */
+public class ContractionHierarchySPTServiceFactory implements SPTServiceFactory {
+
+    private final SPTServiceFactory fallbackFactory;
+
+    public ContractionHierarchySPTServiceFactory(SPTServiceFactory fallbackFactory) {
+        this.fallbackFactory = fallbackFactory;
+    }
+
+    @Override
+    public SPTService instantiate() {
+        return new ContractionHierarchySPTService(fallbackFactory.instantiate());
+    }
+
+}
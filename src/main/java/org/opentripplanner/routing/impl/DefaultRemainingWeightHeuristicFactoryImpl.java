@@ -14,6 +14,7 @@
 package org.opentripplanner.routing.impl;
 
 import org.opentripplanner.routing.algorithm.strategies.DefaultRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
@@ -21,8 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This trivial RemainingWeightHeuristicFactory returns a Euclidean heuristic instance
- * for every search, irrespective of destination, modes, etc.
+ * This RemainingWeightHeuristicFactory returns a Euclidean heuristic instance for transit
+ * searches, and a landmark heuristic for street-only searches. The latter falls back on the
+ * Euclidean estimate when the graph has no landmark table.
  * 
  * @author andrewbyrd
  */
@@ -34,7 +36,9 @@ public class DefaultRemainingWeightHeuristicFactoryImpl
 
     @Override
     public RemainingWeightHeuristic getInstanceForSearch(RoutingRequest opt) {
-        //LOG.debug("Using Euclidean heuristic independent of search type.");
+        if (!opt.modes.isTransit()) {
+            return new LandmarkRemainingWeightHeuristic();
+        }
         return new DefaultRemainingWeightHeuristic();
     }
 
@@ -53,6 +53,9 @@ public class GraphScanner {
     /** Load level */
     public LoadLevel loadLevel = LoadLevel.FULL;
 
+    /** Read graph files through a memory mapping rather than a buffered file stream. */
+    public boolean memoryMapped = false;
+
     /** The GraphService where register graphs to */
     private GraphService graphService;
 
@@ -83,8 +86,7 @@ public class GraphScanner {
             LOG.info("Attempting to automatically register routerIds {}", autoRegister);
             LOG.info("Graph files will be sought in paths relative to {}", basePath);
             for (String routerId : routerIds) {
-                InputStreamGraphSource graphSource = InputStreamGraphSource.newFileGraphSource(
-                        routerId, getBasePath(routerId), loadLevel);
+                InputStreamGraphSource graphSource = newGraphSource(routerId);
                 graphService.registerGraph(routerId, graphSource);
             }
         } else {
@@ -102,6 +104,15 @@ public class GraphScanner {
         }
     }
 
+    private InputStreamGraphSource newGraphSource(String routerId) {
+        if (memoryMapped) {
+            return InputStreamGraphSource.newMappedFileGraphSource(routerId,
+                    getBasePath(routerId), loadLevel);
+        }
+        return InputStreamGraphSource.newFileGraphSource(routerId, getBasePath(routerId),
+                loadLevel);
+    }
+
     private void autoScan() {
         LOG.debug("Auto discovering graphs under {}", basePath);
         /*
@@ -133,8 +144,7 @@ public class GraphScanner {
             LOG.info("Found new routers to register: {}",
                     Arrays.toString(graphToRegister.toArray()));
             for (String routerId : graphToRegister) {
-                InputStreamGraphSource graphSource = InputStreamGraphSource.newFileGraphSource(
-                        routerId, getBasePath(routerId), loadLevel);
+                InputStreamGraphSource graphSource = newGraphSource(routerId);
                 // Can be null here if the file has been removed in the meantime.
                 graphService.registerGraph(routerId, graphSource);
             }
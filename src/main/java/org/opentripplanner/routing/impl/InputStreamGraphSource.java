@@ -13,12 +13,12 @@
 
 package org.opentripplanner.routing.impl;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.util.prefs.Preferences;
 
 import org.opentripplanner.routing.graph.Graph;
@@ -28,6 +28,7 @@ import org.opentripplanner.routing.services.StreetVertexIndexFactory;
 import org.opentripplanner.standalone.Router;
 import org.opentripplanner.standalone.Router.LifecycleManager;
 import org.opentripplanner.updater.PropertiesPreferences;
+import org.opentripplanner.util.MappedFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,6 +85,20 @@ public class InputStreamGraphSource implements GraphSource {
         return new InputStreamGraphSource(routerId, loadLevel, new FileGraphInputStream(path));
     }
 
+    /**
+     * @param routerId
+     * @param path
+     * @param loadLevel
+     * @return A GraphSource loading graph from the file system under a base path, reading the graph
+     *         file through a read-only memory mapping. The file is then read from the OS page cache
+     *         without copying it through an intermediate heap buffer, routers loading the same
+     *         file share the cached pages, and street geometries stay in the mapping until needed.
+     */
+    public static InputStreamGraphSource newMappedFileGraphSource(String routerId, File path,
+            LoadLevel loadLevel) {
+        return new InputStreamGraphSource(routerId, loadLevel, new MappedFileGraphInputStream(path));
+    }
+
     /**
      * @param routerId
      * @param path
@@ -222,8 +237,7 @@ public class InputStreamGraphSource implements GraphSource {
         try (InputStream is = graphInputStream.getGraphInputStream()) {
             LOG.info("Loading graph...");
             try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
+                newGraph = Graph.load(is, loadLevel, streetVertexIndexFactory);
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId);
                 ex.printStackTrace();
@@ -265,7 +279,7 @@ public class InputStreamGraphSource implements GraphSource {
 
     private static class FileGraphInputStream implements GraphInputStream {
 
-        private File path;
+        protected File path;
 
         private FileGraphInputStream(File path) {
             this.path = path;
@@ -275,7 +289,7 @@ public class InputStreamGraphSource implements GraphSource {
         public InputStream getGraphInputStream() throws IOException {
             File graphFile = new File(path, GRAPH_FILENAME);
             LOG.debug("Loading graph from file '{}'", graphFile.getPath());
-            return new FileInputStream(graphFile);
+            return new BufferedInputStream(new FileInputStream(graphFile));
         }
 
         @Override
@@ -296,6 +310,20 @@ public class InputStreamGraphSource implements GraphSource {
         }
     }
 
+    private static class MappedFileGraphInputStream extends FileGraphInputStream {
+
+        private MappedFileGraphInputStream(File path) {
+            super(path);
+        }
+
+        @Override
+        public InputStream getGraphInputStream() throws IOException {
+            File graphFile = new File(path, GRAPH_FILENAME);
+            LOG.debug("Loading graph from memory-mapped file '{}'", graphFile.getPath());
+            return new MappedFileInputStream(graphFile);
+        }
+    }
+
     private static class ClasspathGraphInputStream implements GraphInputStream {
 
         private File path;
@@ -343,12 +371,19 @@ public class InputStreamGraphSource implements GraphSource {
 
         public LoadLevel loadLevel = LoadLevel.FULL;
 
+        /** Read graph files through a memory mapping rather than a buffered file stream. */
+        public boolean memoryMapped = false;
+
         public FileFactory(File basePath) {
             this.basePath = basePath;
         }
 
         @Override
         public GraphSource createGraphSource(String routerId) {
+            if (memoryMapped) {
+                return InputStreamGraphSource.newMappedFileGraphSource(routerId,
+                        getBasePath(routerId), loadLevel);
+            }
             return InputStreamGraphSource.newFileGraphSource(routerId, getBasePath(routerId),
                     loadLevel);
         }
@@ -108,6 +108,10 @@ public class RetryingPathServiceImpl implements PathService {
         SPTService sptService = this.sptServiceFactory.instantiate();
         
         while (paths.size() < options.numItineraries) {
+            if (options.cancellation != null && options.cancellation.isCancelled()) {
+                LOG.debug("Request cancelled, not starting another subsearch.");
+                break;
+            }
             currOptions = optionQueue.poll();
             if (currOptions == null) {
                 LOG.debug("Ran out of options to try.");
@@ -115,8 +119,16 @@ public class RetryingPathServiceImpl implements PathService {
             }
             currOptions.setMaxWalkDistance(maxWalk);
             
-            // apply appropriate timeout
+            // apply appropriate timeout, counted from the beginning of the first subsearch so that
+            // the timeouts of successive subsearches do not add up
             double timeout = paths.isEmpty() ? firstPathTimeout : multiPathTimeout;
+            if (timeout > 0) {
+                timeout -= (System.currentTimeMillis() - searchBeginTime) / 1000.0;
+                if (timeout <= 0) {
+                    LOG.debug("Out of time, not starting another subsearch.");
+                    break;
+                }
+            }
             
             // options.worstTime = maxTime;
             //options.maxWeight = maxWeight;
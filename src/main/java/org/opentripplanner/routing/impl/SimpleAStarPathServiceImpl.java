@@ -86,50 +86,55 @@ public class SimpleAStarPathServiceImpl implements PathService {
         long firstPathTimeoutAbsolute = searchBeginTime+(long)(firstPathTimeout*1000.0);
         long multiPathTimeoutAbsolute = searchBeginTime+(long)(multiPathTimeout*1000.0);
 
-        while (paths.size() < originalItineraries ) {
-            long subsearchBeginTime = System.currentTimeMillis();
-            LOG.info("BEGIN SUBSEARCH at:" + (subsearchBeginTime-searchBeginTime) + " " + paths.size() );
-            if ( paths.isEmpty() ) {
-                sptService.startSearch(options, null, firstPathTimeoutAbsolute);
-                if (sptService.runState == null) {
-                    LOG.info("Did not get runState");
-                    return null;
+        try {
+            while (paths.size() < originalItineraries ) {
+                long subsearchBeginTime = System.currentTimeMillis();
+                LOG.info("BEGIN SUBSEARCH at:" + (subsearchBeginTime-searchBeginTime) + " " + paths.size() );
+                if ( paths.isEmpty() ) {
+                    sptService.startSearch(options, null, firstPathTimeoutAbsolute);
+                    if (sptService.runState == null) {
+                        LOG.info("Did not get runState");
+                        return null;
+                    }
                 }
-            }
-            else {
-                LOG.info("Increase numItineraries");
-                sptService.runState.options.numItineraries++;
-            }
-            long timeout = paths.isEmpty() ? firstPathTimeoutAbsolute : multiPathTimeoutAbsolute;
-            LOG.info("Starting search" + sptService.runState.options.numItineraries + " " + (timeout-searchBeginTime));
-            sptService.runSearch(timeout);
-            spt = sptService.runState.spt;
-
-            if (spt == null) {
-                // Serious failure, no paths provided. This could be signaled with an exception.
-                LOG.warn("Aborting search. {} paths found, elapsed time {} sec", 
-                        paths.size(), (System.currentTimeMillis() - searchBeginTime) / 1000.0);
-                break;
-            }
-            List<GraphPath> somePaths = spt.getPaths(); // somePaths may be empty, but is never null.
-            LOG.info("END SUBSEARCH ({} msec of {} msec total)",
-                    System.currentTimeMillis() - subsearchBeginTime,
-                    System.currentTimeMillis() - searchBeginTime);
-            LOG.info("SPT provides {} paths to target. Visited {} nodes", somePaths.size(), sptService.runState.nVisited);
-
-            /* First, accumulate any new paths found into the list of itineraries. */
-            for (GraphPath path : somePaths) {
-                if ( ! paths.contains(path)) {
-                    paths.add(path);
-                    LOG.info("New trips: {}", path.getTrips());
+                else {
+                    LOG.info("Increase numItineraries");
+                    sptService.runState.options.numItineraries++;
+                }
+                long timeout = paths.isEmpty() ? firstPathTimeoutAbsolute : multiPathTimeoutAbsolute;
+                LOG.info("Starting search" + sptService.runState.options.numItineraries + " " + (timeout-searchBeginTime));
+                sptService.runSearch(timeout);
+                spt = sptService.runState.spt;
+
+                if (spt == null) {
+                    // Serious failure, no paths provided. This could be signaled with an exception.
+                    LOG.warn("Aborting search. {} paths found, elapsed time {} sec", 
+                            paths.size(), (System.currentTimeMillis() - searchBeginTime) / 1000.0);
+                    break;
+                }
+                List<GraphPath> somePaths = spt.getPaths(); // somePaths may be empty, but is never null.
+                LOG.info("END SUBSEARCH ({} msec of {} msec total)",
+                        System.currentTimeMillis() - subsearchBeginTime,
+                        System.currentTimeMillis() - searchBeginTime);
+                LOG.info("SPT provides {} paths to target. Visited {} nodes", somePaths.size(), sptService.runState.nVisited);
+
+                /* First, accumulate any new paths found into the list of itineraries. */
+                for (GraphPath path : somePaths) {
+                    if ( ! paths.contains(path)) {
+                        paths.add(path);
+                        LOG.info("New trips: {}", path.getTrips());
+                    }
+                }
+                LOG.debug("{} / {} itineraries", paths.size(), options.numItineraries);
+                if (options.rctx.aborted || System.currentTimeMillis() > timeout || paths.size() == 0) {
+                    // search was cleanly aborted, probably due to a timeout. 
+                    // There may be useful paths, but we should stop retrying.
+                    break;
                 }
             }
-            LOG.debug("{} / {} itineraries", paths.size(), options.numItineraries);
-            if (options.rctx.aborted || System.currentTimeMillis() > timeout || paths.size() == 0) {
-                // search was cleanly aborted, probably due to a timeout. 
-                // There may be useful paths, but we should stop retrying.
-                break;
-            }
+        } finally {
+            // release the search workspace even if the search failed
+            sptService.endSearch();
         }
         if (paths.size() == 0) {
             return null;
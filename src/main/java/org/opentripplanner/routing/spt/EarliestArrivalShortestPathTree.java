@@ -16,12 +16,11 @@ package org.opentripplanner.routing.spt;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.VertexMap;
 import org.opentripplanner.routing.graph.Vertex;
 
 /**
@@ -40,28 +39,27 @@ import org.opentripplanner.routing.graph.Vertex;
  */
 public class EarliestArrivalShortestPathTree extends AbstractShortestPathTree {
     
-    private static final int DEFAULT_CAPACITY = 500;
-
-    Map<Vertex, State> states;
+    /** Optimal states, in a paged VertexMap indexed on Vertex.getIndex(). */
+    VertexMap<State> states;
 
     /**
-     * Parameterless constructor that uses a default capacity for internal vertex-keyed data
-     * structures.
+     * Constructor that sizes the page directory of the vertex map to every vertex in the graph.
      */
     public EarliestArrivalShortestPathTree (RoutingRequest options) {
-        this(options, DEFAULT_CAPACITY);
+        this(options, Vertex.getMaxIndex());
     }
 
     /**
      * Constructor with a parameter indicating the initial capacity of the data structures holding
-     * vertices. This can help avoid resizing and rehashing these objects during path searches.
+     * vertices. Only the page directory of the vertex map is sized up front; pages of states are
+     * allocated as vertices are reached, so a small search stays small on a large graph.
      * 
      * @param n
-     *            - the initial size of vertex-keyed maps
+     *            - the expected highest vertex index
      */
     public EarliestArrivalShortestPathTree (RoutingRequest options, int n) {
         super(options);
-        states = new IdentityHashMap<Vertex, State>(n);
+        states = new VertexMap<State>(n);
     }
 
     @Override
@@ -82,7 +80,7 @@ public class EarliestArrivalShortestPathTree extends AbstractShortestPathTree {
         Vertex here = state.getVertex();
         State existing = states.get(here);
         if (existing == null || earlier (state, existing)) {
-            states.put(here, state);
+            states.set(here, state);
             return true;
         } else {
             // !! turn restriction code removed
@@ -16,13 +16,12 @@ package org.opentripplanner.routing.spt;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.VertexMap;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.graph.Graph;
@@ -32,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 
 public class MultiShortestPathTree extends AbstractShortestPathTree {
 	
@@ -43,24 +43,31 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
     private static final Logger LOG = LoggerFactory.getLogger(MultiShortestPathTree.class);
 
-    private Map<Vertex, List<State>> stateSets;
+    /**
+     * The Pareto-optimal states at each vertex, in a paged VertexMap indexed on Vertex.getIndex(). Most
+     * vertices only ever hold a single state, so to avoid allocating a list per vertex touched an
+     * entry is either a lone State or a List of two or more States.
+     */
+    private VertexMap<Object> stateSets;
 
     public void dump() {
         Multiset<Integer> histogram = HashMultiset.create();
         int statesCount = 0;
         int maxSize = 0;
-        for (Map.Entry<Vertex, List<State>> kv : stateSets.entrySet()) {
-            List<State> states = kv.getValue();
+        int nVertices = 0;
+        for (Object entry : stateSets.values()) {
+            List<State> states = asList(entry);
             int size = states.size();
             histogram.add(size);
             statesCount += size;
+            nVertices += 1;
             if (size > maxSize) {
                 maxSize = size;
             }
         }
-        LOG.info("SPT: vertices: " + stateSets.size() + " states: total: "
+        LOG.info("SPT: vertices: " + nVertices + " states: total: "
                 + statesCount + " per vertex max: " + maxSize + " avg: "
-                + (statesCount * 1.0 / stateSets.size()));
+                + (statesCount * 1.0 / nVertices));
         List<Integer> nStates = new ArrayList<Integer>(histogram.elementSet());
         Collections.sort(nStates);
         for (Integer nState : nStates) {
@@ -70,11 +77,24 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
     public MultiShortestPathTree(RoutingRequest options) {
         super(options);
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        stateSets = new VertexMap<Object>();
     }
 
     public Set<Vertex> getVertices() {
-        return stateSets.keySet();
+        Set<Vertex> vertices = Sets.newIdentityHashSet();
+        for (Object entry : stateSets.values()) {
+            vertices.add(asList(entry).get(0).getVertex());
+        }
+        return vertices;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<State> asList(Object entry) {
+        if (entry == null)
+            return null;
+        if (entry instanceof State)
+            return Collections.singletonList((State) entry);
+        return (List<State>) entry;
     }
 
     /****
@@ -84,18 +104,36 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
     @Override
     public boolean add(State newState) {
         Vertex vertex = newState.getVertex();
-        List<State> states = stateSets.get(vertex);
+        Object entry = stateSets.get(vertex);
         
         // if the vertex has no states, add one and return
-        if (states == null) {
-            states = new ArrayList<State>();
-            stateSets.put(vertex, states);
-            states.add(newState);
+        if (entry == null) {
+            stateSets.set(vertex, newState);
+            return true;
+        }
+
+        // a single existing state is compared in place, without allocating a list
+        if (entry instanceof State) {
+            State oldState = (State) entry;
+            // order is important, because in the case of a tie
+            // we want to reject the new state
+            if (dominates(oldState, newState))
+                return false;
+            if (dominates(newState, oldState)) {
+                stateSets.set(vertex, newState);
+            } else {
+                List<State> states = new ArrayList<State>(4);
+                states.add(oldState);
+                states.add(newState);
+                stateSets.set(vertex, states);
+            }
             return true;
         }
         
         // if the vertex has any states that dominate the new state, don't add the state
         // if the new state dominates any old states, remove them
+        @SuppressWarnings("unchecked")
+        List<State> states = (List<State>) entry;
         Iterator<State> it = states.iterator();
         while (it.hasNext()) {
             State oldState = it.next();
@@ -157,7 +195,7 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
 	@Override
     public State getState(Vertex dest) {
-        Collection<State> states = stateSets.get(dest);
+        Collection<State> states = asList(stateSets.get(dest));
         if (states == null)
             return null;
         State ret = null;
@@ -171,12 +209,12 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
     @Override
     public List<State> getStates(Vertex dest) {
-        return stateSets.get(dest);
+        return asList(stateSets.get(dest));
     }
 
     @Override
     public int getVertexCount() {
-        return stateSets.keySet().size();
+        return stateSets.size();
     }
 
     /**
@@ -194,14 +232,19 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
      */
     @Override
     public boolean visit(State state) {
-        boolean ret = false;
-        for (State s : stateSets.get(state.getVertex())) {
+        Object entry = stateSets.get(state.getVertex());
+        if (entry == state)
+            return true;
+        if (entry instanceof State || entry == null)
+            return false;
+        @SuppressWarnings("unchecked")
+        List<State> states = (List<State>) entry;
+        for (State s : states) {
             if (s == state) {
-                ret = true;
-                break;
+                return true;
             }
         }
-        return ret;
+        return false;
     }
 
     public String toString() {
@@ -211,8 +254,8 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
     @Override
     public Collection<State> getAllStates() {
         ArrayList<State> allStates = new ArrayList<State>();
-        for (List<State> stateSet : stateSets.values()) {
-            allStates.addAll(stateSet);
+        for (Object entry : stateSets.values()) {
+            allStates.addAll(asList(entry));
         }
         return allStates;
     }
@@ -106,6 +106,20 @@ public class CommandLineParameters implements Cloneable {
             description = "Skip area visibility calculations, which are often time consuming.")
     public boolean skipVisibility;
 
+    @Parameter(names = {"--contractStreets"},
+            description = "Preprocess the street network into contraction hierarchies to speed up street-only routing. "
+                    + "Only requests with a single mode (WALK, BICYCLE or CAR) and no turn costs (turnReluctance 0 or a "
+                    + "zero-cost intersection model) use them; mixed-mode requests such as BICYCLE,WALK never do.")
+    public boolean contractStreets = false;
+
+    @Parameter(names = {"--landmarks"},
+            description = "Number of landmarks to precompute network distances to, for goal direction in street searches.")
+    public int landmarks = 0;
+
+    @Parameter(names = {"--stopTrees"},
+            description = "Precompute the walking distances from transit stops to nearby streets used by Analyst.")
+    public boolean stopTrees = false;
+
     @Parameter(names = {"--matchBusRoutesToStreets"},
             description = "Based on GTFS data, guess which OSM streets each bus runs on to improve stop linking.")
     public boolean matchBusRoutesToStreets = false;
@@ -117,6 +131,11 @@ public class CommandLineParameters implements Cloneable {
             description = "Enable OTP Analyst extensions.")
     public boolean analyst;
 
+    @Parameter(names = {"--maxSearches"},
+            description = "Number of trip planning requests allowed to run at once. Beyond this the oldest running "
+                    + "requests are cancelled and answer with what they have found so far. Zero means no limit.")
+    public int maxSearches = 0;
+
     @Parameter(names = {"--bindAddress"},
             description = "Specify which network interface to bind to by address. 0.0.0.0 means all interfaces.")
     public String bindAddress = "0.0.0.0";
@@ -136,6 +155,11 @@ public class CommandLineParameters implements Cloneable {
     @Parameter(names = {"--autoReload"}, description = "Auto-reload registered graphs when source data is modified.")
     public boolean autoReload = false;
 
+    @Parameter(names = {"--mmapGraphs"},
+            description = "Read graph files through memory mappings, sharing the OS page cache between routers. "
+            + "Street geometries stay in the mapping until they are needed.")
+    public boolean mmapGraphs = false;
+
     @Parameter(names = {"--longDistance"},
             description = "Use an algorithm tailored for big graphs (the size of New York or the Netherlands).")
     public boolean longDistance = false;
@@ -115,6 +115,7 @@ public class GrizzlyServer {
         } catch (InterruptedException ie) {
             LOG.info("Interrupted, shutting down.");
         }
+        server.activeSearches.cancelAll(); // do not keep the shutdown waiting on long searches
         httpServer.shutdown();
 
     }
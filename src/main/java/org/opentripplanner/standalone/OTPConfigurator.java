@@ -41,6 +41,8 @@ import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.impl.ContractionHierarchySPTServiceFactory;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.impl.GenericAStarFactory;
 import org.opentripplanner.routing.impl.GraphScanner;
@@ -89,6 +91,7 @@ public class OTPConfigurator {
         GraphService graphService = new GraphService(params.autoReload);
         this.graphService = graphService;
         InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(params.graphDirectory);
+        graphSourceFactory.memoryMapped = params.mmapGraphs;
         graphService.graphSourceFactory = graphSourceFactory;
         graphService.routerLifecycleManager = routerLifecycleManager;
         if (params.graphDirectory != null) {
@@ -110,6 +113,7 @@ public class OTPConfigurator {
             /* Auto-register pre-existing graph on disk, with optional auto-scan. */
             GraphScanner graphScanner = new GraphScanner(graphService, params.graphDirectory, params.autoScan);
             graphScanner.basePath = graphSourceFactory.basePath;
+            graphScanner.memoryMapped = params.mmapGraphs;
             if (params.routerIds.size() > 0) {
                 graphScanner.defaultRouterId = params.routerIds.get(0);
             }
@@ -270,6 +274,18 @@ public class OTPConfigurator {
             GraphBuilder elevationBuilder = new ElevationGraphBuilderImpl(gcf);
             graphBuilder.addGraphBuilder(elevationBuilder);
         }
+        if (hasOSM && params.landmarks > 0) {
+            LandmarkGraphBuilderImpl landmarkBuilder = new LandmarkGraphBuilderImpl();
+            landmarkBuilder.nLandmarks = params.landmarks;
+            graphBuilder.addGraphBuilder(landmarkBuilder);
+        }
+        if (hasOSM && hasGTFS && params.stopTrees) {
+            graphBuilder.addGraphBuilder(new StopTreeCacheGraphBuilderImpl());
+        }
+        // Contraction must come last, since it captures the street edges and their costs.
+        if (hasOSM && params.contractStreets) {
+            graphBuilder.addGraphBuilder(new StreetContractionGraphBuilderImpl());
+        }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
         return graphBuilder;
     }
@@ -311,6 +327,11 @@ public class OTPConfigurator {
         public void startupRouter(Router router, Preferences config) {
 
             router.sptServiceFactory = new GenericAStarFactory();
+            if (router.graph.getService(ContractionHierarchySet.class) != null) {
+                // Street-only requests can use the contraction hierarchies built with the graph.
+                router.sptServiceFactory = new ContractionHierarchySPTServiceFactory(
+                        router.sptServiceFactory);
+            }
             // Choose a PathService to wrap the SPTService, depending on expected maximum path lengths
             if (params.longDistance) {
                 LongDistancePathService pathService = new LongDistancePathService(router.graph,
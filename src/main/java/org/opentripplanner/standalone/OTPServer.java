@@ -7,6 +7,7 @@ import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.opentripplanner.analyst.DiskBackedPointSetCache;
 import org.opentripplanner.analyst.PointSetCache;
 import org.opentripplanner.analyst.SurfaceCache;
+import org.opentripplanner.routing.core.ActiveSearches;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.services.GraphService;
@@ -34,6 +35,9 @@ public class OTPServer {
     /** The directory under which graphs, caches, etc. will be stored. */
     public File basePath = null;
 
+    /** The trip planning requests in progress, cancelled oldest first when there are too many. */
+    public ActiveSearches activeSearches;
+
     // Optional Analyst global modules (caches)
     public SurfaceCache surfaceCache;
     public PointSetCache pointSetCache;
@@ -48,6 +52,7 @@ public class OTPServer {
         // Core OTP modules
         graphService = gs;
         routingRequest = new RoutingRequest();
+        activeSearches = new ActiveSearches(params.maxSearches);
 
         // Optional Analyst Modules.
         if (params.analyst) {
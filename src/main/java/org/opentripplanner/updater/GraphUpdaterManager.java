@@ -15,11 +15,17 @@ package org.opentripplanner.updater;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -39,9 +45,22 @@ import org.slf4j.LoggerFactory;
  * updaters, this should be done via the execute method of this manager to prevent race conditions
  * between graph write operations.
  * 
+ * Graph writer runnables wait in a bounded queue, highest priority first and in order of
+ * submission within a priority. When the queue is full, submitting blocks the updater until the
+ * writer catches up. A runnable submitted with a coalescing key replaces the pending runnable with
+ * the same key, if any, which suits updaters that always send the complete state of their source.
  */
 public class GraphUpdaterManager {
 
+    /** Priority of runnables that must not wait behind others, such as realtime trip updates. */
+    public static final int HIGH_PRIORITY = 2;
+
+    /** Priority of runnables submitted without one. */
+    public static final int NORMAL_PRIORITY = 1;
+
+    /** Priority of runnables that can wait, such as periodic snapshots of bike rental stations. */
+    public static final int LOW_PRIORITY = 0;
+
     private static Logger LOG = LoggerFactory.getLogger(GraphUpdaterManager.class);
     
     /**
@@ -68,6 +87,28 @@ public class GraphUpdaterManager {
      */
     private ExecutorService updaterPool = Executors.newCachedThreadPool();
 
+    /** Maximum number of graph writer runnables waiting for the writer thread. */
+    public int maxQueueSize = 100;
+
+    /**
+     * Graph writer runnables waiting for the writer thread. For each one, a task that runs the
+     * head of this queue is submitted to the scheduler. All fields below are guarded by it.
+     */
+    private final PriorityQueue<WriterTask> queue = new PriorityQueue<WriterTask>();
+
+    /** The queued task of each coalescing key. */
+    private final Map<Object, WriterTask> queuedByKey = new HashMap<Object, WriterTask>();
+
+    private long submitCount = 0;
+
+    private long coalescedCount = 0;
+
+    /** Time between the submission and the start of the last runnable, in milliseconds. */
+    private volatile long lastQueueLatency = -1;
+
+    /** Time the last runnable took to run, in milliseconds. */
+    private volatile long lastRunDuration = -1;
+
     /**
      * List with updaters to be able to free resources TODO: is this list necessary?
      */
@@ -161,7 +202,17 @@ public class GraphUpdaterManager {
      * @param runnable is a graph writer runnable
      */
     public void execute(GraphWriterRunnable runnable) {
-        executeReturningFuture(runnable);
+        executeReturningFuture(runnable, NORMAL_PRIORITY, null);
+    }
+
+    /**
+     * Like execute, with a priority and an optional coalescing key.
+     * 
+     * @param priority is the priority of the runnable, higher ones are run first
+     * @param coalescingKey if not null, the runnable replaces a queued one with the same key
+     */
+    public void execute(GraphWriterRunnable runnable, int priority, Object coalescingKey) {
+        executeReturningFuture(runnable, priority, coalescingKey);
     }
 
     /**
@@ -176,26 +227,150 @@ public class GraphUpdaterManager {
      */
     public void executeBlocking(GraphWriterRunnable runnable) throws InterruptedException,
             ExecutionException {
-        Future<?> future = executeReturningFuture(runnable);
+        executeBlocking(runnable, NORMAL_PRIORITY, null);
+    }
+
+    /**
+     * Like executeBlocking, with a priority and an optional coalescing key. If the runnable is
+     * replaced by a later one with the same key, this returns once that one has been executed.
+     * 
+     * @see GraphUpdaterManager.execute(GraphWriterRunnable, int, Object)
+     */
+    public void executeBlocking(GraphWriterRunnable runnable, int priority, Object coalescingKey)
+            throws InterruptedException, ExecutionException {
+        Future<?> future = executeReturningFuture(runnable, priority, coalescingKey);
         // Ask for result of future. Will block and return null when runnable is successfully
         // finished, throws otherwise
         future.get();
     }
 
-    private Future<?> executeReturningFuture(final GraphWriterRunnable runnable) {
-        // TODO: check for high water mark?
-        Future<?> future = scheduler.submit(new Runnable() {
+    private Future<?> executeReturningFuture(GraphWriterRunnable runnable, int priority,
+            Object coalescingKey) {
+        WriterTask task;
+        synchronized (queue) {
+            if (coalescingKey != null) {
+                task = queuedByKey.get(coalescingKey);
+                if (task != null) {
+                    task.runnable = runnable;
+                    coalescedCount++;
+                    return task.future;
+                }
+            }
+            if (queue.size() >= maxQueueSize) {
+                LOG.warn("Graph writer queue is full ({} runnables), waiting.", queue.size());
+                while (queue.size() >= maxQueueSize) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(
+                                "Interrupted while waiting for room in the graph writer queue.");
+                    }
+                }
+            }
+            task = new WriterTask(runnable, priority, submitCount++, coalescingKey);
+            queue.add(task);
+            if (coalescingKey != null) {
+                queuedByKey.put(coalescingKey, task);
+            }
+        }
+        scheduler.execute(new Runnable() {
             @Override
             public void run() {
+                runNext();
+            }
+        });
+        return task.future;
+    }
+
+    /** Run the queued runnable with the highest priority. Only called on the writer thread. */
+    private void runNext() {
+        WriterTask task;
+        synchronized (queue) {
+            task = queue.poll();
+            if (task == null)
+                return;
+            if (task.coalescingKey != null) {
+                queuedByKey.remove(task.coalescingKey);
+            }
+            queue.notifyAll(); // wake up updaters waiting for room
+        }
+        long startTime = System.currentTimeMillis();
+        lastQueueLatency = startTime - task.submitTime;
+        task.future.run();
+        lastRunDuration = System.currentTimeMillis() - startTime;
+        LOG.debug("Ran graph writer {} after {} msec in queue in {} msec",
+                task.runnable.getClass().getName(), lastQueueLatency, lastRunDuration);
+    }
+
+    /** @return the number of graph writer runnables waiting for the writer thread. */
+    public int getQueueSize() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /** @return the number of runnables that replaced a queued one instead of being queued. */
+    public long getCoalescedCount() {
+        synchronized (queue) {
+            return coalescedCount;
+        }
+    }
+
+    /**
+     * @return the time between the submission and the start of the last runnable run, in
+     *         milliseconds, or -1 if none was run yet. For a runnable that replaced others, this
+     *         is counted from the submission of the first one it replaced.
+     */
+    public long getLastQueueLatency() {
+        return lastQueueLatency;
+    }
+
+    /** @return how long the last runnable took to run in milliseconds, or -1 if none was run yet. */
+    public long getLastRunDuration() {
+        return lastRunDuration;
+    }
+
+    /** A queued graph writer runnable, ordered by decreasing priority then by submission. */
+    private class WriterTask implements Comparable<WriterTask> {
+
+        /** Replaced by later runnables with the same coalescing key, while queued. */
+        GraphWriterRunnable runnable;
+
+        final int priority;
+
+        final long sequence;
+
+        final Object coalescingKey;
+
+        final long submitTime = System.currentTimeMillis();
+
+        final FutureTask<Void> future = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() {
                 try {
                     runnable.run(graph);
                 } catch (Exception e) {
                     LOG.error("Error while running graph writer {}:", runnable.getClass().getName(),
                             e);
                 }
+                return null;
             }
         });
-        return future;
+
+        WriterTask(GraphWriterRunnable runnable, int priority, long sequence, Object coalescingKey) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.coalescingKey = coalescingKey;
+        }
+
+        @Override
+        public int compareTo(WriterTask other) {
+            if (priority != other.priority)
+                return priority > other.priority ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
     }
 
     public int size() {
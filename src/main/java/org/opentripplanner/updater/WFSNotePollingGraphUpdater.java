@@ -141,7 +141,7 @@ public abstract class WFSNotePollingGraphUpdater extends PollingGraphUpdater {
                 }
             }
         }
-        updaterManager.execute(new WFSGraphWriter());
+        updaterManager.execute(new WFSGraphWriter(), GraphUpdaterManager.LOW_PRIORITY, this);
     }
 
     protected abstract Alert getNote(SimpleFeature feature);
@@ -128,7 +128,8 @@ public class BikeParkUpdater extends PollingGraphUpdater {
 
         // Create graph writer runnable to apply these stations to the graph
         BikeParkGraphWriterRunnable graphWriterRunnable = new BikeParkGraphWriterRunnable(bikeParks);
-        updaterManager.execute(graphWriterRunnable);
+        // a newer list of bike parks replaces one still waiting to be applied
+        updaterManager.execute(graphWriterRunnable, GraphUpdaterManager.LOW_PRIORITY, this);
     }
 
     @Override
@@ -143,7 +143,8 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
 
         // Create graph writer runnable to apply these stations to the graph
         BikeRentalGraphWriterRunnable graphWriterRunnable = new BikeRentalGraphWriterRunnable(stations);
-        updaterManager.execute(graphWriterRunnable);
+        // a newer list of stations replaces one still waiting to be applied
+        updaterManager.execute(graphWriterRunnable, GraphUpdaterManager.LOW_PRIORITY, this);
     }
 
     @Override
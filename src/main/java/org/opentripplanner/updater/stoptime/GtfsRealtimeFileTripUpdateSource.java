@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 
@@ -41,6 +42,9 @@ public class GtfsRealtimeFileTripUpdateSource implements TripUpdateSource, Prefe
      */
     private String agencyId;
 
+    /** The incrementality of the last message read, see FeedHeader. Full dataset by default. */
+    private boolean fullDataset = true;
+
     @Override
     public void configure(Graph graph, Preferences preferences) throws Exception {
         this.agencyId = preferences.get("defaultAgencyId", null);
@@ -56,6 +60,7 @@ public class GtfsRealtimeFileTripUpdateSource implements TripUpdateSource, Prefe
             InputStream is = new FileInputStream(file);
             if (is != null) {
                 feedMessage = FeedMessage.PARSER.parseFrom(is);
+                fullDataset = feedMessage.getHeader().getIncrementality() != Incrementality.DIFFERENTIAL;
                 feedEntityList = feedMessage.getEntityList();
                 updates = new ArrayList<TripUpdate>(feedEntityList.size());
                 for (FeedEntity feedEntity : feedEntityList) {
@@ -72,6 +77,11 @@ public class GtfsRealtimeFileTripUpdateSource implements TripUpdateSource, Prefe
         return "GtfsRealtimeFileTripUpdateSource(" + file + ")";
     }
 
+	@Override
+	public boolean getFullDatasetValueOfLastUpdates() {
+		return fullDataset;
+	}
+
 	@Override
 	public String getAgencyId() {
 		return this.agencyId;
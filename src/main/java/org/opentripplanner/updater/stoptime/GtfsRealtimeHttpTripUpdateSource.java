@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 
@@ -39,6 +40,9 @@ public class GtfsRealtimeHttpTripUpdateSource implements TripUpdateSource, Prefe
 
     private String url;
 
+    /** The incrementality of the last message read, see FeedHeader. Full dataset by default. */
+    private boolean fullDataset = true;
+
     @Override
     public void configure(Graph graph, Preferences preferences) throws Exception {
         String url = preferences.get("url", null);
@@ -58,6 +62,7 @@ public class GtfsRealtimeHttpTripUpdateSource implements TripUpdateSource, Prefe
             InputStream is = HttpUtils.getData(url);
             if (is != null) {
                 feedMessage = FeedMessage.PARSER.parseFrom(is);
+                fullDataset = feedMessage.getHeader().getIncrementality() != Incrementality.DIFFERENTIAL;
                 feedEntityList = feedMessage.getEntityList();
                 updates = new ArrayList<TripUpdate>(feedEntityList.size());
                 for (FeedEntity feedEntity : feedEntityList) {
@@ -74,6 +79,11 @@ public class GtfsRealtimeHttpTripUpdateSource implements TripUpdateSource, Prefe
         return "GtfsRealtimeHttpUpdateStreamer(" + url + ")";
     }
 
+	@Override
+	public boolean getFullDatasetValueOfLastUpdates() {
+		return fullDataset;
+	}
+
 	@Override
 	public String getAgencyId() {
 		return this.agencyId;
@@ -70,6 +70,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Property to set on the RealtimeDataSnapshotSource
+     */
+    private Integer updateThreads;
+
     /**
      * Default agency id that is used for the trip ids in the TripUpdates
      */
@@ -109,6 +114,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
         int maxSnapshotFrequency = preferences.getInt("maxSnapshotFrequencyMs", -1);
         if (maxSnapshotFrequency >= 0)
             this.maxSnapshotFrequency = maxSnapshotFrequency;
+        int updateThreads = preferences.getInt("updateThreads", -1);
+        if (updateThreads > 0)
+            this.updateThreads = updateThreads;
         String purgeExpiredData = preferences.get("purgeExpiredData", "");
         if (!purgeExpiredData.isEmpty()) {
             this.purgeExpiredData = preferences.getBoolean("purgeExpiredData", true);
@@ -142,6 +150,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
                 if (purgeExpiredData != null) {
                     snapshotSource.purgeExpiredData = (purgeExpiredData);
                 }
+                if (updateThreads != null) {
+                    snapshotSource.updateThreads = (updateThreads);
+                }
             }
         });
     }
@@ -154,12 +165,14 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
     public void runPolling() {
         // Get update lists from update source
         List<TripUpdate> updates = updateSource.getUpdates();
+        boolean fullDataset = updateSource.getFullDatasetValueOfLastUpdates();
 
-        if (updates != null && updates.size() > 0) {
+        // An empty full dataset still means that all previously updated trips run on schedule again.
+        if (updates != null && (fullDataset || updates.size() > 0)) {
             // Handle trip updates via graph writer runnable
             TripUpdateGraphWriterRunnable runnable =
-                    new TripUpdateGraphWriterRunnable(updates, agencyId);
-            updaterManager.execute(runnable);
+                    new TripUpdateGraphWriterRunnable(fullDataset, updates, agencyId);
+            updaterManager.execute(runnable, GraphUpdaterManager.HIGH_PRIORITY, null);
         }
     }
 
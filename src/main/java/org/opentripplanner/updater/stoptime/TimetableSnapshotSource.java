@@ -14,11 +14,18 @@
 package org.opentripplanner.updater.stoptime;
 
 import java.text.ParseException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.opentripplanner.routing.edgetype.TripPattern;
@@ -43,6 +50,16 @@ public class TimetableSnapshotSource {
 
     private int appliedBlockCount = 0;
 
+    private int skippedBlockCount = 0;
+
+    private int failedBlockCount = 0;
+
+    /**
+     * The last TripUpdate applied to each trip, by service date and trip ID. An identical update
+     * for the same trip would yield the same TripTimes again, so it is skipped.
+     */
+    private final Map<ServiceDate, Map<String, TripUpdate>> appliedUpdates = Maps.newHashMap();
+
     /**
      * If a timetable snapshot is requested less than this number of milliseconds after the previous
      * snapshot, just return the same one. Throttles the potentially resource-consuming task of
@@ -53,21 +70,54 @@ public class TimetableSnapshotSource {
     /**
      * The last committed snapshot that was handed off to a routing thread. This snapshot may be
      * given to more than one routing thread if the maximum snapshot frequency is exceeded.
+     * Routing threads read it without locking; it is only ever replaced by a newer snapshot.
      */
-    private TimetableResolver snapshot = null;
+    private volatile TimetableResolver snapshot = null;
 
     /** The working copy of the timetable resolver. Should not be visible to routing threads. */
     private TimetableResolver buffer = new TimetableResolver();
 
+    /**
+     * Held while the buffer is changed or committed. Routing threads only ever try to take it,
+     * so they never wait for the updater.
+     */
+    private final ReentrantLock bufferLock = new ReentrantLock();
+
+    /** The number of snapshots handed out to routing threads. */
+    private final AtomicLong snapshotReadCount = new AtomicLong();
+
+    /** The number of snapshots committed by routing threads rather than by the updater. */
+    private final AtomicLong readerCommitCount = new AtomicLong();
+
+    /** The number of times a routing thread found a commit due but left it to a busy updater. */
+    private final AtomicLong readerCommitSkipCount = new AtomicLong();
+
     /** Should expired realtime data be purged from the graph. */
     public boolean purgeExpiredData = true;
 
     protected ServiceDate lastPurgeDate = null;
 
-    protected long lastSnapshotTime = -1;
+    protected volatile long lastSnapshotTime = -1;
+
+    /** How long the last commit of the buffer took, in milliseconds. */
+    private volatile long lastCommitDuration = -1;
 
     private final TimeZone timeZone;
 
+    /**
+     * The number of threads applying the updates of different patterns in parallel. Kept below the
+     * number of cores by default, so that a large message does not hold up every routing thread.
+     */
+    public int updateThreads =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    /**
+     * Applies the updates of different patterns in parallel, with updateThreads threads. Created on
+     * first use, so that updateThreads can be configured after construction. Its worker threads are
+     * daemons.
+     */
+    private ForkJoinPool updatePool;
+
     private GraphIndex graphIndex;
 
     public TimetableSnapshotSource(Graph graph) {
@@ -79,18 +129,52 @@ public class TimetableSnapshotSource {
      * @return an up-to-date snapshot mapping TripPatterns to Timetables. This snapshot and the
      *         timetable objects it references are guaranteed to never change, so the requesting
      *         thread is provided a consistent view of all TripTimes. The routing thread need only
-     *         release its reference to the snapshot to release resources.
+     *         release its reference to the snapshot to release resources. This never blocks: when
+     *         a new snapshot is due while the updater is busy, the updater commits it when done.
      */
     public TimetableResolver getTimetableSnapshot() {
-        return getTimetableSnapshot(false);
+        snapshotReadCount.incrementAndGet();
+        if (System.currentTimeMillis() - lastSnapshotTime > maxSnapshotFrequency) {
+            if (bufferLock.tryLock()) {
+                try {
+                    if (commitBuffer(false)) readerCommitCount.incrementAndGet();
+                } finally {
+                    bufferLock.unlock();
+                }
+            } else {
+                readerCommitSkipCount.incrementAndGet();
+            }
+        }
+        return snapshot;
+    }
+
+    /** Commit the buffer if due or forced, waiting for the updater if needed. */
+    protected TimetableResolver getTimetableSnapshot(boolean force) {
+        bufferLock.lock();
+        try {
+            commitBuffer(force);
+            return snapshot;
+        } finally {
+            bufferLock.unlock();
+        }
     }
 
-    protected synchronized TimetableResolver getTimetableSnapshot(boolean force) {
+    /**
+     * Publish a new snapshot if forced, or if the buffer changed and the previous snapshot is older
+     * than maxSnapshotFrequency. Must be called holding the buffer lock.
+     * @return whether a new snapshot was published
+     */
+    private boolean commitBuffer(boolean force) {
+        boolean committed = false;
         long now = System.currentTimeMillis();
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
+                long commitStart = System.currentTimeMillis();
                 snapshot = buffer.commit(force);
+                committed = true;
+                lastCommitDuration = System.currentTimeMillis() - commitStart;
+                LOG.debug("Committed {} in {} msec", snapshot, lastCommitDuration);
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
@@ -98,21 +182,98 @@ public class TimetableSnapshotSource {
         } else {
             LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
         }
-        return snapshot;
+        return committed;
+    }
+
+    /** @return the age of the current snapshot in milliseconds, or -1 if none was committed yet. */
+    public long getSnapshotAge() {
+        TimetableResolver current = snapshot;
+        if (current == null) return -1;
+        return System.currentTimeMillis() - current.getCommitTime();
+    }
+
+    /** @return the number of updated timetables in the current snapshot. */
+    public int getSnapshotSize() {
+        TimetableResolver current = snapshot;
+        return current == null ? 0 : current.getTimetableCount();
+    }
+
+    /** @return how long the last commit of a snapshot took in milliseconds, or -1 if none was made. */
+    public long getLastCommitDuration() {
+        return lastCommitDuration;
+    }
+
+    /** @return the number of snapshots handed out to routing threads. */
+    public long getSnapshotReadCount() {
+        return snapshotReadCount.get();
+    }
+
+    /** @return the number of snapshots committed by routing threads rather than by the updater. */
+    public long getReaderCommitCount() {
+        return readerCommitCount.get();
+    }
+
+    /** @return the number of due commits a routing thread left to the updater instead of waiting. */
+    public long getReaderCommitSkipCount() {
+        return readerCommitSkipCount.get();
+    }
+
+    /** @return the number of TripUpdates applied since this snapshot source was created. */
+    public int getAppliedUpdateCount() {
+        return appliedBlockCount;
+    }
+
+    /** @return the number of TripUpdates skipped because they were identical to the last applied one. */
+    public int getSkippedUpdateCount() {
+        return skippedBlockCount;
+    }
+
+    /** @return the number of TripUpdates that could not be applied. */
+    public int getFailedUpdateCount() {
+        return failedBlockCount;
+    }
+
+    /**
+     * Method to apply a trip update list to the most recent version of the timetable snapshot,
+     * keeping the updates of trips that are not in the list.
+     */
+    public void applyTripUpdates(List<TripUpdate> updates, String feedId) {
+        applyTripUpdates(false, updates, feedId);
     }
 
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot.
      * A GTFS-RT feed is always applied against a single static feed (indicated by feedId).
      * However, multi-feed support is not completed and we currently assume there is only one static feed when matching IDs.
+     *
+     * Updates identical to the last one applied to the same trip are skipped.
+     *
+     * @param fullDataset true if the list contains all the updates of the feed (FULL_DATASET), in
+     *        which case the trips updated before but absent from the list return to their
+     *        scheduled times; false if it only contains changes (DIFFERENTIAL).
      */
-    public void applyTripUpdates(List<TripUpdate> updates, String feedId) {
+    public void applyTripUpdates(boolean fullDataset, List<TripUpdate> updates, String feedId) {
         if (updates == null) {
             LOG.warn("updates is null");
             return;
         }
 
+        bufferLock.lock();
+        try {
+            applyTripUpdatesToBuffer(fullDataset, updates, feedId);
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    private void applyTripUpdatesToBuffer(boolean fullDataset, List<TripUpdate> updates,
+            String feedId) {
+
         LOG.debug("message contains {} trip updates", updates.size());
+        Map<ServiceDate, Set<String>> tripsInMessage = Maps.newHashMap();
+        List<TripPattern> patterns = Lists.newArrayList();
+        List<TripUpdate> tripUpdates = Lists.newArrayList();
+        List<ServiceDate> serviceDates = Lists.newArrayList();
         int uIndex = 0;
         for (TripUpdate tripUpdate : updates) {
             if (!tripUpdate.hasTrip()) {
@@ -137,11 +298,26 @@ public class TimetableSnapshotSource {
                     uIndex, tripUpdate.getStopTimeUpdateCount());
             LOG.trace("{}", tripUpdate);
 
+            String tripId = tripDescriptor.getTripId();
+            Set<String> tripIds = tripsInMessage.get(serviceDate);
+            if (tripIds == null) {
+                tripIds = Sets.newHashSet();
+                tripsInMessage.put(serviceDate, tripIds);
+            }
+            tripIds.add(tripId);
+            Map<String, TripUpdate> appliedOnDate = appliedUpdates.get(serviceDate);
+            if (appliedOnDate != null && sameUpdate(appliedOnDate.get(tripId), tripUpdate)) {
+                skippedBlockCount++;
+                continue;
+            }
+
+            // Updates to scheduled trips are gathered and applied together, the others right away.
+            TripPattern pattern = null;
             boolean applied = false;
             if (tripDescriptor.hasScheduleRelationship()) {
                 switch(tripDescriptor.getScheduleRelationship()) {
                     case SCHEDULED:
-                        applied = handleScheduledTrip(tripUpdate, feedId, serviceDate);
+                        pattern = getPatternForScheduledTrip(tripUpdate);
                         break;
                     case ADDED:
                         applied = handleAddedTrip(tripUpdate, feedId, serviceDate);
@@ -150,7 +326,7 @@ public class TimetableSnapshotSource {
                         applied = handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case CANCELED:
-                        applied = handleCanceledTrip(tripUpdate, feedId, serviceDate);
+                        pattern = getPatternForCanceledTrip(tripUpdate);
                         break;
                     case REPLACEMENT:
                         applied = handleReplacementTrip(tripUpdate, feedId, serviceDate);
@@ -158,33 +334,103 @@ public class TimetableSnapshotSource {
                 }
             } else {
                 // Default
-                applied = handleScheduledTrip(tripUpdate, feedId, serviceDate);
+                pattern = getPatternForScheduledTrip(tripUpdate);
             }
 
-            if(applied) {
-                appliedBlockCount++;
-             } else {
-                 LOG.warn("Failed to apply TripUpdate.");
-                 LOG.trace(" Contents: {}", tripUpdate);
-             }
+            if (pattern != null) {
+                patterns.add(pattern);
+                tripUpdates.add(tripUpdate);
+                serviceDates.add(serviceDate);
+            } else {
+                countResult(tripUpdate, serviceDate, applied);
+            }
+        }
 
-             if (appliedBlockCount % logFrequency == 0) {
-                 LOG.info("Applied {} trip updates.", appliedBlockCount);
-             }
+        // Patterns never share timetables, so the buffer applies their updates in parallel.
+        if (!tripUpdates.isEmpty()) {
+            long startTime = System.currentTimeMillis();
+            if (updatePool == null) {
+                updatePool = new ForkJoinPool(Math.max(1, updateThreads));
+            }
+            boolean[] applied = buffer.update(patterns, tripUpdates, serviceDates, timeZone,
+                    updatePool);
+            for (int i = 0; i < applied.length; i++) {
+                countResult(tripUpdates.get(i), serviceDates.get(i), applied[i]);
+            }
+            LOG.debug("Applied {} trip updates of {} patterns in {} msec", tripUpdates.size(),
+                    Sets.newHashSet(patterns).size(), System.currentTimeMillis() - startTime);
         }
-        LOG.debug("end of update message");
+        if (fullDataset) {
+            revertTripsNotIn(tripsInMessage);
+        }
+        LOG.debug("end of update message: {} applied, {} skipped, {} failed in total",
+                appliedBlockCount, skippedBlockCount, failedBlockCount);
 
         // Make a snapshot after each message in anticipation of incoming requests
         // Purge data if necessary (and force new snapshot if anything was purged)
         if(purgeExpiredData) {
             boolean modified = purgeExpiredData();
-            getTimetableSnapshot(modified);
+            commitBuffer(modified);
         } else {
-            getTimetableSnapshot();
+            commitBuffer(false);
         }
     }
 
-    protected boolean handleScheduledTrip(TripUpdate tripUpdate, String feedId, ServiceDate serviceDate) {
+    /** Count an applied or failed update, and remember an applied one. */
+    private void countResult(TripUpdate tripUpdate, ServiceDate serviceDate, boolean applied) {
+        if(applied) {
+            appliedBlockCount++;
+            Map<String, TripUpdate> appliedOnDate = appliedUpdates.get(serviceDate);
+            if (appliedOnDate == null) {
+                appliedOnDate = Maps.newHashMap();
+                appliedUpdates.put(serviceDate, appliedOnDate);
+            }
+            appliedOnDate.put(tripUpdate.getTrip().getTripId(), tripUpdate);
+        } else {
+            failedBlockCount++;
+            LOG.warn("Failed to apply TripUpdate.");
+            LOG.trace(" Contents: {}", tripUpdate);
+        }
+
+        if (appliedBlockCount % logFrequency == 0) {
+            LOG.info("Applied {} trip updates.", appliedBlockCount);
+        }
+    }
+
+    /**
+     * @return whether two TripUpdates describe the same trip and stop times. Timestamps and vehicle
+     *         descriptors do not affect the resulting TripTimes.
+     */
+    private static boolean sameUpdate(TripUpdate a, TripUpdate b) {
+        if (a == null || b == null) return false;
+        return a.getTrip().equals(b.getTrip())
+                && a.getStopTimeUpdateList().equals(b.getStopTimeUpdateList());
+    }
+
+    /** Restore the scheduled times of all updated trips absent from a full dataset. */
+    private void revertTripsNotIn(Map<ServiceDate, Set<String>> tripsInMessage) {
+        int reverted = 0;
+        for (Iterator<Map.Entry<ServiceDate, Map<String, TripUpdate>>> dates =
+                appliedUpdates.entrySet().iterator(); dates.hasNext();) {
+            Map.Entry<ServiceDate, Map<String, TripUpdate>> entry = dates.next();
+            ServiceDate serviceDate = entry.getKey();
+            Set<String> tripIds = tripsInMessage.get(serviceDate);
+            for (Iterator<String> trips = entry.getValue().keySet().iterator(); trips.hasNext();) {
+                String tripId = trips.next();
+                if (tripIds != null && tripIds.contains(tripId)) continue;
+                TripPattern pattern = getPatternForTripId(tripId);
+                if (pattern != null && buffer.revert(pattern, tripId, serviceDate)) reverted++;
+                trips.remove();
+            }
+            if (entry.getValue().isEmpty()) dates.remove();
+        }
+        if (reverted > 0) {
+            LOG.debug("Restored the scheduled times of {} trips absent from the full dataset", reverted);
+        }
+    }
+
+    /** @return the pattern of the trip to update, or null if the update cannot be applied. */
+    protected TripPattern getPatternForScheduledTrip(TripUpdate tripUpdate) {
         TripDescriptor tripDescriptor = tripUpdate.getTrip();
         // This does not include Agency ID or feed ID, trips are feed-unique and we currently assume a single static feed.
         String tripId = tripDescriptor.getTripId();
@@ -192,16 +438,16 @@ public class TimetableSnapshotSource {
 
         if (pattern == null) {
             LOG.warn("No pattern found for tripId {}, skipping TripUpdate.", tripId);
-            return false;
+            return null;
         }
 
         if (tripUpdate.getStopTimeUpdateCount() < 1) {
             LOG.warn("TripUpdate contains no updates, skipping.");
-            return false;
+            return null;
         }
 
         // we have a message we actually want to apply
-        return buffer.update(pattern, tripUpdate, feedId, timeZone, serviceDate);
+        return pattern;
     }
 
     protected boolean handleAddedTrip(TripUpdate tripUpdate, String feedId, ServiceDate serviceDate) {
@@ -222,18 +468,18 @@ public class TimetableSnapshotSource {
         return false;
     }
 
-    protected boolean handleCanceledTrip(TripUpdate tripUpdate, String agencyId,
-                                         ServiceDate serviceDate) {
+    /** @return the pattern of the trip to cancel, or null if the update cannot be applied. */
+    protected TripPattern getPatternForCanceledTrip(TripUpdate tripUpdate) {
         TripDescriptor tripDescriptor = tripUpdate.getTrip();
         String tripId = tripDescriptor.getTripId(); // This does not include Agency ID, trips are feed-unique.
         TripPattern pattern = getPatternForTripId(tripId);
 
         if (pattern == null) {
             LOG.warn("No pattern found for tripId {}, skipping TripUpdate.", tripId);
-            return false;
+            return null;
         }
 
-        return buffer.update(pattern, tripUpdate, agencyId, timeZone, serviceDate);
+        return pattern;
     }
 
     protected boolean purgeExpiredData() {
@@ -249,6 +495,10 @@ public class TimetableSnapshotSource {
 
         lastPurgeDate = previously;
 
+        for (Iterator<ServiceDate> dates = appliedUpdates.keySet().iterator(); dates.hasNext();) {
+            if (dates.next().compareTo(previously) <= 0) dates.remove();
+        }
+
         return buffer.purgeExpiredData(previously);
     }
 
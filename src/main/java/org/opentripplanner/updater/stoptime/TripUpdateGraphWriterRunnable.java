@@ -33,7 +33,18 @@ public class TripUpdateGraphWriterRunnable implements GraphWriterRunnable {
 
     private String feedId;
 
+    /**
+     * True if the list with updates represents all updates that are active right now, i.e. all
+     * previous updates should be disregarded
+     */
+    private boolean fullDataset;
+
     public TripUpdateGraphWriterRunnable(List<TripUpdate> updates, String feedId) {
+        this(false, updates, feedId);
+    }
+
+    public TripUpdateGraphWriterRunnable(boolean fullDataset, List<TripUpdate> updates, String feedId) {
+        this.fullDataset = fullDataset;
 		this.updates = updates;
 		this.feedId = feedId;
 	}
@@ -43,7 +54,7 @@ public class TripUpdateGraphWriterRunnable implements GraphWriterRunnable {
         // Apply updates to graph using realtime snapshot source
         TimetableSnapshotSource snapshotSource = graph.timetableSnapshotSource;
         if (snapshotSource != null) {
-            snapshotSource.applyTripUpdates(updates, feedId);
+            snapshotSource.applyTripUpdates(fullDataset, updates, feedId);
         } else {
             LOG.error("Could not find realtime data snapshot source in graph."
                     + " The following updates are not applied: {}", updates);
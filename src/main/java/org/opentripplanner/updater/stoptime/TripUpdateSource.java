@@ -25,5 +25,11 @@ public interface TripUpdateSource {
      */
     public List<TripUpdate> getUpdates();
 
+    /**
+     * @return true if the last list of updates returned by getUpdates() is a full dataset replacing
+     *         all previous updates of the feed, false if it only contains changes (differential).
+     */
+    public boolean getFullDatasetValueOfLastUpdates();
+
     public String getAgencyId();
 }
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.ning.http.client.AsyncHttpClient;
@@ -173,9 +174,13 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
             FeedMessage feedMessage = null;
             List<FeedEntity> feedEntityList = null;
             List<TripUpdate> updates = null;
+            // Streamed messages are usually differential, so only trust an explicit header here.
+            boolean fullDataset = false;
             try {
                 // Decode message into List of TripUpdates
                 feedMessage = FeedMessage.PARSER.parseFrom(message);
+                fullDataset = feedMessage.getHeader().hasIncrementality()
+                        && feedMessage.getHeader().getIncrementality() == Incrementality.FULL_DATASET;
                 feedEntityList = feedMessage.getEntityList();
                 updates = new ArrayList<TripUpdate>(feedEntityList.size());
                 for (FeedEntity feedEntity : feedEntityList) {
@@ -185,10 +190,12 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
                 LOG.error("Could not decode gtfs-rt message:", e);
             }
 
-            if (updates != null && updates.size() > 0) {
+            // An empty full dataset still means that all previously updated trips run on schedule again.
+            if (updates != null && (fullDataset || updates.size() > 0)) {
                 // Handle trip updates via graph writer runnable
-                TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(updates, feedId);
-                updaterManager.execute(runnable);
+                TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(fullDataset,
+                        updates, feedId);
+                updaterManager.execute(runnable, GraphUpdaterManager.HIGH_PRIORITY, null);
             }
         }
     }
@@ -0,0 +1,131 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream reading a file through read-only memory mappings rather than read() system calls. The file
+ * contents are served straight from the OS page cache, so several processes or routers reading the same file share
+ * a single copy of it in memory, and no intermediate heap buffer is needed.
+ *
+ * Files larger than the maximum size of a single mapping are mapped one window at a time, in order, as the stream
+ * is consumed. Readers that know the layout of the file can also map a region of it for themselves, see
+ * {@link #map(long, int)}, and keep it after the stream is closed.
+ */
+public class MappedFileInputStream extends InputStream {
+
+    /** Size of each mapped window. A single MappedByteBuffer cannot exceed Integer.MAX_VALUE bytes. */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    /** File offset of the start of the current window. */
+    private long windowStart = 0;
+
+    private MappedByteBuffer window;
+
+    public MappedFileInputStream(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.length = channel.size();
+        mapWindow(0);
+    }
+
+    private void mapWindow(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+    }
+
+    /** @return true if at least one byte is available, mapping the next window if needed. */
+    private boolean ensureAvailable() throws IOException {
+        if (window.hasRemaining())
+            return true;
+        long next = windowStart + window.capacity();
+        if (next >= length)
+            return false;
+        mapWindow(next);
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable())
+            return -1;
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensureAvailable())
+            return -1;
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+        long position = position();
+        long target = Math.min(length, position + n);
+        if (target < windowStart + window.capacity()) {
+            window.position((int) (target - windowStart));
+        } else if (target < length) {
+            mapWindow(target);
+        } else {
+            window.position(window.capacity());
+        }
+        return target - position;
+    }
+
+    /** @return the offset in the file of the next byte to be read. */
+    public long position() {
+        return windowStart + window.position();
+    }
+
+    /**
+     * Map a region of the file on its own, without moving the stream. The mapping stays valid after the stream is
+     * closed, and is released when the returned buffer is garbage collected.
+     */
+    public ByteBuffer map(long start, int size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, length - position());
+    }
+
+    /**
+     * Closes the underlying channel. The mapping itself is released when the buffer is garbage collected, which is
+     * fine since the file is read-only.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.opentripplanner.analyst;
+
+import java.util.Random;
+
+/**
+ * Reports the throughput of Propagation.evalSamples in samples per second, on a city-sized set of random samples.
+ * This is not a unit test, so that the build does not spend time on it nor depend on the speed of the machine; run it
+ * by hand, for instance with mvn exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opentripplanner.analyst.PropagationBenchmark
+ */
+public class PropagationBenchmark {
+
+    public static void main(String[] args) {
+        int nVertices = 500000;
+        int nSamples = 200000;
+        int nRounds = 20;
+        Random random = new Random(42);
+        int[] times = new int[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            times[v] = random.nextInt(4) == 0 ? Propagation.UNREACHED : random.nextInt(7200);
+        }
+        int[] v0s = new int[nSamples], t0s = new int[nSamples], v1s = new int[nSamples], t1s = new int[nSamples];
+        for (int i = 0; i < nSamples; i++) {
+            v0s[i] = random.nextInt(nVertices);
+            t0s[i] = random.nextInt(300);
+            v1s[i] = random.nextInt(nVertices);
+            t1s[i] = random.nextInt(300);
+        }
+        int[] result = new int[nSamples];
+        // warm up so the JIT compiles the kernel before it is timed
+        for (int r = 0; r < nRounds; r++) {
+            Propagation.evalSamples(times, v0s, t0s, v1s, t1s, result);
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < nRounds; r++) {
+            Propagation.evalSamples(times, v0s, t0s, v1s, t1s, result);
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        System.out.printf("Evaluated %d samples in %.1f msec: %.3g samples/sec\n", nSamples * nRounds,
+                elapsed / 1e6, nSamples * (double) nRounds / elapsed * 1e9);
+    }
+
+}
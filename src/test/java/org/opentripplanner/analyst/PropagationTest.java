@@ -0,0 +1,62 @@
+package org.opentripplanner.analyst;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PropagationTest extends TestCase {
+
+    public void testPropagateTree() {
+        int[] times = new int[5];
+        Arrays.fill(times, Propagation.UNREACHED);
+        times[1] = 1050;
+        // (vertex, meters) pairs at one meter per second
+        int[] tree = { 0, 0, 1, 100, 2, 500, 3, 1000 };
+        Propagation.propagateTree(tree, 1000, 1f, 600, 1400, times);
+        assertEquals(1000, times[0]);
+        assertEquals(1050, times[1]); // already earlier
+        assertEquals(Propagation.UNREACHED, times[2]); // arrives after maxTime
+        assertEquals(Propagation.UNREACHED, times[3]); // walk too long
+        assertEquals(Propagation.UNREACHED, times[4]); // not in the tree
+    }
+
+    public void testEvalSamples() {
+        int[] times = { 100, 200, Propagation.UNREACHED };
+        int[] v0s = { 0, 2, 2, 0 };
+        int[] t0s = { 10, 10, 10, Propagation.UNREACHED };
+        int[] v1s = { 1, 1, 2, 0 };
+        int[] t1s = { 0, 20, 0, Propagation.UNREACHED };
+        int[] result = Propagation.evalSamples(times, v0s, t0s, v1s, t1s, new int[4]);
+        assertEquals(110, result[0]);
+        assertEquals(220, result[1]);
+        assertEquals(Integer.MAX_VALUE, result[2]);
+        assertEquals(Integer.MAX_VALUE, result[3]);
+    }
+
+    /** Check evalSamples against a straightforward implementation on random samples. */
+    public void testRandomSamples() {
+        int nVertices = 1000;
+        int nSamples = 500;
+        Random random = new Random(42);
+        int[] times = new int[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            times[v] = random.nextInt(4) == 0 ? Propagation.UNREACHED : random.nextInt(7200);
+        }
+        int[] v0s = new int[nSamples], t0s = new int[nSamples], v1s = new int[nSamples], t1s = new int[nSamples];
+        for (int i = 0; i < nSamples; i++) {
+            v0s[i] = random.nextInt(nVertices);
+            t0s[i] = random.nextInt(300);
+            v1s[i] = random.nextInt(nVertices);
+            t1s[i] = random.nextInt(300);
+        }
+        int[] result = Propagation.evalSamples(times, v0s, t0s, v1s, t1s, new int[nSamples]);
+        for (int i = 0; i < nSamples; i++) {
+            int expected = Integer.MAX_VALUE;
+            if (times[v0s[i]] != Propagation.UNREACHED) expected = times[v0s[i]] + t0s[i];
+            if (times[v1s[i]] != Propagation.UNREACHED) expected = Math.min(expected, times[v1s[i]] + t1s[i]);
+            assertEquals(expected, result[i]);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class PersistentIntMapTest {
+
+    @Test
+    public void testOldVersionsUnchanged() {
+        PersistentIntMap<String> empty = PersistentIntMap.empty();
+        PersistentIntMap<String> a = empty.put(3, "three");
+        PersistentIntMap<String> b = a.put(100000, "big").put(3, "tres");
+        PersistentIntMap<String> c = b.remove(100000);
+
+        assertTrue(empty.isEmpty());
+        assertNull(empty.get(3));
+        assertEquals(1, a.size());
+        assertEquals("three", a.get(3));
+        assertNull(a.get(100000));
+        assertEquals(2, b.size());
+        assertEquals("tres", b.get(3));
+        assertEquals("big", b.get(100000));
+        assertEquals(1, c.size());
+        assertEquals("tres", c.get(3));
+        assertNull(c.get(100000));
+        assertTrue(c.remove(3).isEmpty());
+        assertSame(c, c.remove(4));
+        assertNull(c.get(-1));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+        Map<Integer, PersistentIntMap<Integer>> versions = new HashMap<Integer, PersistentIntMap<Integer>>();
+        Map<Integer, TreeMap<Integer, Integer>> expectedVersions = new HashMap<Integer, TreeMap<Integer, Integer>>();
+        PersistentIntMap<Integer> map = PersistentIntMap.empty();
+        for (int i = 0; i < 5000; i++) {
+            int key = random.nextInt(i % 2 == 0 ? 2000 : Integer.MAX_VALUE);
+            if (random.nextInt(3) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, i);
+                expected.put(key, i);
+            }
+            if (i % 500 == 0) {
+                versions.put(i, map);
+                expectedVersions.put(i, new TreeMap<Integer, Integer>(expected));
+            }
+        }
+        versions.put(-1, map);
+        expectedVersions.put(-1, expected);
+        for (Integer v : versions.keySet()) {
+            PersistentIntMap<Integer> version = versions.get(v);
+            TreeMap<Integer, Integer> expectedVersion = expectedVersions.get(v);
+            assertEquals(expectedVersion.size(), version.size());
+            for (Map.Entry<Integer, Integer> entry : expectedVersion.entrySet()) {
+                assertEquals(entry.getValue(), version.get(entry.getKey()));
+            }
+            assertEquals(new ArrayList<Integer>(expectedVersion.values()), version.values());
+        }
+    }
+
+}
@@ -92,6 +92,24 @@ public class TestPQueues extends TestCase {
         fillQueue(new BinHeap<Integer>(), input);
     }
 
+    public void testClear() {
+        BinHeap<Integer> bh = new BinHeap<Integer>(10);
+        for (int i = 0; i < 100; i++) {
+            bh.insert(i, i);
+        }
+        int capacity = bh.capacity();
+        bh.clear();
+        assertTrue(bh.empty());
+        assertNull(bh.peek_min());
+        // a cleared queue keeps its capacity and works as a fresh one
+        assertEquals(capacity, bh.capacity());
+        bh.insert(7, 7);
+        bh.insert(3, 3);
+        assertEquals(Integer.valueOf(3), bh.extract_min());
+        assertEquals(Integer.valueOf(7), bh.extract_min());
+        assertTrue(bh.empty());
+    }
+
     /*
      * You must be careful to produce unique objects for rekeying,
      * otherwise the same object might be rekeyed twice or more.
@@ -0,0 +1,144 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.joda.time.LocalDate;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.GtfsTest;
+
+public class RaptorSearchTest extends GtfsTest {
+
+    private RaptorData data;
+
+    @Override
+    public String getFeedName() {
+        return "testagency.zip";
+    }
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        TransitLayer layer = graph.index.getTransitLayer();
+        data = new RaptorData(layer, graph.index.servicesRunning(new LocalDate(2009, 8, 7)));
+    }
+
+    private int stop(String id) {
+        return data.layer.indexForStop.get(graph.index.stopForId.get(new AgencyAndId("agency", id)));
+    }
+
+    private static int pattern(TransitLayer layer, String routeId) {
+        for (int p = 0; p < layer.getPatternCount(); p++) {
+            if (layer.patterns[p].route.getId().getId().equals(routeId)) return p;
+        }
+        throw new IllegalArgumentException(routeId);
+    }
+
+    /** Change the times of a trip of the single pattern of a route, arriving and departing at the same time. */
+    private static void setTimes(TransitLayer layer, String routeId, int trip, int... times) {
+        int p = pattern(layer, routeId);
+        int n = layer.nTrips[p];
+        for (int pos = 0; pos < times.length; pos++) {
+            layer.departures[p][pos * n + trip] = times[pos];
+            layer.arrivals[p][pos * n + trip] = times[pos];
+        }
+    }
+
+    public void testRounds() {
+        TIntIntMap access = new TIntIntHashMap();
+        access.put(stop("A"), 0);
+
+        // Trip 1.1 leaves A at midnight, too early to be caught with the boarding slack: take 1.2 instead
+        RaptorSearch oneRide = new RaptorSearch(data, 1, 1.4f, 60);
+        int[] times = oneRide.search(0, access, 7200);
+        assertEquals(0, times[stop("A")]);
+        assertEquals(1800, times[stop("B")]);
+        assertEquals(2400, times[stop("C")]);
+        assertEquals(RaptorSearch.UNREACHED, times[stop("D")]);
+
+        // A second ride reaches D and E on route 3 from B
+        RaptorSearch twoRides = new RaptorSearch(data, 2, 1.4f, 60);
+        times = twoRides.search(0, access, 7200);
+        assertEquals(2400, times[stop("C")]);
+        assertEquals(3600, times[stop("D")]);
+        assertEquals(4200, times[stop("E")]);
+
+        // Leaving later, the next trip from A is at 8:00, beyond the maximum duration
+        times = twoRides.search(1500, access, 7200);
+        assertEquals(1500, times[stop("A")]);
+        assertEquals(RaptorSearch.UNREACHED, times[stop("B")]);
+        assertEquals(RaptorSearch.UNREACHED, times[stop("E")]);
+    }
+
+    public void testRange() {
+        TIntIntMap access = new TIntIntHashMap();
+        access.put(stop("A"), 0);
+        RaptorSearch range = new RaptorSearch(data, 2, 1.4f, 60);
+        RaptorSearch single = new RaptorSearch(data, 2, 1.4f, 60);
+
+        // Sweeping backward reuses the labels of later departures but gives the same results as separate searches
+        for (int departureTime = 3600; departureTime >= 0; departureTime -= 300) {
+            int[] rangeTimes = range.searchEarlier(departureTime, access, 7200);
+            int[] singleTimes = single.search(departureTime, access, 7200);
+            for (int s = 0; s < data.getStopCount(); s++) {
+                if (singleTimes[s] == RaptorSearch.UNREACHED) {
+                    // arrivals found for later departures may remain, beyond the duration of this one
+                    assertTrue(rangeTimes[s] == RaptorSearch.UNREACHED || rangeTimes[s] > departureTime + 7200);
+                } else {
+                    assertEquals(singleTimes[s], rangeTimes[s]);
+                }
+            }
+        }
+        assertEquals(4200, range.search(0, access, 7200)[stop("E")]);
+        assertTrue(range.getImprovedStops().get(stop("E")));
+
+        try {
+            range.searchEarlier(60, access, 7200);
+            fail("Range searches must go backward in time.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testOvertakingTrips() {
+        TransitLayer layer = graph.index.getTransitLayer();
+        int p = pattern(layer, "1");
+        // Slow trip 1.1 down, so that trip 1.2 leaving A after it overtakes it before B
+        setTimes(layer, "1", 0, 600, 2400, 3000);
+        RaptorData overtaking = new RaptorData(layer, graph.index.servicesRunning(new LocalDate(2009, 8, 7)));
+        assertTrue(overtaking.overtaking.get(p));
+        assertFalse(data.overtaking.get(p));
+
+        // The first trip caught at A is 1.1, but 1.2 arrives first at B and C
+        TIntIntMap access = new TIntIntHashMap();
+        access.put(stop("A"), 0);
+        int[] times = new RaptorSearch(overtaking, 1, 1.4f, 60).search(0, access, 7200);
+        assertEquals(1800, times[stop("B")]);
+        assertEquals(2400, times[stop("C")]);
+    }
+
+    public void testRangeAtRideLimit() {
+        TransitLayer layer = graph.index.getTransitLayer();
+        // Trip 1.1 reaches C late, but trip 3.1 leaves C for E after it, having passed B very early
+        setTimes(layer, "1", 0, 0, 100, 3000);
+        setTimes(layer, "1", 1, 1000, 1100, 4000);
+        setTimes(layer, "3", 0, 50, 3100, 3200, 3300);
+        RaptorData rideLimit = new RaptorData(layer, graph.index.servicesRunning(new LocalDate(2009, 8, 7)));
+        TIntIntMap access = new TIntIntHashMap();
+        access.put(stop("A"), 0);
+        // a walk speed low enough that transfers play no part
+        RaptorSearch range = new RaptorSearch(rideLimit, 2, 0.001f, 0);
+        RaptorSearch single = new RaptorSearch(rideLimit, 2, 0.001f, 0);
+
+        // Leaving at 1000, C is reached at 1300 with two rides (1.2 then 2.1), and E only on trip 3.2 at 5400
+        int[] times = range.searchEarlier(1000, access, 7200);
+        assertEquals(1300, times[stop("C")]);
+        assertEquals(5400, times[stop("E")]);
+
+        // Leaving at 0, trip 1.1 reaches C at 3000 in one ride, later than 1300 but in time for a second ride on
+        // trip 3.1 to E. It must not be pruned by the two-ride arrival of the later departure.
+        times = range.searchEarlier(0, access, 7200);
+        assertEquals(3300, times[stop("E")]);
+        assertEquals(3300, single.search(0, access, 7200)[stop("E")]);
+    }
+
+}
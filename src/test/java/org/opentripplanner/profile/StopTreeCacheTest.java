@@ -0,0 +1,84 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+public class StopTreeCacheTest extends TestCase {
+
+    public void testTrees() throws Exception {
+        // a stop at the end of a street of two 100 meter blocks
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -74.0, 40.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -74.0, 40.0009);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -74.0, 40.0018);
+        street(a, b);
+        street(b, c);
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("A", "stop"));
+        stop.setLon(-74.0);
+        stop.setLat(40.0);
+        TransitStop tstop = new TransitStop(graph, stop);
+        new StreetTransitLink(tstop, a, true);
+        new StreetTransitLink(a, tstop, true);
+
+        StopTreeCache cache = new StopTreeCache(graph, Arrays.asList(tstop), 20);
+        Vertex[] vertices = { tstop, a, b, c };
+        int[] distances = { 0, 0, 100, 200 };
+        checkTree(cache, tstop, vertices, distances);
+
+        // vertex indexes are reassigned on load, and the trees are re-indexed accordingly
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new Object[] { cache, vertices });
+        out.close();
+        Object[] read = (Object[]) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        StopTreeCache readCache = (StopTreeCache) read[0];
+        Vertex[] readVertices = (Vertex[]) read[1];
+        assertFalse(readVertices[0].getIndex() == tstop.getIndex());
+        checkTree(readCache, (TransitStop) readVertices[0], readVertices, distances);
+    }
+
+    private static void street(IntersectionVertex from, IntersectionVertex to) {
+        new StreetEdge(from, to, GeometryUtils.makeLineString(from.getX(), from.getY(), to.getX(), to.getY()),
+                "street", 100, StreetTraversalPermission.ALL, false);
+        new StreetEdge(to, from, GeometryUtils.makeLineString(to.getX(), to.getY(), from.getX(), from.getY()),
+                "street", 100, StreetTraversalPermission.ALL, true);
+    }
+
+    /** Check that the tree of a stop holds exactly the given vertices and distances, sorted by vertex index. */
+    private static void checkTree(StopTreeCache cache, TransitStop tstop, Vertex[] vertices, int[] distances) {
+        int[] tree = cache.getTree(tstop);
+        assertNotNull(tree);
+        assertEquals(vertices.length * 2, tree.length);
+        for (int i = 2; i < tree.length; i += 2) {
+            assertTrue(tree[i - 2] < tree[i]);
+        }
+        for (int v = 0; v < vertices.length; v++) {
+            boolean found = false;
+            for (int i = 0; i < tree.length; i += 2) {
+                if (tree[i] != vertices[v].getIndex()) continue;
+                assertSame(vertices[v], cache.getVertex(tree[i]));
+                assertEquals(distances[v], tree[i + 1], 1);
+                found = true;
+            }
+            assertTrue(found);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.opentripplanner.profile;
+
+import org.joda.time.LocalDate;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.routing.edgetype.TripPattern;
+
+public class TransitLayerTest extends GtfsTest {
+
+    @Override
+    public String getFeedName() {
+        return "testagency.zip";
+    }
+
+    public void testLayer() {
+        TransitLayer layer = graph.index.getTransitLayer();
+        assertSame(layer, graph.index.getTransitLayer());
+        assertEquals(graph.index.stopVertexForStop.size(), layer.getStopCount());
+        assertEquals(graph.index.patternForId.size(), layer.getPatternCount());
+
+        // the stop to pattern lists agree with those of the index
+        for (int s = 0; s < layer.getStopCount(); s++) {
+            Stop stop = layer.stops[s];
+            assertSame(graph.index.stopVertexForStop.get(stop), layer.stopVertices[s]);
+            assertEquals(s, layer.indexForStop.get(stop));
+            int n = 0;
+            for (int i = layer.stopPatternStart[s]; i < layer.stopPatternStart[s + 1]; i++) {
+                assertTrue(graph.index.patternsForStop.containsEntry(stop, layer.patterns[layer.stopPatterns[i]]));
+                n++;
+            }
+            assertEquals(graph.index.patternsForStop.get(stop).size(), n);
+        }
+
+        // each pattern lists its stops in order, with its scheduled trips sorted by first departure
+        for (int p = 0; p < layer.getPatternCount(); p++) {
+            TripPattern pattern = layer.patterns[p];
+            assertEquals(p, layer.indexForPattern.get(pattern));
+            int start = layer.patternStopStart[p];
+            assertEquals(pattern.getStops().size(), layer.patternStopStart[p + 1] - start);
+            for (int pos = 0; pos < pattern.getStops().size(); pos++) {
+                assertSame(pattern.getStops().get(pos), layer.stops[layer.patternStops[start + pos]]);
+            }
+            int n = layer.nTrips[p];
+            assertEquals(pattern.scheduledTimetable.tripTimes.size(), n);
+            for (int t = 1; t < n; t++) {
+                assertTrue(layer.departures[p][t - 1] <= layer.departures[p][t]);
+            }
+        }
+        Stop a = graph.index.stopForId.get(new AgencyAndId("agency", "A"));
+        assertSame(graph.index.stopVertexForStop.get(a), layer.getStopVertex(a));
+    }
+
+    public void testRaptorDataCache() {
+        LocalDate date = new LocalDate(2009, 8, 7);
+        RaptorData data = graph.index.getRaptorData(date);
+        assertSame(graph.index.getTransitLayer(), data.layer);
+        assertSame(data, graph.index.getRaptorData(new LocalDate(2009, 8, 7)));
+        assertNotSame(data, graph.index.getRaptorData(new LocalDate(2009, 8, 8)));
+
+        // rebuilding the layer drops the views of the old one
+        graph.index.buildTransitLayer();
+        RaptorData rebuilt = graph.index.getRaptorData(date);
+        assertNotSame(data, rebuilt);
+        assertSame(graph.index.getTransitLayer(), rebuilt.layer);
+    }
+
+}
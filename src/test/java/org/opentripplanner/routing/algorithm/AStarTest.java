@@ -14,8 +14,12 @@
 package org.opentripplanner.routing.algorithm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.util.HashSet;
 import java.util.List;
@@ -27,6 +31,7 @@ import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationSt
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchCancellation;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.SimpleConcreteEdge;
 import org.opentripplanner.routing.graph.SimpleConcreteVertex;
@@ -243,6 +248,70 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testWorkspaceReleasedWhenSearchFails() {
+        new SimpleConcreteEdge(_graph.getVertex("56th_24th"), _graph.getVertex("56th_20th")) {
+            @Override
+            public State traverse(State s0) {
+                throw new IllegalStateException("broken edge");
+            }
+        };
+        RoutingRequest options = new RoutingRequest();
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        try {
+            new GenericAStar().getShortestPathTree(options);
+            fail("the search should have thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("broken edge", e.getMessage());
+        }
+        // if the failed search still held this thread's workspace, each acquire would get a new one
+        SearchWorkspace workspace = SearchWorkspace.acquire();
+        workspace.release();
+        assertSame(workspace, SearchWorkspace.acquire());
+        workspace.release();
+        assertEquals(0, workspace.queue.size());
+    }
+
+    @Test
+    public void testStreetCostModelReleasedOnHeuristicTimeout() {
+        RoutingRequest options = new RoutingRequest();
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        // an abort time in the past times the search out as soon as the heuristic is initialized
+        new GenericAStar().startSearch(options, null, 1);
+        assertTrue(options.rctx.debugOutput.timedOut);
+        assertFalse(options.isStreetCostModelCompiled());
+    }
+
+    @Test
+    public void testCancelledSearchStops() {
+        final SearchCancellation cancellation = new SearchCancellation();
+        final int[] traversals = { 0 };
+        // a long chain of vertices, whose edges cancel the search partway, as another thread would
+        Vertex previous = _graph.getVertex("leary_20th");
+        for (int i = 0; i < 5000; i++) {
+            Vertex next = vertex("chain_" + i, 47.6666 - i * 0.0001, -122.3821);
+            new SimpleConcreteEdge(previous, next) {
+                @Override
+                public State traverse(State s0) {
+                    if (++traversals[0] == 100) {
+                        cancellation.cancel();
+                    }
+                    return super.traverse(s0);
+                }
+            };
+            previous = next;
+        }
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.cancellation = cancellation;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), previous);
+        ShortestPathTree tree = new GenericAStar().getShortestPathTree(options);
+
+        assertTrue(options.rctx.aborted);
+        assertNull(tree.getPath(previous, false));
+        assertTrue(traversals[0] < 100 + GenericAStar.ABORT_CHECK_MASK + 1);
+    }
+
     /****
      * Private Methods
      ****/
@@ -0,0 +1,203 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class LandmarkRemainingWeightHeuristicTest {
+
+    private static final int SIZE = 5;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    private RoutingRequest proto;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                grid[x][y] = new IntersectionVertex(graph, "v_" + x + "_" + y, x * 0.001, y * 0.001);
+            }
+        }
+        // A grid cut in two by a "river" with a single bridge at one end. Blocks are longer than
+        // the straight line between their ends, as they would be on real streets.
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (x + 1 < SIZE && (x + 1 != SIZE / 2 + 1 || y == SIZE - 1)) {
+                    edge(grid[x][y], grid[x + 1][y], 120, false);
+                    edge(grid[x + 1][y], grid[x][y], 120, true);
+                }
+                if (y + 1 < SIZE) {
+                    edge(grid[x][y], grid[x][y + 1], 120, false);
+                    edge(grid[x][y + 1], grid[x][y], 120, true);
+                }
+            }
+        }
+        graph.putService(LandmarkTable.class, LandmarkTable.build(graph, 3));
+
+        proto = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        proto.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+    }
+
+    @Test
+    public void testTable() {
+        LandmarkTable table = graph.getService(LandmarkTable.class);
+        assertEquals(3, table.nLandmarks);
+        Vertex v = grid[0][0];
+        int column = table.getColumn(v);
+        assertTrue(column >= 0);
+        for (int l = 0; l < table.nLandmarks; l++) {
+            // the grid is symmetric, so distances in both directions are equal
+            assertEquals(table.getFromLandmark(column, l), table.getToLandmark(column, l));
+            assertEquals(0, table.getFromLandmark(column, l) % 1200);
+        }
+    }
+
+    @Test
+    public void testAdmissible() {
+        Vertex target = grid[SIZE - 1][0];
+        boolean tighter = false;
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                Vertex v = grid[x][y];
+                if (v == target)
+                    continue;
+                RoutingRequest options = proto.clone();
+                options.setRoutingContext(graph, v, target);
+                GraphPath path = new GenericAStar().getShortestPathTree(options).getPath(target, false);
+                assertNotNull(path);
+
+                LandmarkRemainingWeightHeuristic landmarks = new LandmarkRemainingWeightHeuristic();
+                landmarks.initialize(options, v, target, Long.MAX_VALUE);
+                DefaultRemainingWeightHeuristic euclidean = new DefaultRemainingWeightHeuristic();
+                euclidean.initialize(options, v, target, Long.MAX_VALUE);
+                State s = new State(v, options);
+                double estimate = landmarks.computeForwardWeight(s, target);
+                assertTrue(estimate <= path.getWeight() + 1e-6);
+                assertTrue(estimate >= euclidean.computeForwardWeight(s, target));
+                if (estimate > euclidean.computeForwardWeight(s, target) + 1)
+                    tighter = true;
+            }
+        }
+        // the detour to the bridge is visible to the landmarks but not to straight line distance
+        assertTrue(tighter);
+    }
+
+    @Test
+    public void testSafetyFactorsFallBackToEuclidean() {
+        for (StreetEdge e : graph.getStreetEdges()) {
+            e.setBicycleSafetyFactor(0.1f);
+        }
+        Vertex v = grid[0][0];
+        Vertex target = grid[SIZE - 1][0];
+        for (OptimizeType optimize : new OptimizeType[] { OptimizeType.SAFE, OptimizeType.TRIANGLE }) {
+            RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.BICYCLE));
+            options.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+            options.setOptimize(optimize);
+            if (optimize == OptimizeType.TRIANGLE) {
+                options.setTriangleTimeFactor(0);
+                options.setTriangleSlopeFactor(0);
+                options.setTriangleSafetyFactor(1);
+            }
+            options.setRoutingContext(graph, v, target);
+            GraphPath path = new GenericAStar().getShortestPathTree(options).getPath(target, false);
+            assertNotNull(path);
+
+            LandmarkRemainingWeightHeuristic landmarks = new LandmarkRemainingWeightHeuristic();
+            landmarks.initialize(options, v, target, Long.MAX_VALUE);
+            DefaultRemainingWeightHeuristic euclidean = new DefaultRemainingWeightHeuristic();
+            euclidean.initialize(options, v, target, Long.MAX_VALUE);
+            State s = new State(v, options);
+            assertEquals(euclidean.computeForwardWeight(s, target), landmarks.computeForwardWeight(s, target), 0);
+        }
+    }
+
+    @Test
+    public void testDownhillFallsBackToEuclidean() {
+        // A winding road down a hill, much longer than the straight line between its ends.
+        Graph hill = new Graph();
+        IntersectionVertex top = new IntersectionVertex(hill, "top", 0, 0);
+        IntersectionVertex bottom = new IntersectionVertex(hill, "bottom", 0.001, 0);
+        StreetWithElevationEdge down = new StreetWithElevationEdge(top, bottom, line(top, bottom),
+                "down", 1000, StreetTraversalPermission.ALL, false);
+        down.setElevationProfile(new PackedCoordinateSequence.Double(new Coordinate[] {
+                new Coordinate(0, 100), new Coordinate(1000, 20) }), false);
+        StreetWithElevationEdge up = new StreetWithElevationEdge(bottom, top, line(bottom, top),
+                "up", 1000, StreetTraversalPermission.ALL, true);
+        up.setElevationProfile(new PackedCoordinateSequence.Double(new Coordinate[] {
+                new Coordinate(0, 20), new Coordinate(1000, 100) }), false);
+        LandmarkTable table = LandmarkTable.build(hill, 2);
+        hill.putService(LandmarkTable.class, table);
+        assertTrue(table.hasSlopes());
+
+        for (TraverseMode mode : new TraverseMode[] { TraverseMode.BICYCLE, TraverseMode.WALK }) {
+            RoutingRequest options = new RoutingRequest(new TraverseModeSet(mode));
+            options.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+            options.setOptimize(OptimizeType.QUICK);
+            options.setRoutingContext(hill, top, bottom);
+            GraphPath path = new GenericAStar().getShortestPathTree(options).getPath(bottom, false);
+            assertNotNull(path);
+
+            LandmarkRemainingWeightHeuristic landmarks = new LandmarkRemainingWeightHeuristic();
+            landmarks.initialize(options, top, bottom, Long.MAX_VALUE);
+            DefaultRemainingWeightHeuristic euclidean = new DefaultRemainingWeightHeuristic();
+            euclidean.initialize(options, top, bottom, Long.MAX_VALUE);
+            State s = new State(top, options);
+            double estimate = landmarks.computeForwardWeight(s, bottom);
+            assertEquals(euclidean.computeForwardWeight(s, bottom), estimate, 0);
+            assertTrue(estimate <= path.getWeight());
+        }
+    }
+
+    private static LineString line(Vertex vA, Vertex vB) {
+        Coordinate[] coords = new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() };
+        return GeometryUtils.getGeometryFactory().createLineString(coords);
+    }
+
+    private StreetEdge edge(IntersectionVertex vA, IntersectionVertex vB, double length, boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[2];
+        coords[0] = vA.getCoordinate();
+        coords[1] = vB.getCoordinate();
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new StreetEdge(vA, vB, geom, name, length, StreetTraversalPermission.ALL, back);
+    }
+
+}
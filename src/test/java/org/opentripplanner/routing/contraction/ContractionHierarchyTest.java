@@ -0,0 +1,207 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import static org.junit.Assert.*;
+
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.ContractionHierarchySPTService;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SimpleIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class ContractionHierarchyTest {
+
+    private static final int SIZE = 6;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    private RoutingRequest proto;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                grid[x][y] = new IntersectionVertex(graph, "v_" + x + "_" + y, x * 0.001, y * 0.001);
+            }
+        }
+        // A grid with irregular block lengths and a few one-way streets.
+        Random random = new Random(42);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (x + 1 < SIZE) {
+                    double length = 50 + random.nextInt(100);
+                    edge(grid[x][y], grid[x + 1][y], length, false);
+                    if (y % 3 != 0)
+                        edge(grid[x + 1][y], grid[x][y], length, true);
+                }
+                if (y + 1 < SIZE) {
+                    double length = 50 + random.nextInt(100);
+                    edge(grid[x][y], grid[x][y + 1], length, false);
+                    edge(grid[x][y + 1], grid[x][y], length, true);
+                }
+            }
+        }
+
+        proto = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        proto.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+    }
+
+    @Test
+    public void testHierarchyDistancesMatchAStar() {
+        ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(proto).build(graph);
+        assertEquals(SIZE * SIZE, hierarchy.getNodeCount());
+        for (int i = 0; i < SIZE * SIZE; i += 5) {
+            for (int j = 0; j < SIZE * SIZE; j += 3) {
+                IntersectionVertex from = grid[i / SIZE][i % SIZE];
+                IntersectionVertex to = grid[j / SIZE][j % SIZE];
+                if (from == to)
+                    continue;
+                TIntDoubleMap sources = new TIntDoubleHashMap();
+                sources.put(hierarchy.getNode(from), 0);
+                TIntDoubleMap targets = new TIntDoubleHashMap();
+                targets.put(hierarchy.getNode(to), 0);
+                ContractionHierarchy.Path path = hierarchy.findPath(sources, targets);
+                assertNotNull(path);
+                assertEquals(from, path.from);
+                assertEquals(to, path.to);
+
+                // the unpacked edges form a connected path of the same weight
+                double weight = 0;
+                Edge previous = null;
+                for (Edge e : path.edges) {
+                    if (previous != null)
+                        assertEquals(previous.getToVertex(), e.getFromVertex());
+                    weight += ContractionHierarchy.staticWeight(e, proto);
+                    previous = e;
+                }
+                assertEquals(path.weight, weight, 1e-6);
+                assertEquals(aStarWeight(from, to), path.weight, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testSPTService() {
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        hierarchies.add(new ContractionHierarchyBuilder(proto).build(graph));
+        graph.putService(ContractionHierarchySet.class, hierarchies);
+        ContractionHierarchySPTService sptService = new ContractionHierarchySPTService(new GenericAStar());
+
+        IntersectionVertex from = grid[0][0];
+        IntersectionVertex to = grid[SIZE - 1][SIZE - 1];
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            RoutingRequest options = proto.clone();
+            options.setArriveBy(arriveBy);
+            options.setRoutingContext(graph, from, to);
+            ShortestPathTree spt = sptService.getShortestPathTree(options);
+            GraphPath path = spt.getPath(arriveBy ? from : to, false);
+            assertNotNull(path);
+            assertEquals(aStarWeight(from, to), path.getWeight(), 1e-6);
+        }
+
+        // Requests with other cost parameters are answered by the fallback search.
+        RoutingRequest options = proto.clone();
+        options.setWalkReluctance(proto.walkReluctance + 1);
+        assertNull(hierarchies.getHierarchy(options));
+        options.setRoutingContext(graph, from, to);
+        assertNotNull(sptService.getShortestPathTree(options).getPath(to, false));
+    }
+
+    @Test
+    public void testTurnCostsAndModes() {
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        hierarchies.add(new ContractionHierarchyBuilder(proto).build(graph));
+        assertNotNull(hierarchies.getHierarchy(proto));
+
+        // turns that add weight are not part of the hierarchy
+        RoutingRequest options = proto.clone();
+        options.traversalCostModel = new SimpleIntersectionTraversalCostModel();
+        assertNull(hierarchies.getHierarchy(options));
+        options.traversalCostModel = new ConstantIntersectionTraversalCostModel(10.0);
+        assertNull(hierarchies.getHierarchy(options));
+        options.turnReluctance = 0;
+        assertNotNull(hierarchies.getHierarchy(options));
+
+        // nor are mixed-mode requests
+        options = proto.clone();
+        options.setModes(new TraverseModeSet(TraverseMode.BICYCLE, TraverseMode.WALK));
+        assertNull(hierarchies.getHierarchy(options));
+
+        // nor requests whose costs depend on the state edges are entered in
+        options = proto.clone();
+        options.parkAndRide = true;
+        assertNull(hierarchies.getHierarchy(options));
+        options = proto.clone();
+        options.allowBikeRental = true;
+        assertNull(hierarchies.getHierarchy(options));
+    }
+
+    @Test
+    public void testBikeSwitchCosts() {
+        RoutingRequest bike = new RoutingRequest(new TraverseModeSet(TraverseMode.BICYCLE));
+        bike.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+        bike.bikeSwitchTime = 0;
+        bike.bikeSwitchCost = 0;
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        hierarchies.add(new ContractionHierarchyBuilder(bike).build(graph));
+        assertNotNull(hierarchies.getHierarchy(bike));
+
+        // a fresh state would count a switch on every edge, unlike a search
+        RoutingRequest options = bike.clone();
+        options.bikeSwitchCost = 60;
+        assertNull(hierarchies.getHierarchy(options));
+    }
+
+    private double aStarWeight(IntersectionVertex from, IntersectionVertex to) {
+        RoutingRequest options = proto.clone();
+        options.setRoutingContext(graph, from, to);
+        ShortestPathTree spt = new GenericAStar().getShortestPathTree(options);
+        return spt.getPath(to, false).getWeight();
+    }
+
+    private StreetEdge edge(IntersectionVertex vA, IntersectionVertex vB, double length, boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[2];
+        coords[0] = vA.getCoordinate();
+        coords[1] = vB.getCoordinate();
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new StreetEdge(vA, vB, geom, name, length, StreetTraversalPermission.ALL, back);
+    }
+
+}
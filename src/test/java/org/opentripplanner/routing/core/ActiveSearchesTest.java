@@ -0,0 +1,59 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ActiveSearchesTest {
+    @Test
+    public final void testOldestCancelledBeyondLimit() {
+        ActiveSearches searches = new ActiveSearches(2);
+        SearchCancellation a = new SearchCancellation();
+        SearchCancellation b = new SearchCancellation();
+        SearchCancellation c = new SearchCancellation();
+        searches.register(a);
+        searches.register(b);
+        assertFalse(a.isCancelled());
+        searches.register(c);
+        assertTrue(a.isCancelled());
+        assertFalse(b.isCancelled());
+        assertFalse(c.isCancelled());
+        assertEquals(2, searches.size());
+
+        // a finished request no longer counts against the limit
+        searches.unregister(b);
+        searches.register(new SearchCancellation());
+        assertFalse(c.isCancelled());
+
+        searches.cancelAll();
+        assertTrue(c.isCancelled());
+        assertEquals(0, searches.size());
+    }
+
+    @Test
+    public final void testNoLimit() {
+        ActiveSearches searches = new ActiveSearches(0);
+        SearchCancellation first = new SearchCancellation();
+        searches.register(first);
+        for (int i = 0; i < 100; i++) {
+            searches.register(new SearchCancellation());
+        }
+        assertFalse(first.isCancelled());
+        assertEquals(101, searches.size());
+    }
+}
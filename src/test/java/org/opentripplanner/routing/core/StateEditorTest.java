@@ -14,6 +14,9 @@
 package org.opentripplanner.routing.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -28,4 +31,27 @@ public class StateEditorTest {
 
         assertEquals(999999999, stateEditor.child.getTimeSeconds());
     }
+
+    @Test
+    public final void testChildChangesDoNotAffectParent() {
+        RoutingRequest routingRequest = new RoutingRequest();
+        StateEditor parentEditor = new StateEditor(routingRequest, null);
+        parentEditor.setExtension("key", 1);
+        parentEditor.setCarParked(true);
+        State parent = parentEditor.makeState();
+
+        StateEditor childEditor = new StateEditor(parent, null);
+        childEditor.setExtension("key", 2);
+        childEditor.setExtension("other", 3);
+        childEditor.setBikeRenting(true);
+        State child = childEditor.makeState();
+
+        assertEquals(1, parent.getExtension("key"));
+        assertNull(parent.getExtension("other"));
+        assertFalse(parent.isBikeRenting());
+        assertEquals(2, child.getExtension("key"));
+        assertEquals(3, child.getExtension("other"));
+        assertTrue(child.isBikeRenting());
+        assertTrue(child.isCarParked());
+    }
 }
@@ -0,0 +1,72 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+import org.opentripplanner.routing.graph.Vertex;
+
+public class VertexMapTest {
+    @Test
+    public final void testSetGetClear() {
+        Graph graph = new Graph();
+        Vertex v0 = new SimpleConcreteVertex(graph, "v0", 0, 0);
+        VertexMap<String> map = new VertexMap<String>(0);
+        // Vertices created after the map was sized must still fit.
+        Vertex v1 = new SimpleConcreteVertex(graph, "v1", 0, 1);
+        Vertex v2 = new SimpleConcreteVertex(graph, "v2", 0, 2);
+
+        assertNull(map.get(v0));
+        map.set(v0, "a");
+        map.set(v2, "c");
+        map.set(v2, "cc");
+        assertEquals("a", map.get(v0));
+        assertNull(map.get(v1));
+        assertEquals("cc", map.get(v2));
+        assertEquals(2, map.size());
+        assertTrue(map.values().contains("cc"));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(v0));
+        assertNull(map.get(v2));
+        assertTrue(map.values().isEmpty());
+    }
+
+    @Test
+    public final void testVerticesOnManyPages() {
+        Graph graph = new Graph();
+        Vertex first = new SimpleConcreteVertex(graph, "first", 0, 0);
+        VertexMap<String> map = new VertexMap<String>(first.getIndex() + 1);
+        Vertex last = null;
+        for (int i = 0; i < 3000; i++) {
+            last = new SimpleConcreteVertex(graph, "v" + i, 1, i);
+        }
+        map.set(last, "last");
+        map.set(first, "first");
+        assertEquals("last", map.get(last));
+        assertEquals("first", map.get(first));
+        assertEquals(2, map.size());
+        map.clear();
+        assertNull(map.get(last));
+        map.set(last, "again");
+        assertEquals("again", map.get(last));
+        assertEquals(1, map.size());
+    }
+}
@@ -15,6 +15,9 @@ package org.opentripplanner.routing.edgetype;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.opentripplanner.common.TurnRestriction;
@@ -24,6 +27,7 @@ import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 
@@ -284,6 +288,113 @@ public class PlainStreetEdgeTest {
         assertNotNull(e0.traverse(e1.traverse(state)));
     }
 
+    @Test
+    public void testCompiledStreetCostModel() {
+        StreetEdge e1 = edge(v1, v2, 100.0, StreetTraversalPermission.ALL);
+
+        RoutingRequest options = proto.clone();
+        options.setMode(TraverseMode.WALK);
+        options.setRoutingContext(_graph, v1, v2);
+        options.compileStreetCostModel();
+        options.walkSpeed = 2.0;
+
+        // The compiled preferences hold until released
+        State s1 = e1.traverse(new State(options));
+        assertEquals(100.0, s1.getWeight(), 0.0);
+        assertEquals(100, s1.getElapsedTimeSeconds());
+
+        options.releaseStreetCostModel();
+        State s2 = e1.traverse(new State(options));
+        assertEquals(50.0, s2.getWeight(), 1e-6);
+
+        // Clones made during a search share its compiled model
+        options.compileStreetCostModel();
+        RoutingRequest clone = options.clone();
+        clone.walkSpeed = 4.0;
+        assertSame(options.getStreetCostModel(), clone.getStreetCostModel());
+        assertEquals(2.0, clone.getStreetCostModel().walkSpeed, 0.0);
+
+        // The model of the original can be released independently of its clones
+        options.releaseStreetCostModel();
+        assertFalse(options.isStreetCostModelCompiled());
+        assertTrue(clone.isStreetCostModelCompiled());
+    }
+
+    /**
+     * Plain traversals make their state directly rather than through a StateEditor. Both ways must give the same
+     * states, in depart-after and arrive-by searches.
+     */
+    @Test
+    public void testFastTraversalMatchesStateEditor() {
+        IntersectionVertex v3 = vertex("maple_3rd", 1.0, 3.0);
+        IntersectionVertex v4 = vertex("maple_4th", 1.0, 4.0);
+        StreetEdge e0 = edge(v0, v1, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e1 = edge(v1, v2, 120.0, StreetTraversalPermission.ALL);
+        StreetEdge e2 = edge(v2, v3, 80.0, StreetTraversalPermission.PEDESTRIAN);
+        StreetEdge e3 = edge(v3, v4, 90.0, StreetTraversalPermission.PEDESTRIAN);
+
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            RoutingRequest options = proto.clone();
+            options.setArriveBy(arriveBy);
+            options.setMode(TraverseMode.WALK);
+            assertSameTraversals(options, e0, e1, e2, e3);
+
+            // riding, then walking the bike on pedestrian streets
+            options = proto.clone();
+            options.setArriveBy(arriveBy);
+            options.setMode(TraverseMode.BICYCLE);
+            assertSameTraversals(options, e0, e1, e2, e3);
+
+            options = proto.clone();
+            options.setArriveBy(arriveBy);
+            options.setMode(TraverseMode.CAR);
+            assertSameTraversals(options, e0, e1);
+
+            // the walk limit of transit searches is reached on the third edge
+            options = proto.clone();
+            options.setArriveBy(arriveBy);
+            options.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+            options.setMaxWalkDistance(250);
+            assertSameTraversals(options, e0, e1, e2, e3);
+        }
+    }
+
+    private void assertSameTraversals(RoutingRequest options, StreetEdge... edges) {
+        List<State> fast = traverseAll(options, true, edges);
+        List<State> slow = traverseAll(options, false, edges);
+        assertEquals(slow.size(), fast.size());
+        for (int i = 0; i < slow.size(); i++) {
+            State f = fast.get(i), s = slow.get(i);
+            assertSame(s.getVertex(), f.getVertex());
+            assertEquals(s.getTimeSeconds(), f.getTimeSeconds());
+            assertEquals(s.getWeight(), f.getWeight(), 0.0);
+            assertEquals(s.getWalkDistance(), f.getWalkDistance(), 0.0);
+            assertEquals(s.getBackMode(), f.getBackMode());
+            assertEquals(s.isBackWalkingBike(), f.isBackWalkingBike());
+        }
+    }
+
+    /** Traverse a chain of edges from its start, or from its end in arrive-by searches. */
+    private List<State> traverseAll(RoutingRequest options, boolean fastTraversal, StreetEdge... edges) {
+        int n = edges.length;
+        Vertex from = edges[0].getFromVertex();
+        Vertex to = edges[n - 1].getToVertex();
+        options.setRoutingContext(_graph, from, to);
+        List<State> states = new ArrayList<State>();
+        StreetEdge.fastTraversal = fastTraversal;
+        try {
+            State s = new State(options.arriveBy ? to : from, options);
+            for (int i = 0; i < n; i++) {
+                s = edges[options.arriveBy ? n - 1 - i : i].traverse(s);
+                assertNotNull(s);
+                states.add(s);
+            }
+        } finally {
+            StreetEdge.fastTraversal = true;
+        }
+        return states;
+    }
+
     /****
      * Private Methods
      ****/
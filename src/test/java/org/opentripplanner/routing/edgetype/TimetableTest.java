@@ -36,6 +36,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -298,4 +300,71 @@ public class TimetableTest {
         tripUpdate = tripUpdateBuilder.build();
         assertFalse(timetable.update(tripUpdate, timeZone, serviceDate));
     }
+
+    @Test
+    public void testSortedTripSearch() {
+        // Searches in a finished copy use the sorted trip indexes, in an unfinished one a linear scan.
+        Timetable sorted = new Timetable(timetable, null);
+        sorted.finish();
+        Timetable scanned = new Timetable(timetable, null);
+        assertSameTrips(sorted, scanned);
+
+        // Delay a trip so that it overtakes the others, then sort again.
+        int tripIndex = sorted.getTripIndex(new AgencyAndId("agency", "1.1"));
+        TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.setTrip(TripDescriptor.newBuilder().setTripId("1.1")
+                .setScheduleRelationship(TripDescriptor.ScheduleRelationship.SCHEDULED));
+        StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder(0);
+        stopTimeUpdateBuilder.setStopSequence(sorted.getTripTimes(tripIndex).getStopSequence(0));
+        stopTimeUpdateBuilder.getArrivalBuilder().setDelay(2 * 60 * 60);
+        stopTimeUpdateBuilder.getDepartureBuilder().setDelay(2 * 60 * 60);
+        TripUpdate tripUpdate = tripUpdateBuilder.build();
+        assertTrue(sorted.update(tripUpdate, timeZone, serviceDate));
+        assertTrue(scanned.update(tripUpdate, timeZone, serviceDate));
+        sorted.finish();
+        assertSameTrips(sorted, scanned);
+
+        // A copy of a finished timetable is finished by merging the updated trip into its order.
+        Timetable patched = new Timetable(timetable, null);
+        assertTrue(patched.update(tripUpdate, timeZone, serviceDate));
+        patched.finish();
+        assertSameTrips(patched, scanned);
+    }
+
+    @Test
+    public void testTripsGroupedByService() {
+        // Move every other trip to a service that never runs, interleaving the two services in time.
+        int notRunning = graph.serviceCodes.size();
+        Timetable sorted = new Timetable(timetable, null);
+        Timetable scanned = new Timetable(timetable, null);
+        for (int i = 0; i < sorted.tripTimes.size(); i += 2) {
+            TripTimes tt = new TripTimes(sorted.getTripTimes(i));
+            tt.serviceCode = notRunning;
+            sorted.tripTimes.set(i, tt);
+            scanned.tripTimes.set(i, tt);
+        }
+        sorted.finish();
+        assertSameTrips(sorted, scanned);
+    }
+
+    private void assertSameTrips(Timetable sorted, Timetable scanned) {
+        Vertex stop_a = graph.getVertex("agency:A");
+        Vertex stop_c = graph.getVertex("agency:C");
+        RoutingRequest options = new RoutingRequest();
+        long midnight = TestUtils.dateInSeconds("America/New_York", 2009, AUGUST, 7, 0, 0, 0);
+        options.dateTime = midnight;
+        options.setRoutingContext(graph, stop_a, stop_c);
+        int nStops = pattern.getStops().size();
+        for (ServiceDay serviceDay : options.rctx.serviceDays) {
+            for (int t = -60 * 60; t < 30 * 60 * 60; t += 5 * 60) {
+                State s0 = new State(stop_a, midnight + t, options);
+                for (int stopIndex = 0; stopIndex < nStops; stopIndex++) {
+                    for (boolean boarding : new boolean[] { true, false }) {
+                        assertEquals(scanned.getNextTrip(s0, serviceDay, stopIndex, boarding),
+                                sorted.getNextTrip(s0, serviceDay, stopIndex, boarding));
+                    }
+                }
+            }
+        }
+    }
 }
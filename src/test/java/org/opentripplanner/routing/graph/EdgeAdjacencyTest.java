@@ -0,0 +1,94 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.routing.location.TemporaryStreetLocation;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class EdgeAdjacencyTest {
+
+    @Test
+    public void testFrozenEdges() {
+        Graph graph = new Graph();
+        Vertex a = new SimpleConcreteVertex(graph, "a", 0, 0);
+        Vertex b = new SimpleConcreteVertex(graph, "b", 0, 1);
+        Vertex c = new SimpleConcreteVertex(graph, "c", 1, 0);
+        Edge ab = new SimpleConcreteEdge(a, b);
+        Edge ac = new SimpleConcreteEdge(a, c);
+        Edge ba = new SimpleConcreteEdge(b, a);
+        graph.freezeAdjacency();
+
+        EdgeAdjacency adjacency = adjacency(a);
+        assertNotNull(adjacency);
+        assertSame(adjacency, adjacency(c));
+        assertEquals(3, adjacency.getEdgeCount());
+        assertEquals(Arrays.asList(ab, ac), frozen(a, false));
+        assertEquals(Arrays.asList(ba), frozen(a, true));
+        assertEquals(Arrays.asList(ac), frozen(c, true));
+        assertTrue(frozen(c, false).isEmpty());
+        // the vertices no longer hold their own edges, but still give them out
+        assertEquals(Arrays.asList(ab, ac), new ArrayList<Edge>(a.getOutgoing()));
+        assertEquals(Arrays.asList(ba), new ArrayList<Edge>(a.getIncoming()));
+        assertEquals(2, a.getDegreeOut());
+        assertEquals(1, a.getDegreeIn());
+
+        // temporary edges go to the overlay and leave the frozen edges alone
+        TemporaryStreetLocation end = new TemporaryStreetLocation("end", new Coordinate(1, 1),
+                "end", true);
+        Edge temporary = new TemporaryConcreteEdge(c, end);
+        assertSame(adjacency, adjacency(c));
+        assertEquals(Arrays.asList(temporary), Arrays.asList(c.getTemporaryEdges(false)));
+        assertEquals(Arrays.asList(temporary), c.getOutgoing());
+        assertEquals(1, c.getDegreeOut());
+        end.dispose();
+        assertEquals(0, c.getTemporaryEdges(false).length);
+        assertSame(adjacency, adjacency(c));
+
+        // a permanent change detaches the vertex, which gets its edges back
+        Edge cb = new SimpleConcreteEdge(c, b);
+        assertNull(c.getAdjacencySlot());
+        assertNull(b.getAdjacencySlot());
+        assertSame(adjacency, adjacency(a));
+        assertEquals(Arrays.asList(cb), c.getOutgoing());
+        assertEquals(Arrays.asList(ac), c.getIncoming());
+        assertEquals(Arrays.asList(ab, cb), b.getIncoming());
+        graph.freezeAdjacency();
+        assertEquals(Arrays.asList(cb), frozen(c, false));
+        assertEquals(Arrays.asList(ab, cb), frozen(b, true));
+    }
+
+    private static EdgeAdjacency adjacency(Vertex v) {
+        EdgeAdjacency.Slot slot = v.getAdjacencySlot();
+        return slot == null ? null : slot.adjacency;
+    }
+
+    private static List<Edge> frozen(Vertex v, boolean incoming) {
+        EdgeAdjacency.Slot slot = v.getAdjacencySlot();
+        return Arrays.asList(slot.adjacency.getEdges(incoming)).subList(slot.getStart(incoming),
+                slot.getEnd(incoming));
+    }
+
+}
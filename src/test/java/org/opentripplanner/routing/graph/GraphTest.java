@@ -15,11 +15,32 @@ package org.opentripplanner.routing.graph;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.opentripplanner.util.ArrayUtils.contains;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+
 import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.MappedFileInputStream;
+
+import com.vividsolutions.jts.geom.Coordinate;
 
 public class GraphTest {
     @Test
@@ -124,4 +145,151 @@ public class GraphTest {
         assertFalse(contains (alertPatches[9], alertPatch2));
         assertFalse(contains (alertPatches[9], alertPatch3));
     }
+
+    @Test
+    public final void testSaveLoadRoundTrip() throws Exception {
+        Graph graph = new Graph();
+        Vertex vertex0 = new SimpleConcreteVertex(graph, "Vertex 0", 0, 0);
+        Vertex vertex1 = new SimpleConcreteVertex(graph, "Vertex 1", 0, 1);
+        new SimpleConcreteEdge(vertex0, vertex1);
+        new SimpleConcreteEdge(vertex1, vertex0);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        graph.save(baos);
+
+        Graph loaded = Graph.load(new ByteArrayInputStream(baos.toByteArray()), Graph.LoadLevel.FULL);
+        assertEquals(2, loaded.countVertices());
+        assertEquals(2, loaded.countEdges());
+        assertEquals(1, loaded.getVertex("Vertex 0").getDegreeOut());
+    }
+
+    @Test
+    public final void testSaveLoadStreetSection() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -74.0, 40.0, "First Street");
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -74.0, 40.001, "First Street");
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -74.001, 40.001);
+        c.trafficLight = true;
+        StreetEdge ab = new StreetEdge(a, b, GeometryUtils.makeLineString(-74.0, 40.0, -74.0002, 40.0005,
+                -74.0, 40.001), "First Street", 111, StreetTraversalPermission.ALL, false);
+        StreetEdge ba = new StreetEdge(b, a, GeometryUtils.makeLineString(-74.0, 40.001, -74.0002, 40.0005,
+                -74.0, 40.0), "First Street", 111, StreetTraversalPermission.ALL, true);
+        ba.shareData(ab);
+        ab.setBicycleSafetyFactor(0.8f);
+        StreetWithElevationEdge bc = new StreetWithElevationEdge(b, c, GeometryUtils.makeLineString(-74.0,
+                40.001, -74.001, 40.001), "Second Street", 85, StreetTraversalPermission.PEDESTRIAN, false);
+        bc.setElevationProfile(new PackedCoordinateSequence.Double(new Coordinate[] {
+                new Coordinate(0, 10), new Coordinate(85, 12) }), false);
+        // edges outside the street section, referring to vertices and edges inside it
+        new SimpleConcreteEdge(c, a);
+        graph.addTurnRestriction(ab, new TurnRestriction(ab, bc, TurnRestrictionType.NO_TURN,
+                new TraverseModeSet(TraverseMode.CAR)));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        graph.save(baos);
+
+        Graph loaded = Graph.load(new ByteArrayInputStream(baos.toByteArray()), Graph.LoadLevel.FULL);
+        assertEquals(3, loaded.countVertices());
+        assertEquals(4, loaded.countEdges());
+        IntersectionVertex la = (IntersectionVertex) loaded.getVertex("a");
+        IntersectionVertex lb = (IntersectionVertex) loaded.getVertex("b");
+        IntersectionVertex lc = (IntersectionVertex) loaded.getVertex("c");
+        assertEquals("First Street", la.getName());
+        assertEquals(40.001, lb.getY(), 0);
+        assertTrue(lc.trafficLight);
+        assertFalse(lb.trafficLight);
+
+        StreetEdge lab = (StreetEdge) la.getOutgoing().iterator().next();
+        assertSame(lb, lab.getToVertex());
+        assertEquals(ab.getId(), lab.getId());
+        assertEquals("First Street", lab.getName());
+        assertEquals(111, lab.getDistance(), 0.001);
+        assertEquals(0.8f, lab.getBicycleSafetyFactor(), 0);
+        assertEquals(StreetTraversalPermission.ALL, lab.getPermission());
+        assertEquals(ab.getGeometry(), lab.getGeometry());
+        StreetEdge lba = null;
+        StreetWithElevationEdge lbc = null;
+        for (Edge e : lb.getOutgoing()) {
+            if (e.getToVertex() == la) lba = (StreetEdge) e;
+            if (e.getToVertex() == lc) lbc = (StreetWithElevationEdge) e;
+        }
+        assertNotNull(lba);
+        assertTrue(lba.isBack());
+        assertEquals(ba.getGeometry(), lba.getGeometry());
+        assertNotNull(lbc);
+        assertEquals(StreetTraversalPermission.PEDESTRIAN, lbc.getPermission());
+        assertEquals(bc.getMaxSlope(), lbc.getMaxSlope(), 0);
+        assertEquals(bc.getElevationProfile().size(), lbc.getElevationProfile().size());
+
+        // the object section refers to the very vertices and edges of the street section
+        assertSame(la, lc.getOutgoing().iterator().next().getToVertex());
+        TurnRestriction restriction = loaded.getTurnRestrictions(lab).get(0);
+        assertSame(lab, restriction.from);
+        assertSame(lbc, restriction.to);
+    }
+
+    @Test
+    public final void testSaveLoadMappedStreetSection() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -74.0, 40.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -74.0, 40.001);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", -74.001, 40.001);
+        StreetEdge ab = new StreetEdge(a, b, GeometryUtils.makeLineString(-74.0, 40.0, -74.0002, 40.0005,
+                -74.0, 40.001), "First Street", 111, StreetTraversalPermission.ALL, false);
+        StreetEdge ba = new StreetEdge(b, a, GeometryUtils.makeLineString(-74.0, 40.001, -74.0002, 40.0005,
+                -74.0, 40.0), "First Street", 111, StreetTraversalPermission.ALL, true);
+        ba.shareData(ab);
+        StreetWithElevationEdge bc = new StreetWithElevationEdge(b, c, GeometryUtils.makeLineString(-74.0,
+                40.001, -74.0005, 40.0012, -74.001, 40.001), "Second Street", 85,
+                StreetTraversalPermission.PEDESTRIAN, false);
+        new SimpleConcreteEdge(c, a);
+
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        graph.save(file);
+
+        Graph loaded;
+        MappedFileInputStream in = new MappedFileInputStream(file);
+        try {
+            loaded = Graph.load(in, Graph.LoadLevel.FULL);
+        } finally {
+            in.close();
+        }
+        assertEquals(3, loaded.countVertices());
+        assertEquals(4, loaded.countEdges());
+        IntersectionVertex la = (IntersectionVertex) loaded.getVertex("a");
+        IntersectionVertex lb = (IntersectionVertex) loaded.getVertex("b");
+        StreetEdge lab = (StreetEdge) la.getOutgoing().iterator().next();
+        // geometries are read from the mapping, which outlives the stream
+        assertEquals(ab.getGeometry(), lab.getGeometry());
+        for (Edge e : lb.getOutgoing()) {
+            StreetEdge se = (StreetEdge) e;
+            assertEquals(se.getToVertex() == la ? ba.getGeometry() : bc.getGeometry(), se.getGeometry());
+        }
+
+        // a graph loaded from a mapping saves its geometries again
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        loaded.save(baos);
+        Graph reloaded = Graph.load(new ByteArrayInputStream(baos.toByteArray()), Graph.LoadLevel.FULL);
+        StreetEdge rab = (StreetEdge) reloaded.getVertex("a").getOutgoing().iterator().next();
+        assertEquals(ab.getGeometry(), rab.getGeometry());
+        assertEquals(ba.getGeometry(), reloaded.getEdgeById(ba.getId()).getGeometry());
+    }
+
+    @Test
+    public final void testLoadRejectsStreamWithoutHeader() throws Exception {
+        // A bare serialized object, as written by OTP versions without a graph file header.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(new Graph());
+        out.close();
+
+        try {
+            Graph.load(new ByteArrayInputStream(baos.toByteArray()), Graph.LoadLevel.FULL);
+            fail("Graph without file header should not load.");
+        } catch (IllegalStateException e) {
+            // expected: no magic number in front of the graph
+            assertTrue(e.getMessage().contains("magic number"));
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+
+public class GraphUpdaterManagerTest {
+
+    @Test
+    public void testPriorityAndCoalescing() throws Exception {
+        GraphUpdaterManager manager = new GraphUpdaterManager(new Graph());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        try {
+            // keep the writer busy while the queue fills up
+            manager.execute(new GraphWriterRunnable() {
+                @Override
+                public void run(Graph graph) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            started.await();
+
+            Object key = new Object();
+            manager.execute(record(log, "low 1"), GraphUpdaterManager.LOW_PRIORITY, key);
+            manager.execute(record(log, "normal"));
+            manager.execute(record(log, "low 2"), GraphUpdaterManager.LOW_PRIORITY, key);
+            manager.execute(record(log, "high"), GraphUpdaterManager.HIGH_PRIORITY, null);
+            assertEquals(3, manager.getQueueSize());
+            assertEquals(1, manager.getCoalescedCount());
+
+            release.countDown();
+            manager.executeBlocking(record(log, "last"), GraphUpdaterManager.LOW_PRIORITY, null);
+            assertEquals(Arrays.asList("high", "normal", "low 2", "last"), log);
+            assertEquals(0, manager.getQueueSize());
+            assertTrue(manager.getLastQueueLatency() >= 0);
+            assertTrue(manager.getLastRunDuration() >= 0);
+        } finally {
+            release.countDown();
+            manager.stop();
+        }
+    }
+
+    private static GraphWriterRunnable record(final List<String> log, final String name) {
+        return new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+                log.add(name);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,90 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.stoptime;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterRunnable;
+import org.opentripplanner.updater.PropertiesPreferences;
+
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+public class PollingStoptimeUpdaterTest {
+    @Test
+    public void testEmptyFullDatasetIsApplied() throws Exception {
+        GraphUpdaterManager manager = mock(GraphUpdaterManager.class);
+        PollingStoptimeUpdater updater = updater(manager, Incrementality.FULL_DATASET);
+        updater.runPolling();
+
+        ArgumentCaptor<GraphWriterRunnable> runnable = ArgumentCaptor.forClass(GraphWriterRunnable.class);
+        verify(manager).execute(runnable.capture(), anyInt(), any());
+        Graph graph = mock(Graph.class);
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        graph.timetableSnapshotSource = snapshotSource;
+        runnable.getValue().run(graph);
+        // the snapshot source then reverts every trip updated by earlier messages
+        verify(snapshotSource).applyTripUpdates(true, Collections.<TripUpdate>emptyList(), "agency");
+    }
+
+    @Test
+    public void testEmptyDifferentialIsSkipped() throws Exception {
+        GraphUpdaterManager manager = mock(GraphUpdaterManager.class);
+        PollingStoptimeUpdater updater = updater(manager, Incrementality.DIFFERENTIAL);
+        updater.runPolling();
+        verify(manager, never()).execute(any(GraphWriterRunnable.class), anyInt(), any());
+    }
+
+    private static PollingStoptimeUpdater updater(GraphUpdaterManager manager, Incrementality incrementality)
+            throws Exception {
+        File file = File.createTempFile("gtfs-rt", ".pb");
+        file.deleteOnExit();
+        writeEmptyFeed(file, incrementality);
+        Properties properties = new Properties();
+        properties.setProperty("sourceType", "gtfs-file");
+        properties.setProperty("file", file.getPath());
+        properties.setProperty("defaultAgencyId", "agency");
+        PollingStoptimeUpdater updater = new PollingStoptimeUpdater();
+        updater.setGraphUpdaterManager(manager);
+        updater.configure(mock(Graph.class), new PropertiesPreferences(properties));
+        return updater;
+    }
+
+    private static void writeEmptyFeed(File file, Incrementality incrementality) throws IOException {
+        FeedMessage message = FeedMessage.newBuilder().setHeader(FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0").setIncrementality(incrementality)).build();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            message.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -87,7 +87,7 @@ public class TimetableSnapshotSourceTest {
         assertNotNull(resolver);
         assertSame(resolver, updater.getTimetableSnapshot());
 
-        updater.applyTripUpdates(Arrays.asList(TripUpdate.parseFrom(cancellation)), "agency");
+        updater.applyTripUpdates(Arrays.asList(cancel("1.2")), "agency");
         assertSame(resolver, updater.getTimetableSnapshot());
 
         updater.maxSnapshotFrequency = (-1);
@@ -96,6 +96,97 @@ public class TimetableSnapshotSourceTest {
         assertNotSame(resolver, newResolver);
     }
 
+    @Test
+    public void testReaderCommit() throws InvalidProtocolBufferException {
+        updater.maxSnapshotFrequency = (Integer.MAX_VALUE);
+        updater.applyTripUpdates(Arrays.asList(TripUpdate.parseFrom(cancellation)), "agency");
+        TimetableResolver resolver = updater.getTimetableSnapshot();
+        assertNotNull(resolver);
+        updater.applyTripUpdates(Arrays.asList(cancel("1.2")), "agency");
+        assertSame(resolver, updater.getTimetableSnapshot());
+        assertEquals(0, updater.getReaderCommitCount());
+
+        // once due, the pending updates are committed by the next reader
+        updater.maxSnapshotFrequency = (-1);
+        assertNotSame(resolver, updater.getTimetableSnapshot());
+        assertEquals(1, updater.getReaderCommitCount());
+        assertEquals(3, updater.getSnapshotReadCount());
+    }
+
+    @Test
+    public void testSkipIdenticalUpdate() throws InvalidProtocolBufferException {
+        updater.maxSnapshotFrequency = (-1);
+        updater.applyTripUpdates(Arrays.asList(TripUpdate.parseFrom(cancellation)), "agency");
+        TimetableResolver resolver = updater.getTimetableSnapshot();
+        assertEquals(1, updater.getAppliedUpdateCount());
+
+        // the same update again changes nothing, so no new snapshot is made
+        updater.applyTripUpdates(Arrays.asList(TripUpdate.parseFrom(cancellation)), "agency");
+        assertSame(resolver, updater.getTimetableSnapshot());
+        assertEquals(1, updater.getAppliedUpdateCount());
+        assertEquals(1, updater.getSkippedUpdateCount());
+        assertEquals(0, updater.getFailedUpdateCount());
+
+        updater.applyTripUpdates(Arrays.asList(cancel("no such trip")), "agency");
+        assertEquals(1, updater.getFailedUpdateCount());
+    }
+
+    @Test
+    public void testFullDataset() throws InvalidProtocolBufferException {
+        AgencyAndId tripId = new AgencyAndId("agency", "1.1");
+        AgencyAndId tripId2 = new AgencyAndId("agency", "1.2");
+        Trip trip = graph.index.tripForId.get(tripId);
+        TripPattern pattern = graph.index.patternForTrip.get(trip);
+        int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+        int tripIndex2 = pattern.scheduledTimetable.getTripIndex(tripId2);
+        updater.maxSnapshotFrequency = (-1);
+
+        updater.applyTripUpdates(true, Arrays.asList(TripUpdate.parseFrom(cancellation)), "agency");
+        // a differential message keeps the updates of other trips
+        updater.applyTripUpdates(false, Arrays.asList(cancel("1.2")), "agency");
+        Timetable forToday = updater.getTimetableSnapshot().resolve(pattern, serviceDate);
+        Timetable schedule = pattern.scheduledTimetable;
+        assertNotSame(schedule.getTripTimes(tripIndex), forToday.getTripTimes(tripIndex));
+        assertNotSame(schedule.getTripTimes(tripIndex2), forToday.getTripTimes(tripIndex2));
+
+        // a full dataset restores the scheduled times of the trips it does not mention
+        updater.applyTripUpdates(true, Arrays.asList(cancel("1.2")), "agency");
+        forToday = updater.getTimetableSnapshot().resolve(pattern, serviceDate);
+        assertSame(schedule.getTripTimes(tripIndex), forToday.getTripTimes(tripIndex));
+        assertNotSame(schedule.getTripTimes(tripIndex2), forToday.getTripTimes(tripIndex2));
+    }
+
+    @Test
+    public void testUpdatesOfSeveralPatterns() {
+        String[] tripIds = {"1.1", "2.1", "1.2", "3.1", "no such trip", "2.2"};
+        TripUpdate[] tripUpdates = new TripUpdate[tripIds.length];
+        for (int i = 0; i < tripIds.length; i++) {
+            tripUpdates[i] = cancel(tripIds[i]);
+        }
+        updater.applyTripUpdates(Arrays.asList(tripUpdates), "agency");
+        assertEquals(5, updater.getAppliedUpdateCount());
+        assertEquals(1, updater.getFailedUpdateCount());
+
+        TimetableResolver resolver = updater.getTimetableSnapshot();
+        for (String id : tripIds) {
+            AgencyAndId tripId = new AgencyAndId("agency", id);
+            Trip trip = graph.index.tripForId.get(tripId);
+            if (trip == null) continue;
+            TripPattern pattern = graph.index.patternForTrip.get(trip);
+            int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+            TripTimes tripTimes = resolver.resolve(pattern, serviceDate).getTripTimes(tripIndex);
+            assertNotSame(pattern.scheduledTimetable.getTripTimes(tripIndex), tripTimes);
+            assertEquals(TripTimes.UNAVAILABLE, tripTimes.getDepartureTime(0));
+        }
+    }
+
+    private static TripUpdate cancel(String tripId) {
+        TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+        tripDescriptorBuilder.setTripId(tripId);
+        tripDescriptorBuilder.setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED);
+        return TripUpdate.newBuilder().setTrip(tripDescriptorBuilder).build();
+    }
+
     @Test
     public void testHandleCanceledTrip() throws InvalidProtocolBufferException {
         AgencyAndId tripId = new AgencyAndId("agency", "1.1");
@@ -41,6 +41,6 @@ public class TripUpdateGraphWriterRunnableTest {
 
         tripUpdateGraphWriterRunnable.run(graph);
 
-        verify(timetableSnapshotSource).applyTripUpdates(updates, agencyId);
+        verify(timetableSnapshotSource).applyTripUpdates(false, updates, agencyId);
     }
 }
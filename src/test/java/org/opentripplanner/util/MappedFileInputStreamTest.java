@@ -0,0 +1,77 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import com.google.common.io.ByteStreams;
+
+public class MappedFileInputStreamTest extends TestCase {
+
+    public void testReadWholeFile() throws Exception {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+
+        try (InputStream in = new MappedFileInputStream(file)) {
+            assertEquals(data[0] & 0xFF, in.read());
+            assertEquals(10, in.skip(10));
+            assertEquals(data.length - 11, in.available());
+            byte[] rest = ByteStreams.toByteArray(in);
+            assertEquals(data.length - 11, rest.length);
+            for (int i = 0; i < rest.length; i++) {
+                assertEquals(data[i + 11], rest[i]);
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    public void testMapRegion() throws Exception {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+
+        ByteBuffer region;
+        try (MappedFileInputStream in = new MappedFileInputStream(file)) {
+            assertEquals(100, in.skip(100));
+            assertEquals(100, in.position());
+            region = in.map(in.position(), 50);
+            // mapping a region does not move the stream
+            assertEquals(100, in.position());
+            assertEquals(data[100] & 0xFF, in.read());
+        }
+        // the region outlives the stream
+        assertEquals(50, region.capacity());
+        assertEquals(data[100], region.get(0));
+        assertEquals(data[149], region.get(49));
+    }
+
+}